@@ -0,0 +1,298 @@
+package stringmatch.ds.fmindex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import stringmatch.ds.suffixarray.SuffixArrays;
+import stringmatch.ds.text.Alphabet;
+import stringmatch.ds.text.Text;
+import stringmatch.ds.util.MatchSet;
+import stringmatch.ds.util.MatchVisitor;
+import stringmatch.ds.util.Pair;
+
+/*
+ * An FM-index of a text: its Burrows-Wheeler transform in a wavelet matrix,
+ * and every sampleRate-th entry of its suffix array,
+ *   P. Ferragina and G. Manzini, "Opportunistic data structures with
+ *   applications", FOCS 2000.
+ * It answers the same queries as the suffix trees without keeping the text
+ * or any nodes around: about log(sigma) bits per symbol for the transform,
+ * plus 32 / sampleRate + 1 bits for the samples.
+ *
+ * A pattern is matched backwards, one symbol at a time, keeping the range of
+ * suffix array rows whose suffixes start with what has been matched so far.
+ * At a wildcard the range splits into one range for each distinct symbol
+ * before it, other than END_CHAR and SEPARATOR, which the wavelet matrix
+ * lists without looking at the others. Counting takes O(m log sigma) time
+ * without wildcards; locating takes O(sampleRate log sigma) more for each
+ * occurrence, to walk back to a sampled row.
+ *
+ * Symbols are renamed to [0, sigma) in code order, so the rows are in the
+ * same order as in SuffixArrays. The text must end in its only END_CHAR.
+ */
+public class FMIndex {
+
+  public static final int DEFAULT_SAMPLE_RATE = 32;
+
+  protected final int n;
+  protected final int sampleRate;
+  // The distinct codes of the text, sorted; a symbol is an index into it.
+  protected final int[] codes;
+  // counts[c] is the number of symbols of the text smaller than c.
+  protected final int[] counts;
+  protected final boolean[] terminators;
+  protected final WaveletMatrix bwt;
+  // The rows whose suffix starts at a multiple of sampleRate, and their
+  // offsets, in row order.
+  protected final RankBitVector sampled;
+  protected final int[] samples;
+
+  public FMIndex(Text text) {
+    this(text, DEFAULT_SAMPLE_RATE);
+  }
+
+  public FMIndex(Text text, int sampleRate) {
+    if (sampleRate < 1)
+      throw new IllegalArgumentException("Sample rate must be positive.");
+    n = text.getLength();
+    for (int i = 0; i < n - 1; i++) {
+      if (text.codeAt(i) == Alphabet.END_CODE)
+        throw new IllegalArgumentException(
+            "END_CHAR can only be at the end of the text.");
+    }
+    if (n == 0 || text.codeAt(n - 1) != Alphabet.END_CODE)
+      throw new IllegalArgumentException("Text must end in END_CHAR.");
+    this.sampleRate = sampleRate;
+
+    int[] symbols = new int[n];
+    for (int i = 0; i < n; i++) {
+      symbols[i] = text.codeAt(i);
+    }
+    int[] distinct = symbols.clone();
+    Arrays.sort(distinct);
+    int sigma = 0;
+    for (int i = 0; i < n; i++) {
+      if (sigma == 0 || distinct[i] != distinct[sigma - 1])
+        distinct[sigma++] = distinct[i];
+    }
+    codes = Arrays.copyOf(distinct, sigma);
+    terminators = new boolean[sigma];
+    for (int c = 0; c < sigma; c++) {
+      terminators[c] = Alphabet.isTerminator(codes[c]);
+    }
+    counts = new int[sigma + 1];
+    for (int i = 0; i < n; i++) {
+      symbols[i] = Arrays.binarySearch(codes, symbols[i]);
+      counts[symbols[i] + 1]++;
+    }
+    for (int c = 0; c < sigma; c++) {
+      counts[c + 1] += counts[c];
+    }
+
+    // The transform: the symbol before each suffix, in suffix array order.
+    // The suffix at 0 is preceded by the END_CHAR, as if the text wrapped.
+    int[] sa = SuffixArrays.suffixArray(text);
+    int[] last = new int[n];
+    long[] marks = new long[n / 64 + 1];
+    int numSamples = 0;
+    for (int i = 0; i < n; i++) {
+      last[i] = symbols[sa[i] == 0 ? n - 1 : sa[i] - 1];
+      if (sa[i] % sampleRate == 0) {
+        marks[i >>> 6] |= 1L << i;
+        numSamples++;
+      }
+    }
+    symbols = null;
+    bwt = new WaveletMatrix(last, sigma);
+    last = null;
+    sampled = new RankBitVector(marks, n);
+    samples = new int[numSamples];
+    for (int i = 0, j = 0; i < n; i++) {
+      if (sa[i] % sampleRate == 0)
+        samples[j++] = sa[i];
+    }
+  }
+
+  public int getLength() {
+    return n;
+  }
+
+  public int getSampleRate() {
+    return sampleRate;
+  }
+
+  /*
+   * Returns the rows [from, to) of the suffixes that start with p, or null
+   * if p doesn't occur. No wildcards allowed.
+   */
+  public Pair<Integer, Integer> query(Text p) {
+    if (wrapsAround(p))
+      return null;
+    int from = 0;
+    int to = n;
+    for (int i = p.getLength() - 1; i >= 0 && from < to; i--) {
+      int c = symbolOf(p.codeAt(i));
+      if (c < 0)
+        return null;
+      from = counts[c] + bwt.rank(c, from);
+      to = counts[c] + bwt.rank(c, to);
+    }
+    return from < to ? new Pair<Integer, Integer>(from, to) : null;
+  }
+
+  // The number of occurrences of p, which may contain wildcards.
+  public int count(Text p) {
+    Search search = new Search(p);
+    int count = 0;
+    for (int r = 0; r < search.numRanges; r++) {
+      count += search.ranges[2 * r + 1] - search.ranges[2 * r];
+    }
+    return count;
+  }
+
+  /*
+   * Returns the offsets of all occurrences of p, which may contain
+   * wildcards, in no particular order.
+   */
+  public List<Integer> queryIndices(Text p) {
+    Search search = new Search(p);
+    List<Integer> indices = new ArrayList<Integer>();
+    for (int r = 0; r < search.numRanges; r++) {
+      for (int row = search.ranges[2 * r]; row < search.ranges[2 * r + 1];
+          row++) {
+        indices.add(locate(row));
+      }
+    }
+    return indices;
+  }
+
+  /*
+   * Same as queryIndices, but hands each match to visitor as soon as it is
+   * located. Returns false if visitor stopped it.
+   */
+  public boolean queryIndices(Text p, MatchVisitor visitor) {
+    Search search = new Search(p);
+    for (int r = 0; r < search.numRanges; r++) {
+      for (int row = search.ranges[2 * r]; row < search.ranges[2 * r + 1];
+          row++) {
+        if (!visitor.visit(locate(row)))
+          return false;
+      }
+    }
+    return true;
+  }
+
+  /*
+   * Same as queryIndices, but as a MatchSet, in text order and without
+   * boxing.
+   */
+  public MatchSet queryMatches(Text p) {
+    Search search = new Search(p);
+    MatchSet.Builder matches = new MatchSet.Builder();
+    for (int r = 0; r < search.numRanges; r++) {
+      for (int row = search.ranges[2 * r]; row < search.ranges[2 * r + 1];
+          row++) {
+        matches.add(locate(row));
+      }
+    }
+    return matches.build();
+  }
+
+  /*
+   * Returns the offset of the suffix at row, found by stepping back through
+   * the text until a sampled suffix.
+   */
+  public int locate(int row) {
+    int steps = 0;
+    while (!sampled.get(row)) {
+      int c = bwt.access(row);
+      row = counts[c] + bwt.rank(c, row);
+      steps++;
+    }
+    return samples[sampled.rank1(row)] + steps;
+  }
+
+  /*
+   * True if p has an END_CHAR before its last symbol. The transform treats
+   * the text as a cycle, so backward search would match such a p across the
+   * end of the text, where the suffix trees don't.
+   */
+  private static boolean wrapsAround(Text p) {
+    for (int i = 0; i < p.getLength() - 1; i++) {
+      if (p.codeAt(i) == Alphabet.END_CODE)
+        return true;
+    }
+    return false;
+  }
+
+  // The symbol for code, or -1 if it isn't in the text.
+  private int symbolOf(int code) {
+    int c = Arrays.binarySearch(codes, code);
+    return c < 0 ? -1 : c;
+  }
+
+  /*
+   * Backward search for a pattern with wildcards, depth first. Each pending
+   * range is kept with how much of the pattern is left to match before it;
+   * the ranges that match all of it end up in ranges, as (from, to) pairs.
+   */
+  private class Search implements WaveletMatrix.RangeVisitor {
+
+    private int[] stack = new int[3 * 16];
+    private int size = 0;
+    private int[] ranges = new int[2 * 4];
+    private int numRanges = 0;
+    // Set while listing the symbols before a wildcard.
+    private int left;
+
+    private Search(Text p) {
+      if (!wrapsAround(p))
+        push(p.getLength(), 0, n);
+      while (size > 0) {
+        size--;
+        int pos = stack[3 * size];
+        int from = stack[3 * size + 1];
+        int to = stack[3 * size + 2];
+        if (pos == 0) {
+          if (2 * numRanges == ranges.length)
+            ranges = Arrays.copyOf(ranges, 2 * ranges.length);
+          ranges[2 * numRanges] = from;
+          ranges[2 * numRanges + 1] = to;
+          numRanges++;
+          continue;
+        }
+        int code = p.codeAt(pos - 1);
+        if (code == Alphabet.WILDCARD_CODE) {
+          left = pos - 1;
+          bwt.distinct(from, to, this);
+          continue;
+        }
+        int c = symbolOf(code);
+        if (c < 0)
+          continue;
+        from = counts[c] + bwt.rank(c, from);
+        to = counts[c] + bwt.rank(c, to);
+        if (from < to)
+          push(pos - 1, from, to);
+      }
+    }
+
+    @Override
+    public void visit(int symbol, int rankFrom, int rankTo) {
+      if (!terminators[symbol])
+        push(left, counts[symbol] + rankFrom, counts[symbol] + rankTo);
+    }
+
+    private void push(int pos, int from, int to) {
+      if (3 * size == stack.length)
+        stack = Arrays.copyOf(stack, 2 * stack.length);
+      stack[3 * size] = pos;
+      stack[3 * size + 1] = from;
+      stack[3 * size + 2] = to;
+      size++;
+    }
+
+  }
+
+}
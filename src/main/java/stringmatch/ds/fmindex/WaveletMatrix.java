@@ -0,0 +1,141 @@
+package stringmatch.ds.fmindex;
+
+import java.util.Arrays;
+
+/*
+ * A sequence of symbols in [0, sigma) that answers access and rank in
+ * O(log sigma) time, in n log sigma bits plus the rank directories:
+ *   F. Claude, G. Navarro and A. Ordonez, "The wavelet matrix: An efficient
+ *   wavelet tree for large alphabets", Information Systems, 2015.
+ *
+ * Level l holds bit l of each symbol, from the most significant bit down,
+ * with the sequence stably sorted by the bits above it: all the zeros of
+ * level l - 1 go before the ones. Following a position down through the
+ * levels by its symbol's bits maps it to the run of that symbol at the
+ * bottom, so rank(c, i) is where i lands less where 0 lands.
+ */
+public class WaveletMatrix {
+
+  /*
+   * Gets each distinct symbol of a range, with the number of its copies
+   * before the range and up to its end.
+   */
+  public interface RangeVisitor {
+    void visit(int symbol, int rankFrom, int rankTo);
+  }
+
+  private final int length;
+  private final int bits;
+  private final RankBitVector[] levels;
+  // zeros[l] is the number of zeros in levels[l].
+  private final int[] zeros;
+  // bottom[c] is where the run of c starts after the last level, or -1 if c
+  // isn't in the sequence.
+  private final int[] bottom;
+
+  public WaveletMatrix(int[] symbols, int sigma) {
+    if (sigma < 1)
+      throw new IllegalArgumentException("Alphabet must not be empty.");
+    length = symbols.length;
+    bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(sigma - 1));
+    levels = new RankBitVector[bits];
+    zeros = new int[bits];
+
+    int[] current = symbols.clone();
+    int[] next = new int[length];
+    for (int l = 0; l < bits; l++) {
+      int shift = bits - 1 - l;
+      long[] words = new long[length / 64 + 1];
+      int numZeros = 0;
+      for (int i = 0; i < length; i++) {
+        if ((current[i] >>> shift & 1) != 0)
+          words[i >>> 6] |= 1L << i;
+        else
+          numZeros++;
+      }
+      levels[l] = new RankBitVector(words, length);
+      zeros[l] = numZeros;
+      int z = 0;
+      int o = numZeros;
+      for (int i = 0; i < length; i++) {
+        if ((current[i] >>> shift & 1) != 0)
+          next[o++] = current[i];
+        else
+          next[z++] = current[i];
+      }
+      int[] swap = current;
+      current = next;
+      next = swap;
+    }
+
+    bottom = new int[sigma];
+    Arrays.fill(bottom, -1);
+    for (int i = length - 1; i >= 0; i--) {
+      if (current[i] < 0 || current[i] >= sigma)
+        throw new IllegalArgumentException(
+            "Symbol " + current[i] + " is not in [0, " + sigma + ").");
+      bottom[current[i]] = i;
+    }
+  }
+
+  public int length() {
+    return length;
+  }
+
+  // The symbol at i.
+  public int access(int i) {
+    int symbol = 0;
+    for (int l = 0; l < bits; l++) {
+      RankBitVector level = levels[l];
+      if (level.get(i)) {
+        symbol = symbol << 1 | 1;
+        i = zeros[l] + level.rank1(i);
+      } else {
+        symbol <<= 1;
+        i = level.rank0(i);
+      }
+    }
+    return symbol;
+  }
+
+  // The number of copies of symbol in [0, i). symbol must be in [0, sigma).
+  public int rank(int symbol, int i) {
+    if (bottom[symbol] < 0)
+      return 0;
+    for (int l = 0; l < bits; l++) {
+      RankBitVector level = levels[l];
+      if ((symbol >>> (bits - 1 - l) & 1) != 0)
+        i = zeros[l] + level.rank1(i);
+      else
+        i = level.rank0(i);
+    }
+    return i - bottom[symbol];
+  }
+
+  /*
+   * Calls visitor once for each distinct symbol in [from, to), in symbol
+   * order, with its ranks at from and to. Takes O(log sigma) time for each
+   * symbol, and never looks at the symbols that aren't there.
+   */
+  public void distinct(int from, int to, RangeVisitor visitor) {
+    if (from < to)
+      distinct(0, 0, from, to, visitor);
+  }
+
+  private void distinct(int l, int prefix, int from, int to,
+      RangeVisitor visitor) {
+    if (l == bits) {
+      visitor.visit(prefix, from - bottom[prefix], to - bottom[prefix]);
+      return;
+    }
+    RankBitVector level = levels[l];
+    int onesFrom = level.rank1(from);
+    int onesTo = level.rank1(to);
+    if (to - onesTo > from - onesFrom)
+      distinct(l + 1, prefix << 1, from - onesFrom, to - onesTo, visitor);
+    if (onesTo > onesFrom)
+      distinct(l + 1, prefix << 1 | 1, zeros[l] + onesFrom, zeros[l] + onesTo,
+          visitor);
+  }
+
+}
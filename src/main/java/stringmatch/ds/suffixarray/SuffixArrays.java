@@ -0,0 +1,301 @@
+package stringmatch.ds.suffixarray;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import stringmatch.ds.text.Text;
+
+/*
+ * Suffix arrays, built with SA-IS:
+ *   G. Nong, S. Zhang and W. H. Chan, "Two Efficient Algorithms for Linear
+ *   Time Suffix Array Construction", IEEE Trans. Computers, 2011,
+ * and LCP arrays, built with Kasai et al.'s algorithm:
+ *   T. Kasai et al., "Linear-Time Longest-Common-Prefix Computation in Suffix
+ *   Arrays and Its Applications", CPM 2001.
+ * Everything runs on primitive arrays, in O(n) time.
+ *
+ * Suffixes are ordered by symbol code, the same order Edge.compareTo() sorts
+ * suffix tree edges in.
+ */
+public class SuffixArrays {
+
+  // Smallest amount of text worth handing to another thread.
+  private static final int PARALLEL_SLICE = 1 << 16;
+
+  private SuffixArrays() { }
+
+  /*
+   * Returns sa, where sa[i] is the offset of the i-th smallest suffix of t.
+   * A suffix that is a prefix of another comes first.
+   */
+  public static int[] suffixArray(Text t) {
+    int n = t.getLength();
+    // Rename the symbols to 1..k in code order, and add a 0 at the end, which
+    // SA-IS needs as a unique smallest sentinel. The sentinel also makes a
+    // proper prefix smaller than the suffixes it is a prefix of.
+    int[] s = new int[n + 1];
+    int k = rankSymbols(t, s);
+    int[] sa = new int[n + 1];
+    sais(s, sa, n + 1, k + 1);
+    // The sentinel suffix is always first.
+    return Arrays.copyOfRange(sa, 1, n + 1);
+  }
+
+  /*
+   * Returns lcp, where lcp[i] is the length of the longest common prefix of
+   * the suffixes at sa[i - 1] and sa[i], and lcp[0] = 0.
+   */
+  public static int[] lcpArray(Text t, int[] sa) {
+    int n = sa.length;
+    int[] rank = new int[n];
+    for (int i = 0; i < n; i++) {
+      rank[sa[i]] = i;
+    }
+    int[] lcp = new int[n];
+    kasai(t, sa, rank, lcp, 0, n);
+    return lcp;
+  }
+
+  /*
+   * Same as lcpArray(t, sa), on the threads of pool. Kasai's algorithm only
+   * carries h from one text position to the next to save work, so each
+   * thread takes a slice of the text and starts its slice from h = 0.
+   */
+  public static int[] lcpArray(final Text t, final int[] sa, ForkJoinPool pool) {
+    final int n = sa.length;
+    final int[] rank = new int[n];
+    final int[] lcp = new int[n];
+    final int slices = Math.max(1, Math.min(n / PARALLEL_SLICE,
+        4 * pool.getParallelism()));
+    pool.invoke(new RecursiveAction() {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected void compute() {
+        List<RecursiveAction> ranks = new ArrayList<RecursiveAction>();
+        List<RecursiveAction> lcps = new ArrayList<RecursiveAction>();
+        for (int s = 0; s < slices; s++) {
+          final int from = (int) ((long) n * s / slices);
+          final int to = (int) ((long) n * (s + 1) / slices);
+          ranks.add(new RecursiveAction() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void compute() {
+              for (int i = from; i < to; i++) {
+                rank[sa[i]] = i;
+              }
+            }
+          });
+          lcps.add(new RecursiveAction() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void compute() {
+              kasai(t, sa, rank, lcp, from, to);
+            }
+          });
+        }
+        invokeAll(ranks);
+        invokeAll(lcps);
+      }
+    });
+    return lcp;
+  }
+
+  // Fills in lcp[rank[i]] for text positions i in [from, to).
+  private static void kasai(Text t, int[] sa, int[] rank, int[] lcp, int from,
+      int to) {
+    int n = sa.length;
+    int h = 0;
+    for (int i = from; i < to; i++) {
+      if (rank[i] == 0) {
+        h = 0;
+        continue;
+      }
+      int j = sa[rank[i] - 1];
+      while (i + h < n && j + h < n && t.codeAt(i + h) == t.codeAt(j + h))
+        h++;
+      lcp[rank[i]] = h;
+      if (h > 0)
+        h--;
+    }
+  }
+
+  // Writes the rank (from 1) of each symbol of t into s, and returns the
+  // number of distinct symbols.
+  private static int rankSymbols(Text t, int[] s) {
+    int n = t.getLength();
+    int max = 0;
+    for (int i = 0; i < n; i++) {
+      s[i] = t.codeAt(i);
+      max = Math.max(max, s[i]);
+    }
+    if (max < (1 << 16)) {
+      int[] rank = new int[max + 1];
+      for (int i = 0; i < n; i++) {
+        rank[s[i]] = 1;
+      }
+      int k = 0;
+      for (int c = 0; c <= max; c++) {
+        if (rank[c] != 0)
+          rank[c] = ++k;
+      }
+      for (int i = 0; i < n; i++) {
+        s[i] = rank[s[i]];
+      }
+      return k;
+    }
+
+    // Large codes (tokens): rank by binary search over the distinct ones.
+    int[] distinct = Arrays.copyOf(s, n);
+    Arrays.sort(distinct);
+    int k = 0;
+    for (int i = 0; i < n; i++) {
+      if (k == 0 || distinct[i] != distinct[k - 1])
+        distinct[k++] = distinct[i];
+    }
+    for (int i = 0; i < n; i++) {
+      s[i] = Arrays.binarySearch(distinct, 0, k, s[i]) + 1;
+    }
+    return k;
+  }
+
+  /*
+   * SA-IS. s[0, n) has symbols in [0, k), and s[n - 1] is the only 0.
+   */
+  private static void sais(int[] s, int[] sa, int n, int k) {
+    if (n == 1) {
+      sa[0] = 0;
+      return;
+    }
+
+    // stype[i] is set if suffix i is S-type (smaller than suffix i + 1).
+    boolean[] stype = new boolean[n];
+    stype[n - 1] = true;
+    for (int i = n - 2; i >= 0; i--) {
+      stype[i] = s[i] < s[i + 1] || (s[i] == s[i + 1] && stype[i + 1]);
+    }
+    int[] buckets = new int[k];
+
+    // Stage 1: sort the LMS substrings by inducing from their positions.
+    bucketEnds(s, buckets, n, k);
+    Arrays.fill(sa, 0, n, -1);
+    for (int i = 1; i < n; i++) {
+      if (isLms(stype, i))
+        sa[--buckets[s[i]]] = i;
+    }
+    induce(s, sa, stype, buckets, n, k);
+
+    // Move the sorted LMS positions to the front of sa, then name each LMS
+    // substring by its rank (equal substrings get equal names), storing the
+    // name of the substring at i in sa[n1 + i / 2].
+    int n1 = 0;
+    for (int i = 0; i < n; i++) {
+      if (isLms(stype, sa[i]))
+        sa[n1++] = sa[i];
+    }
+    Arrays.fill(sa, n1, n, -1);
+    int names = 0;
+    int prev = -1;
+    for (int i = 0; i < n1; i++) {
+      int pos = sa[i];
+      if (prev < 0 || !lmsSubstringsEqual(s, stype, pos, prev))
+        names++;
+      prev = pos;
+      sa[n1 + pos / 2] = names - 1;
+    }
+
+    // Stage 2: sort the LMS suffixes, recursing if the names aren't unique.
+    int[] s1 = new int[n1];
+    for (int i = n - 1, j = n1 - 1; i >= n1; i--) {
+      if (sa[i] >= 0)
+        s1[j--] = sa[i];
+    }
+    int[] sa1 = new int[n1];
+    if (names < n1) {
+      sais(s1, sa1, n1, names);
+    } else {
+      for (int i = 0; i < n1; i++) {
+        sa1[s1[i]] = i;
+      }
+    }
+
+    // Stage 3: induce the suffix array from the sorted LMS suffixes.
+    for (int i = 1, j = 0; i < n; i++) {
+      if (isLms(stype, i))
+        s1[j++] = i;
+    }
+    for (int i = 0; i < n1; i++) {
+      sa1[i] = s1[sa1[i]];
+    }
+    bucketEnds(s, buckets, n, k);
+    Arrays.fill(sa, 0, n, -1);
+    for (int i = n1 - 1; i >= 0; i--) {
+      int j = sa1[i];
+      sa[--buckets[s[j]]] = j;
+    }
+    induce(s, sa, stype, buckets, n, k);
+  }
+
+  // Induces the L-type suffixes left to right, then the S-type ones right to
+  // left.
+  private static void induce(int[] s, int[] sa, boolean[] stype, int[] buckets,
+      int n, int k) {
+    bucketStarts(s, buckets, n, k);
+    for (int i = 0; i < n; i++) {
+      int j = sa[i] - 1;
+      if (j >= 0 && !stype[j])
+        sa[buckets[s[j]]++] = j;
+    }
+    bucketEnds(s, buckets, n, k);
+    for (int i = n - 1; i >= 0; i--) {
+      int j = sa[i] - 1;
+      if (j >= 0 && stype[j])
+        sa[--buckets[s[j]]] = j;
+    }
+  }
+
+  private static boolean lmsSubstringsEqual(int[] s, boolean[] stype, int a,
+      int b) {
+    // The unique sentinel ends every comparison before the end of s.
+    for (int d = 0; ; d++) {
+      if (s[a + d] != s[b + d] || stype[a + d] != stype[b + d])
+        return false;
+      if (d > 0 && (isLms(stype, a + d) || isLms(stype, b + d)))
+        return isLms(stype, a + d) && isLms(stype, b + d);
+    }
+  }
+
+  private static boolean isLms(boolean[] stype, int i) {
+    return i > 0 && stype[i] && !stype[i - 1];
+  }
+
+  private static void bucketStarts(int[] s, int[] buckets, int n, int k) {
+    countSymbols(s, buckets, n, k);
+    for (int c = 0, sum = 0; c < k; c++) {
+      int count = buckets[c];
+      buckets[c] = sum;
+      sum += count;
+    }
+  }
+
+  private static void bucketEnds(int[] s, int[] buckets, int n, int k) {
+    countSymbols(s, buckets, n, k);
+    for (int c = 0, sum = 0; c < k; c++) {
+      sum += buckets[c];
+      buckets[c] = sum;
+    }
+  }
+
+  private static void countSymbols(int[] s, int[] buckets, int n, int k) {
+    Arrays.fill(buckets, 0, k, 0);
+    for (int i = 0; i < n; i++) {
+      buckets[s[i]]++;
+    }
+  }
+
+}
@@ -0,0 +1,121 @@
+package stringmatch.ds.suffixtree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import stringmatch.ds.text.Alphabet;
+import stringmatch.ds.text.AlphabetCharacter;
+import stringmatch.ds.text.Text;
+
+/*
+ * A suffix tree that grows with its text, for streams that can't afford a
+ * rebuild whenever more data comes in. Ukkonen's algorithm reads the text
+ * left to right, and after each symbol what it has is the suffix tree of
+ * everything read so far, so append() just carries on over the new symbols
+ * and the tree can be queried between appends.
+ *
+ * Until finish() the tree is implicit: leaf edges have no node at the bottom
+ * (their labels run to the current end of the text), and the last
+ * getNumImplicitSuffixes() suffixes end partway down the tree instead of at
+ * a leaf, because each is a prefix of an earlier suffix. Queries take care
+ * of both. finish() adds END_CHAR, which gives every suffix a leaf, and hands
+ * back an ordinary SuffixTree; the AppendableSuffixTree can't be used after
+ * that.
+ *
+ * Not thread-safe: don't query while an append is running.
+ */
+public class AppendableSuffixTree {
+
+  private final Text text;
+  private final SuffixTree.Builder builder;
+  private boolean finished;
+
+  public AppendableSuffixTree() {
+    this(Text.Encoding.CHARACTERS);
+  }
+
+  public AppendableSuffixTree(Text.Encoding encoding) {
+    text = new Text.Builder(encoding).build();
+    builder = new SuffixTree.Builder(text);
+    finished = false;
+  }
+
+  // The text so far. Don't modify it other than through append().
+  public Text getText() {
+    return text;
+  }
+
+  public int getLength() {
+    return text.getLength();
+  }
+
+  // The number of suffixes, all at the end of the text, that don't have a
+  // leaf yet.
+  public int getNumImplicitSuffixes() {
+    return builder.getRemainder();
+  }
+
+  /*
+   * Adds symbols to the end of the text and extends the tree over them. This
+   * takes amortized constant time per symbol. END_CHAR is added by finish(),
+   * so it can't be in symbols.
+   */
+  public AppendableSuffixTree append(Text symbols) {
+    checkNotFinished();
+    for (int i = 0; i < symbols.getLength(); i++) {
+      if (symbols.codeAt(i) == Alphabet.END_CODE)
+        throw new IllegalArgumentException(
+            "END_CHAR can only be added by finish().");
+    }
+    text.append(symbols);
+    builder.extendTo(text.getLength());
+    return this;
+  }
+
+  public AppendableSuffixTree append(String symbols) {
+    return append(new Text(symbols, false, text.getEncoding()));
+  }
+
+  /*
+   * Returns the offset of every occurrence of p (without wildcards) in the
+   * text so far, in increasing order.
+   */
+  public List<Integer> queryIndices(Text p) {
+    checkNotFinished();
+    List<Integer> offsets = OpenTreeSearch.find(builder.root, text,
+        text.getLength(), builder.getRemainder(), p, false);
+    Collections.sort(offsets);
+    return offsets;
+  }
+
+  /*
+   * Returns the offsets of the suffixes that have a leaf so far: every
+   * offset except the last getNumImplicitSuffixes(), in no particular order.
+   */
+  public List<Integer> getOffsetIndicesOfLeaves() {
+    checkNotFinished();
+    List<Integer> offsets = new ArrayList<Integer>();
+    OpenTreeSearch.addLeavesBelow(builder.root, 0, offsets);
+    return offsets;
+  }
+
+  /*
+   * Adds END_CHAR to the text, which makes the tree explicit, and returns it
+   * as a SuffixTree with sorted edges and leaves (the same tree
+   * SuffixTree.Builder would build over the whole text).
+   */
+  public SuffixTree finish() {
+    checkNotFinished();
+    finished = true;
+    text.append(new Text(AlphabetCharacter.END_CHAR));
+    return builder.build();
+  }
+
+  private void checkNotFinished() {
+    if (finished)
+      throw new IllegalStateException(
+          "The tree has been finished; use the SuffixTree from finish().");
+  }
+
+}
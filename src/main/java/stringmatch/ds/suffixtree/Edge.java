@@ -1,6 +1,7 @@
 package stringmatch.ds.suffixtree;
 
 import stringmatch.ds.text.AlphabetCharacter;
+import stringmatch.ds.text.Text;
 import stringmatch.ds.text.TextSubstring;
 
 public class Edge implements Comparable<Edge> {
@@ -11,38 +12,26 @@ public class Edge implements Comparable<Edge> {
   protected TextSubstring textSubstring;
   
   /* Used for building! */
-  private int textStart;
-  private boolean textEndsAtTreeEnd;
-  private SuffixTree.Builder treeBuilder;
+  // While a leaf edge is open (set only during Ukkonen's algorithm), its label
+  // runs up to openEnd[0], the end shared by every open edge of the tree.
+  private int[] openEnd;
   /* Used for building! */
     
   protected Edge(Node fromNode, TextSubstring textSubstring) {
     this.fromNode = fromNode;
     toNode = null;
-    textEndsAtTreeEnd = false;
-    treeBuilder = null;
+    openEnd = null;
     this.textSubstring = textSubstring;
   }
   
-  protected Edge(Node fromNode, int textStart,
-      SuffixTree.Builder treeBuilder) {
+  protected Edge(Node fromNode, Text text, int textStart, int[] openEnd) {
     this.fromNode = fromNode;
     toNode = null;
-    this.textStart = textStart;
-    textEndsAtTreeEnd = true;
-    this.treeBuilder = treeBuilder;
-    textSubstring = null;
-  }
-  
-  // Why do we need this?
-  /*protected Edge(Node fromNode, int textStart, TextSubstring textSubstring) {
-	    this.fromNode = fromNode;
-	    toNode = null;
-	    this.textStart = textStart;
-	    textEndsAtTreeEnd = false;
-	    treeBuilder = null;
-	    this.textSubstring = textSubstring;
-  }*/
+    this.openEnd = openEnd;
+    // While the edge is open this view is reused, and its length is brought
+    // up to date on each call to getTextSubstring().
+    textSubstring = new TextSubstring(text, textStart, 0);
+  }
   
   protected void setToNode(Node node) {
     toNode = node;
@@ -54,29 +43,36 @@ public class Edge implements Comparable<Edge> {
   }
   
   protected boolean textEndsAtTreeEnd() {
-    return textEndsAtTreeEnd;
+    return openEnd != null;
   }
   
   protected void setTextSubstring(TextSubstring textSubstring) {
     this.textSubstring = textSubstring;
-    textStart = textSubstring.getStartIndex();
-    textEndsAtTreeEnd = false;
+    openEnd = null;
+  }
+  
+  // Cuts the label down to its first length symbols, in place.
+  protected void truncate(int length) {
+    textSubstring.length = length;
+    openEnd = null;
   }
   
+  // Moves the label to another occurrence of the same string, starting at
+  // start. An open edge still runs to the end of the tree.
+  protected void setTextStart(int start) {
+    textSubstring.start = start;
+  }
+
   protected TextSubstring getTextSubstring() {
-    if (!textEndsAtTreeEnd)
-      return textSubstring;
-    
-    int substringLength = treeBuilder.getEndPosition() - textStart;
-    TextSubstring substr = new TextSubstring(treeBuilder.getInputText(),
-        textStart, substringLength);
-    return substr;
+    if (openEnd != null)
+      textSubstring.length = openEnd[0] - textSubstring.start;
+    return textSubstring;
   }
   
   public void fixTextSubstringAfterBuild() {
-    if (textEndsAtTreeEnd) {
-      textSubstring = getTextSubstring();
-      textEndsAtTreeEnd = false;
+    if (openEnd != null) {
+      getTextSubstring();
+      openEnd = null;
     }
   }
   
@@ -89,15 +85,22 @@ public class Edge implements Comparable<Edge> {
   }
   
   protected int getLength() {
-    return getTextSubstring().getLength();
+    if (openEnd != null)
+      return openEnd[0] - textSubstring.start;
+    return textSubstring.length;
   }
   
   public AlphabetCharacter getCharAt(int i) {
 		return getTextSubstring().getIthChar(i);
   }
   
+  // Same as getCharAt(i), but returns the primitive symbol code.
+  public int codeAt(int i) {
+    return textSubstring.codeAt(i);
+  }
+  
   public String toString() {
-	  return getTextSubstring().getSubstringAsText().toString();
+	  return getTextSubstring().toString();
   }
 
   public int getTextStart() {
@@ -105,10 +108,15 @@ public class Edge implements Comparable<Edge> {
   }
   
   public Edge clone(Node fromNode) {
-    Edge copy = new Edge(fromNode, textSubstring.clone());
+    Edge copy = copyLabel(fromNode);
     copy.toNode = toNode.clone(false, copy);
     return copy;
   }
+  
+  // A copy of this edge out of fromNode, without the subtree below it.
+  protected Edge copyLabel(Node fromNode) {
+    return new Edge(fromNode, textSubstring.clone());
+  }
 
   @Override
   public int compareTo(Edge o) {
@@ -0,0 +1,255 @@
+package stringmatch.ds.suffixtree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import stringmatch.ds.text.Alphabet;
+import stringmatch.ds.text.Text;
+import stringmatch.ds.util.MatchVisitor;
+
+/*
+ * A read-only copy of a suffix tree stored as parallel int arrays instead of
+ * Node and Edge objects. Nodes are numbered 0, 1, 2, ... in depth-first
+ * preorder (the root is 0), with children in sorted order, so:
+ *   - firstChild[v] and nextSibling[v] give the children of v (-1 for none),
+ *   - edgeStart[v], edgeLength[v] are the label of the edge into v,
+ *   - firstCode[v] is the first symbol of that label,
+ *   - leafOffset[v] is the suffix a leaf stands for (-1 for internal nodes),
+ *   - the subtree of v is exactly the nodes [v, subtreeEnd[v]).
+ * That's 28 bytes per node, against a few hundred for a Node with its Edge,
+ * TextSubstring and ArrayList, and a query only touches a few arrays.
+ *
+ * Made with SuffixTree.freeze(). Wildcard edges (and so the wildcard
+ * subtrees of SuffixTreeWithWildcards) are not copied; wildcards in a query
+ * are matched by trying every child, as in SuffixTree.naiveWildcardQuery.
+ */
+public class FrozenSuffixTree {
+
+  public static final int NONE = -1;
+
+  protected final Text text;
+  protected final int numNodes;
+  protected final int[] firstChild;
+  protected final int[] nextSibling;
+  protected final int[] edgeStart;
+  protected final int[] edgeLength;
+  protected final int[] firstCode;
+  protected final int[] leafOffset;
+  protected final int[] subtreeEnd;
+
+  protected FrozenSuffixTree(Node root) {
+    text = findText(root);
+    numNodes = countNodes(root);
+    firstChild = new int[numNodes];
+    nextSibling = new int[numNodes];
+    edgeStart = new int[numNodes];
+    edgeLength = new int[numNodes];
+    firstCode = new int[numNodes];
+    leafOffset = new int[numNodes];
+    subtreeEnd = new int[numNodes];
+    Arrays.fill(firstChild, NONE);
+    Arrays.fill(nextSibling, NONE);
+
+    // Preorder numbering with an explicit stack; children are pushed in
+    // reverse so that they come off in sorted order.
+    int[] lastChild = new int[numNodes];
+    Arrays.fill(lastChild, NONE);
+    List<Node> nodes = new ArrayList<Node>();
+    List<Integer> parents = new ArrayList<Integer>();
+    nodes.add(root);
+    parents.add(NONE);
+    int next = 0;
+    while (!nodes.isEmpty()) {
+      Node node = nodes.remove(nodes.size() - 1);
+      int parent = parents.remove(parents.size() - 1);
+      int v = next++;
+
+      Edge incoming = node.incomingEdge;
+      if (parent != NONE) {
+        edgeStart[v] = incoming.getTextSubstring().getStartIndex();
+        edgeLength[v] = incoming.getLength();
+        firstCode[v] = incoming.codeAt(0);
+        if (lastChild[parent] == NONE)
+          firstChild[parent] = v;
+        else
+          nextSibling[lastChild[parent]] = v;
+        lastChild[parent] = v;
+      }
+      leafOffset[v] = node.isLeaf() ? node.leafOffsetIndexInS : NONE;
+
+      List<Edge> edges = node.getOutgoingEdges();
+      for (int i = edges.size() - 1; i >= 0; i--) {
+        Edge e = edges.get(i);
+        if (e.isWildcardEdge())
+          continue;
+        nodes.add(e.getToNode());
+        parents.add(v);
+      }
+    }
+
+    // Children have larger ids than their parents, so going backwards each
+    // subtree is finished before it is needed.
+    for (int v = numNodes - 1; v >= 0; v--) {
+      subtreeEnd[v] = lastChild[v] == NONE ? v + 1 : subtreeEnd[lastChild[v]];
+    }
+  }
+
+  private static Text findText(Node root) {
+    for (Edge e : root.getOutgoingEdges()) {
+      if (!e.isWildcardEdge())
+        return e.getTextSubstring().getText();
+    }
+    throw new IllegalArgumentException("Can't freeze an empty tree.");
+  }
+
+  private static int countNodes(Node root) {
+    int count = 0;
+    List<Node> stack = new ArrayList<Node>();
+    stack.add(root);
+    while (!stack.isEmpty()) {
+      Node node = stack.remove(stack.size() - 1);
+      count++;
+      for (Edge e : node.getOutgoingEdges()) {
+        if (!e.isWildcardEdge())
+          stack.add(e.getToNode());
+      }
+    }
+    return count;
+  }
+
+  public Text getText() {
+    return text;
+  }
+
+  public int getNumNodes() {
+    return numNodes;
+  }
+
+  public int getRoot() {
+    return 0;
+  }
+
+  public boolean isLeaf(int v) {
+    return leafOffset[v] != NONE;
+  }
+
+  /*
+   * Returns the child of v whose edge starts with code, or NONE.
+   */
+  public int child(int v, int code) {
+    for (int c = firstChild[v]; c != NONE; c = nextSibling[c]) {
+      if (firstCode[c] == code)
+        return c;
+      if (firstCode[c] > code)
+        break;
+    }
+    return NONE;
+  }
+
+  /*
+   * Returns the node at or below which p ends, or NONE if p doesn't occur.
+   * No wildcards allowed.
+   */
+  public int query(Text p) {
+    int v = 0;
+    int start = 0;
+    while (start < p.getLength()) {
+      int c = child(v, p.codeAt(start));
+      if (c == NONE)
+        return NONE;
+      int len = Math.min(edgeLength[c], p.getLength() - start);
+      if (!text.regionEquals(edgeStart[c], p, start, len))
+        return NONE;
+      v = c;
+      start += len;
+    }
+    return v;
+  }
+
+  /*
+   * Returns the offsets of all occurrences of p, which may contain
+   * wildcards, in leaf (i.e., lexicographic) order.
+   */
+  public List<Integer> queryIndices(Text p) {
+    final List<Integer> indices = new ArrayList<Integer>();
+    queryIndices(p, new MatchVisitor() {
+      @Override
+      public boolean visit(int offset) {
+        indices.add(offset);
+        return true;
+      }
+    });
+    return indices;
+  }
+
+  /*
+   * Same as queryIndices, but hands each match to visitor as soon as the
+   * search gets to it, still in leaf order. Returns false if visitor
+   * stopped it.
+   */
+  public boolean queryIndices(Text p, MatchVisitor visitor) {
+    int[] stackNode = new int[16];
+    int[] stackPos = new int[16];
+    int size = 0;
+    stackNode[size] = 0;
+    stackPos[size++] = 0;
+    while (size > 0) {
+      size--;
+      int v = stackNode[size];
+      int start = stackPos[size];
+      if (start >= p.getLength()) {
+        if (!visitLeaves(v, visitor))
+          return false;
+        continue;
+      }
+      int code = p.codeAt(start);
+      boolean wild = code == Alphabet.WILDCARD_CODE;
+      // Pushed in reverse so the results come out in leaf order.
+      int mark = size;
+      for (int c = wild ? firstChild[v] : child(v, code); c != NONE;
+          c = nextSibling[c]) {
+        int len = Math.min(edgeLength[c], p.getLength() - start);
+        if (text.matchLength(edgeStart[c], p, start, len) == len) {
+          if (size == stackNode.length) {
+            stackNode = Arrays.copyOf(stackNode, 2 * size);
+            stackPos = Arrays.copyOf(stackPos, 2 * size);
+          }
+          stackNode[size] = c;
+          stackPos[size++] = start + len;
+        }
+        if (!wild)
+          break;
+      }
+      reverse(stackNode, stackPos, mark, size);
+    }
+    return true;
+  }
+
+  private static void reverse(int[] a, int[] b, int from, int to) {
+    for (int i = from, j = to - 1; i < j; i++, j--) {
+      int t = a[i]; a[i] = a[j]; a[j] = t;
+      t = b[i]; b[i] = b[j]; b[j] = t;
+    }
+  }
+
+  /*
+   * Adds the offsets of the leaves below v, in leaf order.
+   */
+  public void addLeaves(int v, List<Integer> indices) {
+    for (int u = v; u < subtreeEnd[v]; u++) {
+      if (leafOffset[u] != NONE)
+        indices.add(leafOffset[u]);
+    }
+  }
+
+  // Same as addLeaves, but hands them to visitor, until it stops.
+  private boolean visitLeaves(int v, MatchVisitor visitor) {
+    for (int u = v; u < subtreeEnd[v]; u++) {
+      if (leafOffset[u] != NONE && !visitor.visit(leafOffset[u]))
+        return false;
+    }
+    return true;
+  }
+
+}
@@ -0,0 +1,375 @@
+package stringmatch.ds.suffixtree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import stringmatch.ds.text.Alphabet;
+import stringmatch.ds.text.AlphabetCharacter;
+import stringmatch.ds.text.Text;
+import stringmatch.ds.util.Pair;
+
+/*
+ * A suffix tree over several records at once. The records are concatenated
+ * into a single text as
+ *   r_0 SEP r_1 SEP ... SEP r_k $
+ * where SEP is AlphabetCharacter.SEPARATOR, and the tree is built over that
+ * text with SuffixTree.Builder. Every suffix is still unique because '$'
+ * occurs only once, and since wildcards never match SEPARATOR (see
+ * SuffixTree.checkMatch) no match can run from one record into the next.
+ *
+ * Leaves are reported as (recordId, offset) pairs, where recordId is the
+ * index of the record in the order it was added and offset is the position
+ * within that record.
+ *
+ * Each node also knows how many distinct records have a leaf below it. The
+ * counts come from one walk over the leaves in order, with Hui's trick: a
+ * leaf adds one to its own count and takes one off the LCA of itself and the
+ * last leaf of the same record, so that summing up the tree counts every
+ * record once,
+ *   L. C. K. Hui, "Color set size problem with applications to string
+ *   matching", CPM 1992.
+ * To list the records below a node, the leaves' previous leaves of the same
+ * record go into a range minimum tree; a leaf is the first of its record in
+ * the node's range exactly when its previous one is before the range, so
+ * listing takes O(log n) time per record, however many occurrences each has
+ * (Muthukrishnan's document listing).
+ */
+public class GeneralizedSuffixTree extends SuffixTree {
+
+  protected Text inputText;
+  // recordStarts[i] is where record i begins in inputText. There is one extra
+  // entry at the end, one past the final '$'.
+  protected int[] recordStarts;
+  protected List<String> recordNames;
+  // The record of each leaf, and the leaf before it (or -1) of the same
+  // record, in the order of getLeafOffsets().
+  protected int[] leafRecords;
+  protected int[] previousLeaves;
+  // A bottom-up tree over previousLeaves: minLeaves[size + i] = i, and each
+  // node above holds the one of its children's leaves with the smaller
+  // previousLeaves.
+  protected int[] minLeaves;
+
+  private GeneralizedSuffixTree(Builder builder) {
+    super(new SuffixTree.Builder(builder.inputText).build().getRoot());
+    inputText = builder.inputText;
+    recordStarts = builder.recordStarts;
+    recordNames = builder.recordNames;
+    countRecords();
+  }
+
+  public Text getInputText() {
+    return inputText;
+  }
+
+  public int getNumRecords() {
+    return recordNames.size();
+  }
+
+  public String getRecordName(int recordId) {
+    return recordNames.get(recordId);
+  }
+
+  public int getRecordStart(int recordId) {
+    return recordStarts[recordId];
+  }
+
+  // Doesn't count the separator (or '$') after the record.
+  public int getRecordLength(int recordId) {
+    return recordStarts[recordId + 1] - recordStarts[recordId] - 1;
+  }
+
+  /*
+   * Returns the record that the given offset into the concatenated text
+   * falls in. A separator belongs to the record before it.
+   */
+  public int recordOf(int offset) {
+    if (offset < 0 || offset >= inputText.getLength())
+      throw new IllegalArgumentException();
+    int i = Arrays.binarySearch(recordStarts, 0, getNumRecords(), offset);
+    return i >= 0 ? i : -i - 2;
+  }
+
+  /*
+   * Converts an offset into the concatenated text into (recordId, offset
+   * within that record).
+   */
+  public Pair<Integer, Integer> locate(int offset) {
+    int recordId = recordOf(offset);
+    return new Pair<Integer, Integer>(recordId, offset - recordStarts[recordId]);
+  }
+
+  public Pair<Integer, Integer> getLeafLocation(Node leaf) {
+    if (!leaf.isLeaf())
+      throw new IllegalArgumentException();
+    return locate(leaf.leafOffsetIndexInS);
+  }
+
+  /*
+   * Returns the (recordId, offset) of every occurrence of p, which may
+   * contain wildcards, sorted by record and then offset. Occurrences never
+   * span two records.
+   */
+  public List<Pair<Integer, Integer>> queryLocations(Text p) {
+    List<Pair<Integer, Integer>> locations = new ArrayList<Pair<Integer, Integer>>();
+    for (int offset : naiveWildcardQueryIndices(p)) {
+      Pair<Integer, Integer> location = locate(offset);
+      if (location.getRight() + p.getLength()
+          <= getRecordLength(location.getLeft())) {
+        locations.add(location);
+      }
+    }
+    Collections.sort(locations, new Comparator<Pair<Integer, Integer>>() {
+      @Override
+      public int compare(Pair<Integer, Integer> a, Pair<Integer, Integer> b) {
+        if (!a.getLeft().equals(b.getLeft()))
+          return a.getLeft() - b.getLeft();
+        return a.getRight() - b.getRight();
+      }
+    });
+    return locations;
+  }
+
+  // The record that leaf is a suffix of.
+  public int getLeafRecord(Node leaf) {
+    if (!leaf.isLeaf())
+      throw new IllegalArgumentException();
+    return leafRecords[leaf.leafRangeStart];
+  }
+
+  // The number of distinct records with a leaf below node.
+  public int getNumRecords(Node node) {
+    return node.numRecords;
+  }
+
+  /*
+   * Returns the number of records that contain p, which may contain
+   * wildcards. Without wildcards this is read off the node p ends at.
+   */
+  public int countRecords(Text p) {
+    if (hasTerminator(p))
+      return queryRecords(p).size();
+    List<Node> nodes = naiveWildcardQuery(p);
+    if (nodes.size() == 1)
+      return nodes.get(0).numRecords;
+    return queryRecords(p).size();
+  }
+
+  /*
+   * Returns the records that contain p, which may contain wildcards, in
+   * increasing order. Takes time in the number of records and the nodes
+   * that p ends at, not in the number of occurrences.
+   */
+  public List<Integer> queryRecords(Text p) {
+    List<Integer> records = new ArrayList<Integer>();
+    if (hasTerminator(p)) {
+      // Only here can a match run into a separator; leave it to the filter.
+      for (Pair<Integer, Integer> location : queryLocations(p)) {
+        if (records.isEmpty()
+            || records.get(records.size() - 1) != location.getLeft().intValue())
+          records.add(location.getLeft());
+      }
+      return records;
+    }
+    List<Node> nodes = naiveWildcardQuery(p);
+    // Records below different nodes can repeat.
+    Set<Integer> seen = nodes.size() > 1 ? new HashSet<Integer>() : null;
+    for (Node node : nodes) {
+      addRecords(node.leafRangeStart, node.leafRangeEnd, records, seen);
+    }
+    Collections.sort(records);
+    return records;
+  }
+
+  /*
+   * Adds the records of the leaves in [from, to) to records, each once: the
+   * leaves whose previous leaf of the same record is before from. Splits the
+   * range around its smallest previous leaf until that is in the range.
+   */
+  private void addRecords(int from, int to, List<Integer> records,
+      Set<Integer> seen) {
+    int[] stack = new int[32];
+    int size = 0;
+    stack[size++] = from;
+    stack[size++] = to;
+    while (size > 0) {
+      int hi = stack[--size];
+      int lo = stack[--size];
+      if (lo >= hi)
+        continue;
+      int leaf = minPreviousLeaf(lo, hi);
+      if (previousLeaves[leaf] >= from)
+        continue;
+      if (seen == null || seen.add(leafRecords[leaf]))
+        records.add(leafRecords[leaf]);
+      if (size + 4 > stack.length)
+        stack = Arrays.copyOf(stack, 2 * stack.length);
+      stack[size++] = lo;
+      stack[size++] = leaf;
+      stack[size++] = leaf + 1;
+      stack[size++] = hi;
+    }
+  }
+
+  // The leaf in [from, to) with the smallest previousLeaves.
+  private int minPreviousLeaf(int from, int to) {
+    int size = minLeaves.length / 2;
+    int best = minLeaves[size + from];
+    for (int lo = from + size, hi = to + size; lo < hi; lo >>>= 1, hi >>>= 1) {
+      if ((lo & 1) != 0)
+        best = minLeaf(best, minLeaves[lo++]);
+      if ((hi & 1) != 0)
+        best = minLeaf(best, minLeaves[--hi]);
+    }
+    return best;
+  }
+
+  private int minLeaf(int a, int b) {
+    return previousLeaves[b] < previousLeaves[a] ? b : a;
+  }
+
+  private static boolean hasTerminator(Text p) {
+    for (int i = 0; i < p.getLength(); i++) {
+      if (Alphabet.isTerminator(p.codeAt(i)))
+        return true;
+    }
+    return false;
+  }
+
+  /*
+   * Counts the distinct records below each node, walking the leaves in the
+   * order of getLeafOffsets().
+   */
+  private void countRecords() {
+    int[] offsets = getLeafOffsets();
+    final int numLeaves = offsets.length;
+    leafRecords = new int[numLeaves];
+    previousLeaves = new int[numLeaves];
+    for (int i = 0; i < numLeaves; i++) {
+      leafRecords[i] = recordOf(offsets[i]);
+    }
+    final int[] lastLeaves = new int[getNumRecords()];
+    Arrays.fill(lastLeaves, -1);
+    new TreeWalker() {
+      // For each node on the path, the count of its subtree so far.
+      private int[] counts = new int[32];
+      private Node[] path = new Node[32];
+
+      @Override
+      protected boolean enter(Node node) {
+        int d = depth();
+        if (d == counts.length) {
+          counts = Arrays.copyOf(counts, 2 * d);
+          path = Arrays.copyOf(path, 2 * d);
+        }
+        path[d] = node;
+        counts[d] = 0;
+        if (!node.isLeaf())
+          return true;
+
+        int leaf = node.leafRangeStart;
+        int record = leafRecords[leaf];
+        int previous = lastLeaves[record];
+        previousLeaves[leaf] = previous;
+        counts[d] = 1;
+        if (previous >= 0) {
+          // The LCA is the deepest node on the path whose leaves start at
+          // or before the previous leaf.
+          int lo = 0;
+          int hi = d - 1;
+          while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (path[mid].leafRangeStart <= previous)
+              lo = mid;
+            else
+              hi = mid - 1;
+          }
+          counts[lo]--;
+        }
+        lastLeaves[record] = leaf;
+        return true;
+      }
+
+      @Override
+      protected void leave(Node node) {
+        int d = depth();
+        node.numRecords = counts[d];
+        path[d] = null;
+        if (d > 0)
+          counts[d - 1] += counts[d];
+      }
+
+      @Override
+      protected boolean follow(Edge edge) {
+        return !edge.isWildcardEdge();
+      }
+    }.walk(root);
+
+    int size = 1;
+    while (size < numLeaves) {
+      size <<= 1;
+    }
+    minLeaves = new int[2 * size];
+    for (int i = 0; i < size; i++) {
+      minLeaves[size + i] = Math.min(i, numLeaves - 1);
+    }
+    for (int i = size - 1; i > 0; i--) {
+      minLeaves[i] = minLeaf(minLeaves[2 * i], minLeaves[2 * i + 1]);
+    }
+  }
+
+  /*
+   * Collects records one at a time (e.g., from a streaming reader) and then
+   * builds the tree over all of them.
+   */
+  public static class Builder {
+    private Text.Builder textBuilder;
+    private Text inputText;
+    private List<Integer> starts;
+    private int[] recordStarts;
+    private List<String> recordNames;
+
+    public Builder() {
+      this(Text.Encoding.CHARACTERS);
+    }
+
+    public Builder(Text.Encoding encoding) {
+      textBuilder = new Text.Builder(encoding);
+      starts = new ArrayList<Integer>();
+      recordNames = new ArrayList<String>();
+    }
+
+    public Builder addRecord(String name, String sequence) {
+      if (!starts.isEmpty())
+        textBuilder.addAlphabetCharacter(AlphabetCharacter.SEPARATOR);
+      starts.add(textBuilder.getCurrentSize());
+      textBuilder.addString(sequence);
+      recordNames.add(name);
+      return this;
+    }
+
+    public int getNumRecords() {
+      return recordNames.size();
+    }
+
+    public GeneralizedSuffixTree build() {
+      if (starts.isEmpty())
+        throw new IllegalArgumentException("No records to index.");
+      textBuilder.addAlphabetCharacter(AlphabetCharacter.END_CHAR);
+      inputText = textBuilder.build();
+
+      recordStarts = new int[starts.size() + 1];
+      for (int i = 0; i < starts.size(); i++) {
+        recordStarts[i] = starts.get(i);
+      }
+      recordStarts[starts.size()] = inputText.getLength();
+      return new GeneralizedSuffixTree(this);
+    }
+  }
+
+}
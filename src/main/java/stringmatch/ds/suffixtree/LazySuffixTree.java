@@ -0,0 +1,285 @@
+package stringmatch.ds.suffixtree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import stringmatch.ds.text.Alphabet;
+import stringmatch.ds.text.Text;
+
+/*
+ * A suffix tree that is built top-down, one node at a time, as queries reach
+ * it (the "write only, top down" tree of Giegerich, Kurtz and Stoye). Making
+ * one costs an array of the n suffixes and the root; a node's children are
+ * made the first time a lookup or a wildcard goes through it, so a workload
+ * that only touches a small part of the tree only ever pays for that part.
+ *
+ * Each node stands for a range of the suffixes array: the suffixes that
+ * start with the node's string. To expand a node at string depth d, its
+ * range is sorted by the symbol d into each suffix, and each run of equal
+ * symbols becomes a child. A child with one suffix is a leaf; otherwise its
+ * edge goes on as long as all its suffixes agree, and its own range is left
+ * alone until it is expanded in turn. The leaves below any node are just its
+ * range, so reporting them never expands anything.
+ *
+ * Nodes are numbered in the order they are made, and stored in parallel int
+ * arrays as in FrozenSuffixTree. The text must end in its only END_CHAR, so
+ * that every suffix gets a leaf. Not thread-safe: queries change the tree.
+ */
+public class LazySuffixTree {
+
+  public static final int NONE = -1;
+  // firstChild of an internal node that hasn't been expanded yet.
+  private static final int UNEXPANDED = -2;
+
+  protected final Text text;
+  protected final int n;
+  protected final int[] suffixes;
+
+  protected int numNodes;
+  protected int[] lo;
+  protected int[] hi;
+  protected int[] depth;
+  protected int[] edgeStart;
+  protected int[] edgeLength;
+  protected int[] firstCode;
+  protected int[] firstChild;
+  protected int[] nextSibling;
+
+  public LazySuffixTree(Text text) {
+    n = text.getLength();
+    for (int i = 0; i < n - 1; i++) {
+      if (text.codeAt(i) == Alphabet.END_CODE)
+        throw new IllegalArgumentException(
+            "END_CHAR can only be at the end of the text.");
+    }
+    if (n == 0 || text.codeAt(n - 1) != Alphabet.END_CODE)
+      throw new IllegalArgumentException("Text must end in END_CHAR.");
+    this.text = text;
+    suffixes = new int[n];
+    for (int i = 0; i < n; i++) {
+      suffixes[i] = i;
+    }
+
+    int capacity = 16;
+    lo = new int[capacity];
+    hi = new int[capacity];
+    depth = new int[capacity];
+    edgeStart = new int[capacity];
+    edgeLength = new int[capacity];
+    firstCode = new int[capacity];
+    firstChild = new int[capacity];
+    nextSibling = new int[capacity];
+    numNodes = 0;
+    int root = newNode(0, n);
+    depth[root] = 0;
+    firstChild[root] = UNEXPANDED;
+  }
+
+  public Text getText() {
+    return text;
+  }
+
+  // The number of nodes made so far.
+  public int getNumNodes() {
+    return numNodes;
+  }
+
+  public int getRoot() {
+    return 0;
+  }
+
+  public boolean isLeaf(int v) {
+    return firstChild[v] == NONE;
+  }
+
+  public boolean isExpanded(int v) {
+    return firstChild[v] != UNEXPANDED;
+  }
+
+  // The string depth of v, i.e., the length of the string from the root.
+  public int getDepth(int v) {
+    return depth[v];
+  }
+
+  /*
+   * Returns the first child of v, or NONE if v is a leaf, expanding v if
+   * it hasn't been.
+   */
+  public int firstChild(int v) {
+    if (firstChild[v] == UNEXPANDED)
+      expand(v);
+    return firstChild[v];
+  }
+
+  public int nextSibling(int v) {
+    return nextSibling[v];
+  }
+
+  /*
+   * Returns the child of v whose edge starts with code, or NONE.
+   */
+  public int child(int v, int code) {
+    for (int c = firstChild(v); c != NONE; c = nextSibling[c]) {
+      if (firstCode[c] == code)
+        return c;
+      if (firstCode[c] > code)
+        break;
+    }
+    return NONE;
+  }
+
+  /*
+   * Returns the node at or below which p ends, or NONE if p doesn't occur.
+   * No wildcards allowed.
+   */
+  public int query(Text p) {
+    int v = 0;
+    int start = 0;
+    while (start < p.getLength()) {
+      int c = child(v, p.codeAt(start));
+      if (c == NONE)
+        return NONE;
+      int len = Math.min(edgeLength[c], p.getLength() - start);
+      if (!text.regionEquals(edgeStart[c], p, start, len))
+        return NONE;
+      v = c;
+      start += len;
+    }
+    return v;
+  }
+
+  /*
+   * Returns the offsets of all occurrences of p, which may contain
+   * wildcards, in no particular order. Only the nodes that p gets to are
+   * expanded.
+   */
+  public List<Integer> queryIndices(Text p) {
+    List<Integer> indices = new ArrayList<Integer>();
+    int[] stackNode = new int[16];
+    int[] stackPos = new int[16];
+    int size = 0;
+    stackNode[size] = 0;
+    stackPos[size++] = 0;
+    while (size > 0) {
+      size--;
+      int v = stackNode[size];
+      int start = stackPos[size];
+      if (start >= p.getLength()) {
+        addLeaves(v, indices);
+        continue;
+      }
+      int code = p.codeAt(start);
+      boolean wild = code == Alphabet.WILDCARD_CODE;
+      for (int c = wild ? firstChild(v) : child(v, code); c != NONE;
+          c = nextSibling[c]) {
+        int len = Math.min(edgeLength[c], p.getLength() - start);
+        if (text.matchLength(edgeStart[c], p, start, len) == len) {
+          if (size == stackNode.length) {
+            stackNode = Arrays.copyOf(stackNode, 2 * size);
+            stackPos = Arrays.copyOf(stackPos, 2 * size);
+          }
+          stackNode[size] = c;
+          stackPos[size++] = start + len;
+        }
+        if (!wild)
+          break;
+      }
+    }
+    return indices;
+  }
+
+  /*
+   * Adds the offsets of the leaves below v, which are in leaf order only if
+   * the whole subtree has been expanded.
+   */
+  public void addLeaves(int v, List<Integer> indices) {
+    for (int i = lo[v]; i < hi[v]; i++) {
+      indices.add(suffixes[i]);
+    }
+  }
+
+  /*
+   * Makes the children of v: sorts its suffixes by their next symbol, and
+   * gives each run of suffixes with the same symbol a child.
+   */
+  private void expand(int v) {
+    int from = lo[v];
+    int to = hi[v];
+    int d = depth[v];
+    // Sort (symbol, suffix) pairs packed into longs. The symbol at depth d
+    // is there for all of them, as only the leaf for END_CHAR could run out.
+    long[] keys = new long[to - from];
+    for (int i = from; i < to; i++) {
+      keys[i - from] = (long) text.codeAt(suffixes[i] + d) << 32 | suffixes[i];
+    }
+    Arrays.sort(keys);
+    for (int i = from; i < to; i++) {
+      suffixes[i] = (int) keys[i - from];
+    }
+
+    int last = NONE;
+    int start = from;
+    while (start < to) {
+      int code = (int) (keys[start - from] >>> 32);
+      int end = start + 1;
+      while (end < to && (int) (keys[end - from] >>> 32) == code) {
+        end++;
+      }
+      int c = newNode(start, end);
+      firstCode[c] = code;
+      edgeStart[c] = suffixes[start] + d;
+      if (end - start == 1) {
+        edgeLength[c] = n - edgeStart[c];
+        depth[c] = n - suffixes[start];
+        firstChild[c] = NONE;
+      } else {
+        edgeLength[c] = commonPrefixLength(start, end, d + 1) - d;
+        depth[c] = d + edgeLength[c];
+        firstChild[c] = UNEXPANDED;
+      }
+      if (last == NONE)
+        firstChild[v] = c;
+      else
+        nextSibling[last] = c;
+      last = c;
+      start = end;
+    }
+  }
+
+  // The length of the common prefix of the suffixes in suffixes[from, to),
+  // which are known to agree on their first d symbols. There are at least
+  // two of them, and they can't all go on to the end of the text, because
+  // END_CHAR only comes once.
+  private int commonPrefixLength(int from, int to, int d) {
+    int first = suffixes[from];
+    while (true) {
+      int code = text.codeAt(first + d);
+      for (int i = from + 1; i < to; i++) {
+        if (text.codeAt(suffixes[i] + d) != code)
+          return d;
+      }
+      d++;
+    }
+  }
+
+  private int newNode(int from, int to) {
+    if (numNodes == lo.length) {
+      int capacity = 2 * numNodes;
+      lo = Arrays.copyOf(lo, capacity);
+      hi = Arrays.copyOf(hi, capacity);
+      depth = Arrays.copyOf(depth, capacity);
+      edgeStart = Arrays.copyOf(edgeStart, capacity);
+      edgeLength = Arrays.copyOf(edgeLength, capacity);
+      firstCode = Arrays.copyOf(firstCode, capacity);
+      firstChild = Arrays.copyOf(firstChild, capacity);
+      nextSibling = Arrays.copyOf(nextSibling, capacity);
+    }
+    int v = numNodes++;
+    lo[v] = from;
+    hi[v] = to;
+    nextSibling[v] = NONE;
+    return v;
+  }
+
+}
@@ -15,12 +15,19 @@ import stringmatch.ds.util.Pair;
 
 public class Node {
 
-  List<Edge> outgoingEdges;
+  OutgoingEdges outgoingEdges;
   protected Edge incomingEdge;
   protected Node leftMost;
   protected Node rightMost;
 
   protected int numLeaves;
+  // The leaves below this node are [leafRangeStart, leafRangeEnd) of the
+  // tree's leaf offsets (see SuffixTree.getLeafOffsets()).
+  protected int leafRangeStart;
+  protected int leafRangeEnd;
+  // The number of distinct records with a leaf below this node (only set in
+  // a GeneralizedSuffixTree).
+  protected int numRecords;
   
   protected Edge centroidEdge;
   protected boolean isLeaf;
@@ -57,6 +64,9 @@ public class Node {
   protected int depthInSubtree;
   
   protected int LCAIndex;
+  // jumps[i] is the node at or just above the point 2^i above this one (see
+  // SuffixTreeWithCPD.MA()).
+  protected Node[] jumps;
   protected int maxHeight;
   protected Edge longPathEdge;
   protected Pair<Integer, Path> ladder;
@@ -68,7 +78,7 @@ public class Node {
   
   protected Node(Edge incomingEdge) {
     this.incomingEdge = incomingEdge;
-    outgoingEdges = new ArrayList<Edge>();
+    outgoingEdges = new OutgoingEdges();
     suffixLink = null;
     numLeaves = -1;
     centroidEdge = null;
@@ -107,62 +117,23 @@ public class Node {
   }
   
   protected Edge follow(AlphabetCharacter c) {
-	  for (Edge e: outgoingEdges) {
-		  TextSubstring edgeSubstring = e.getTextSubstring();
-		  AlphabetCharacter first = edgeSubstring.getIthChar(0);
-		  if (c.equals(first)) {
-			  return e;
-		  }
-	  }
-	  return null;
+	  return follow(c.getCode());
+  }
+  
+  protected Edge follow(int code) {
+	  return outgoingEdges.find(code);
   }
   
   protected Edge followPrevious(AlphabetCharacter c) {
-    if (outgoingEdges.size() > 0) {
-      Edge prev = outgoingEdges.get(0);
-      AlphabetCharacter first = prev.getCharAt(0);
-      for (Edge e: outgoingEdges) {
-        AlphabetCharacter next = e.getCharAt(0);
-        if (first.compareTo(next) < 0 && c.compareTo(next) > 0 && !e.isWildcardEdge()) {
-          prev = e;
-          first = next;
-        }
-      }
-      return prev;
-    }
-    return null;
+    return outgoingEdges.previous(c.getCode());
   }
   
   protected Edge followLeft() {
-    if (outgoingEdges.size() > 0) {
-      Edge left = outgoingEdges.get(0);
-      AlphabetCharacter first = left.getCharAt(0);
-        for (Edge e: outgoingEdges) {
-          AlphabetCharacter next = e.getCharAt(0);
-          if (first.compareTo(next) > 0 && !e.isWildcardEdge()) {
-            left = e;
-            first = next;
-          }
-        }
-        return left;
-    }
-    return null;
+    return outgoingEdges.leftmost();
   }
   
   protected Edge followRight() {
-    if (outgoingEdges.size() > 0) {
-      Edge right = outgoingEdges.get(0);
-      AlphabetCharacter first = right.getCharAt(0);
-        for (Edge e: outgoingEdges) {
-          AlphabetCharacter next = e.getCharAt(0);
-          if (first.compareTo(next) < 0 && !e.isWildcardEdge()) {
-            right = e;
-            first = next;
-          }
-        }
-        return right;
-    }
-    return null;
+    return outgoingEdges.rightmost();
   }
   
   protected boolean isLeaf() {
@@ -215,41 +186,55 @@ public class Node {
     suffixLink = node;
   }
   
-  protected void sortEdgesAndPutNodesAtLeaves(int height, int[] leafCount) {
-    Collections.sort(outgoingEdges);
-    for (Edge outgoingEdge : outgoingEdges) {
-      outgoingEdge.fixTextSubstringAfterBuild();
-      int outgoingEdgeHeight = outgoingEdge.getTextSubstring().getLength();
-      
-      if (outgoingEdge.getToNode() != null && outgoingEdge.getToNode().incomingEdge != outgoingEdge)
-        throw new RuntimeException("Mismatched incomingEdge");
-      if (outgoingEdge.getFromNode() != this)
-        throw new RuntimeException("Mismatched fromNode.");
-      
-      if (outgoingEdge.getToNode() != null) {
-        outgoingEdge.getToNode().sortEdgesAndPutNodesAtLeaves(
-            height + outgoingEdgeHeight, leafCount);
-      } else {
-        int offset = outgoingEdge.getTextSubstring().getText().getLength() - 
-            (height + outgoingEdgeHeight);
-        Node leaf = new Node(outgoingEdge, true, offset, 2*leafCount[0]);
-        outgoingEdge.setToNode(leaf);
-        leafCount[0]++;
+  protected void sortEdgesAndPutNodesAtLeaves(final int height, final int[] leafCount) {
+    new TreeWalker() {
+      @Override
+      protected boolean enter(Node node) {
+        if (node.isLeaf) {
+          // New leaves are numbered as they're reached, i.e., in sorted order.
+          if (node.leafLexicographicIndexInS < 0)
+            node.leafLexicographicIndexInS = 2 * leafCount[0]++;
+          return false;
+        }
+        Collections.sort(node.outgoingEdges);
+        for (Edge outgoingEdge : node.outgoingEdges) {
+          outgoingEdge.fixTextSubstringAfterBuild();
+          
+          if (outgoingEdge.getToNode() != null && outgoingEdge.getToNode().incomingEdge != outgoingEdge)
+            throw new RuntimeException("Mismatched incomingEdge");
+          if (outgoingEdge.getFromNode() != node)
+            throw new RuntimeException("Mismatched fromNode.");
+          
+          if (outgoingEdge.getToNode() == null) {
+            int offset = outgoingEdge.getTextSubstring().getText().getLength() - 
+                (height + stringDepth() + outgoingEdge.getTextSubstring().getLength());
+            Node leaf = new Node(outgoingEdge, true, offset, -1);
+            outgoingEdge.setToNode(leaf);
+          }
+        }
+        return true;
       }
-    }
+    }.walk(this);
   }
   
   public void doubleCheckOutgoingEdges() {
-    for (Edge outgoingEdge : outgoingEdges) {
-      if (outgoingEdge.getToNode() != null && outgoingEdge.getToNode().incomingEdge != outgoingEdge)
-        throw new RuntimeException("Mismatched incomingEdge");
-      if (outgoingEdge.getFromNode() != this)
-        throw new RuntimeException("Mismatched fromNode.");
+    new TreeWalker() {
+      @Override
+      protected boolean follow(Edge outgoingEdge) {
+        if (outgoingEdge.getToNode() != null && outgoingEdge.getToNode().incomingEdge != outgoingEdge)
+          throw new RuntimeException("Mismatched incomingEdge");
+        return outgoingEdge.getToNode() != null;
+      }
       
-      if (outgoingEdge.getToNode() != null) {
-        outgoingEdge.getToNode().doubleCheckOutgoingEdges();
+      @Override
+      protected boolean enter(Node node) {
+        for (Edge outgoingEdge : node.outgoingEdges) {
+          if (outgoingEdge.getFromNode() != node)
+            throw new RuntimeException("Mismatched fromNode.");
+        }
+        return true;
       }
-    }
+    }.walk(this);
   }
   
   protected List<Text> getEdgeStringsInDFS() {
@@ -291,13 +276,14 @@ public class Node {
         continue;
       
       if (outgoingEdge.getToNode().isLeaf) {
-        suffixes.add(outgoingEdge.getTextSubstring().getSubstringAsText().getList());
+        suffixes.add(outgoingEdge.getTextSubstring().asList());
       } else {
         List<List<AlphabetCharacter>> suffixesAtChild = outgoingEdge.getToNode()
             .getAllSuffixes(false);
         for (List<AlphabetCharacter> childSuffix : suffixesAtChild) {
           List<AlphabetCharacter> outgoingEdgeSubstring = new ArrayList<AlphabetCharacter>(
-              outgoingEdge.getTextSubstring().getSubstringAsText().getList());
+              outgoingEdge.getTextSubstring().getLength() + childSuffix.size());
+          outgoingEdgeSubstring.addAll(outgoingEdge.getTextSubstring().asList());
           outgoingEdgeSubstring.addAll(childSuffix);
           suffixes.add(outgoingEdgeSubstring);
         }
@@ -312,28 +298,40 @@ public class Node {
    * strings considered from the root of the suffix tree S down to the leaf.
    */
   public List<Integer> getOffsetIndicesOfLeaves() {
-    List<Integer> indices = new ArrayList<Integer>();
-    
-    if (isLeaf()) {
-      indices.add(leafOffsetIndexInS);
-      return indices;
-    }
-    
-    for (Edge e : outgoingEdges) {
-      if (!e.isWildcardEdge()) {
+    final List<Integer> indices = new ArrayList<Integer>();
+    new TreeWalker() {
+      @Override
+      protected boolean follow(Edge e) {
         // There's no need to follow wildcard edges because wildcard subtrees
         // are just copies of the tree we're in.
-        indices.addAll(e.getToNode().getOffsetIndicesOfLeaves());
+        return !e.isWildcardEdge();
       }
-    }
-    
+      
+      @Override
+      protected boolean enter(Node node) {
+        if (node.isLeaf())
+          indices.add(node.leafOffsetIndexInS);
+        return true;
+      }
+    }.walk(this);
     return indices;
   }
   
   /*
-   * Condenses the outgoing edges by merging ones that share characters.
+   * Condenses the outgoing edges by merging ones that share characters, here
+   * and below.
    */
   protected void condense() {
+    new TreeWalker() {
+      @Override
+      protected boolean enter(Node node) {
+        node.condenseOutgoingEdges();
+        return true;
+      }
+    }.walk(this);
+  }
+  
+  private void condenseOutgoingEdges() {
     Map<AlphabetCharacter, Edge> outgoingEdgesByFirstChar
       = new HashMap<AlphabetCharacter, Edge>();
     for (Edge edge : outgoingEdges) {
@@ -431,11 +429,6 @@ public class Node {
     outgoingEdges.clear();
     outgoingEdges.addAll(outgoingEdgesByFirstChar.values());
     Collections.sort(outgoingEdges);
-    
-    // Recursively condense the children.
-    for (Edge edge : outgoingEdges) {
-      edge.getToNode().condense();
-    }
   }
   
   protected Node clone() {
@@ -445,28 +438,47 @@ public class Node {
   /*
    * Makes a deep clone of the tree rooted at this.
    */
-  protected Node clone(boolean removeCentroidEdge, Edge incomingEdge) {
-    Node copy = new Node(incomingEdge, isLeaf, leafOffsetIndexInS,
-        leafLexicographicIndexInS);
-    
-    copy.numLeaves = numLeaves;
-    if (removeCentroidEdge && centroidEdge != null)
-      copy.numLeaves -= centroidEdge.getToNode().numLeaves;
-
-    
-    for (Edge outgoingEdge : outgoingEdges) {
-      Edge edgeCopy = outgoingEdge.clone(copy);
-      if (centroidEdge == outgoingEdge) {
-        if (!removeCentroidEdge) {
-          copy.outgoingEdges.add(edgeCopy);
-          copy.centroidEdge = edgeCopy;
+  protected Node clone(final boolean removeCentroidEdge, final Edge incomingEdge) {
+    final Node top = this;
+    final Node[] result = new Node[1];
+    final List<Node> copies = new ArrayList<Node>();
+    new TreeWalker() {
+      @Override
+      protected boolean follow(Edge edge) {
+        return !(removeCentroidEdge && depth() == 0 && edge == top.centroidEdge);
+      }
+      
+      @Override
+      protected boolean enter(Node node) {
+        Node copy;
+        if (node == top) {
+          copy = new Node(incomingEdge, top.isLeaf, top.leafOffsetIndexInS,
+              top.leafLexicographicIndexInS);
+          copy.numLeaves = top.numLeaves;
+          if (removeCentroidEdge && top.centroidEdge != null)
+            copy.numLeaves -= top.centroidEdge.getToNode().numLeaves;
+          result[0] = copy;
+        } else {
+          Node parentCopy = copies.get(copies.size() - 1);
+          Edge edgeCopy = edge().copyLabel(parentCopy);
+          copy = new Node(edgeCopy, node.isLeaf, node.leafOffsetIndexInS,
+              node.leafLexicographicIndexInS);
+          copy.numLeaves = node.numLeaves;
+          edgeCopy.toNode = copy;
+          parentCopy.outgoingEdges.add(edgeCopy);
+          if (parent().centroidEdge == edge())
+            parentCopy.centroidEdge = edgeCopy;
         }
-      } else {
-        copy.outgoingEdges.add(edgeCopy);
+        copies.add(copy);
+        return true;
       }
-    }
-    
-    return copy;
+      
+      @Override
+      protected void leave(Node node) {
+        copies.remove(copies.size() - 1);
+      }
+    }.walk(this);
+    return result[0];
   }
   
 }
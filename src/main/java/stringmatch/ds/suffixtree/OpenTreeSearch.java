@@ -0,0 +1,114 @@
+package stringmatch.ds.suffixtree;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import stringmatch.ds.text.Alphabet;
+import stringmatch.ds.text.Text;
+
+/*
+ * Searches a suffix tree that is still being built online, as in
+ * AppendableSuffixTree and SlidingWindowSuffixTree: leaf edges are open
+ * (their labels run to the current end of the text and there's no node at
+ * the bottom), and the last few suffixes are implicit, i.e., they end inside
+ * the tree because each is a prefix of an earlier one. Both are handled
+ * here, and nothing in the tree is changed.
+ */
+final class OpenTreeSearch {
+
+  private OpenTreeSearch() { }
+
+  /*
+   * Returns the start of every suffix of text[..end) that begins with p, in
+   * no particular order. The last implicitSuffixes suffixes don't have
+   * leaves. If wildcards is set, a wildcard in p matches any symbol but a
+   * terminator; otherwise it only matches itself.
+   */
+  static List<Integer> find(Node root, Text text, int end,
+      int implicitSuffixes, Text p, boolean wildcards) {
+    List<Integer> starts = new ArrayList<Integer>();
+    int m = p.getLength();
+    if (m == 0) {
+      addLeavesBelow(root, 0, starts);
+    } else {
+      // Nodes still to look below, with their string depths, which is also
+      // how much of p has been matched to get there.
+      List<Node> nodes = new ArrayList<Node>();
+      List<Integer> depths = new ArrayList<Integer>();
+      nodes.add(root);
+      depths.add(0);
+      while (!nodes.isEmpty()) {
+        Node node = nodes.remove(nodes.size() - 1);
+        int depth = depths.remove(depths.size() - 1);
+        int code = p.codeAt(depth);
+        if (wildcards && code == Alphabet.WILDCARD_CODE) {
+          for (int i = 0; i < node.numChildren(); i++) {
+            followEdge(node.outgoingEdges.get(i), depth, text, p, wildcards,
+                starts, nodes, depths);
+          }
+        } else {
+          Edge e = node.follow(code);
+          if (e != null)
+            followEdge(e, depth, text, p, wildcards, starts, nodes, depths);
+        }
+      }
+    }
+
+    // The implicit suffixes are only in the tree as paths, so check them
+    // directly. There are few of them unless the end of the text repeats.
+    for (int j = end - implicitSuffixes; j <= end - m; j++) {
+      int matched = wildcards ? text.matchLength(j, p, 0, m)
+          : text.commonPrefixLength(j, p, 0, m);
+      if (matched == m)
+        starts.add(j);
+    }
+    return starts;
+  }
+
+  // Matches e's label against p from depth on, and either reports the
+  // suffixes below e or queues its node to carry on from.
+  private static void followEdge(Edge e, int depth, Text text, Text p,
+      boolean wildcards, List<Integer> starts, List<Node> nodes,
+      List<Integer> depths) {
+    int m = p.getLength();
+    int length = Math.min(e.getLength(), m - depth);
+    int matched = wildcards ? text.matchLength(e.getTextStart(), p, depth, length)
+        : text.commonPrefixLength(e.getTextStart(), p, depth, length);
+    if (matched < length)
+      return;
+    if (depth + e.getLength() >= m) {
+      // Every suffix below e begins with p.
+      if (e.getToNode() == null) {
+        starts.add(e.getTextStart() - depth);
+      } else {
+        addLeavesBelow(e.getToNode(), depth + e.getLength(), starts);
+      }
+    } else if (e.getToNode() != null) {
+      nodes.add(e.getToNode());
+      depths.add(depth + e.getLength());
+    }
+  }
+
+  // Adds the start of the suffix of each leaf below node, which is at string
+  // depth depth.
+  static void addLeavesBelow(Node node, final int depth,
+      final List<Integer> starts) {
+    new TreeWalker() {
+      @Override
+      protected boolean enter(Node n) {
+        for (int i = 0; i < n.numChildren(); i++) {
+          Edge e = n.outgoingEdges.get(i);
+          if (e.getToNode() == null)
+            starts.add(e.getTextStart() - depth - stringDepth());
+        }
+        return true;
+      }
+
+      @Override
+      protected boolean follow(Edge e) {
+        return e.getToNode() != null;
+      }
+    }.walk(node);
+  }
+
+}
@@ -0,0 +1,379 @@
+package stringmatch.ds.suffixtree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/*
+ * The outgoing edges of a node, with a child index chosen by fan-out:
+ *   - up to INLINE_MAX edges are just scanned,
+ *   - at the root, if the first symbols fall in a range of at most
+ *     DIRECT_RANGE codes (e.g., the letters of an English text), a table
+ *     indexed directly by code,
+ *   - otherwise up to SORTED_MAX edges, binary search over their sorted first
+ *     symbols,
+ *   - otherwise (the root over a word-level alphabet can have hundreds of
+ *     thousands of children), an open-addressing hash table.
+ * The sorted first symbols also answer followPrevious(), followLeft() and
+ * followRight() in O(log sigma) instead of a scan.
+ *
+ * Only the root gets a direct table: every query starts there, while below
+ * it fan-out drops off quickly and a table per node would cost 1KB or more
+ * each for a few lookups saved. Everything an index needs lives in an Index
+ * that is only allocated once a node has more than INLINE_MAX edges, so the
+ * many small nodes pay for a single null field.
+ *
+ * Edges are added and removed all over the place (directly through the list,
+ * through iterators, by sorting after first characters change), so the
+ * indexes aren't kept in sync by hand. Instead each remembers the modCount
+ * it was built at and is rebuilt on the next lookup after any other change.
+ * Appends, the common case during construction, update them in place.
+ */
+class OutgoingEdges extends ArrayList<Edge> {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final int INLINE_MAX = 8;
+  private static final int DIRECT_RANGE = 256;
+  private static final int SORTED_MAX = 256;
+
+  private static final int DIRECT = 1;
+  private static final int SORTED = 2;
+  private static final int HASH = 3;
+
+  private static final class Index {
+    final boolean allowDirect;
+
+    int kind;
+    int indexedModCount = -1;
+
+    // DIRECT: direct[code - minCode], or null.
+    Edge[] direct;
+    int minCode;
+
+    // HASH: open addressing, keys[i] is only meaningful when values[i] != null.
+    int[] keys;
+    Edge[] values;
+
+    // First symbols in increasing order, equal symbols in list order.
+    int[] sortedCodes;
+    Edge[] sortedEdges;
+    int sortedModCount = -1;
+
+    Index(boolean allowDirect) {
+      this.allowDirect = allowDirect;
+    }
+  }
+
+  private Index index;
+
+  OutgoingEdges() {
+    super(2);
+  }
+
+  /*
+   * Lets these edges be indexed by a direct table. Called on the root.
+   */
+  void indexDirectly() {
+    index = new Index(true);
+  }
+
+  /*
+   * Returns the edge whose label starts with code, or null. If several do,
+   * returns the first one in the list.
+   */
+  Edge find(int code) {
+    int n = size();
+    if (n <= INLINE_MAX) {
+      for (int i = 0; i < n; i++) {
+        Edge e = get(i);
+        if (e.codeAt(0) == code)
+          return e;
+      }
+      return null;
+    }
+
+    Index index = index();
+    if (index.indexedModCount != modCount)
+      rebuildIndex();
+    switch (index.kind) {
+      case DIRECT:
+        int slot = code - index.minCode;
+        return slot >= 0 && slot < index.direct.length ? index.direct[slot] : null;
+      case SORTED:
+        int i = lowerBound(code);
+        return i < n && index.sortedCodes[i] == code ? index.sortedEdges[i] : null;
+      default:
+        int[] keys = index.keys;
+        Edge[] values = index.values;
+        int mask = keys.length - 1;
+        for (int h = hash(code) & mask; values[h] != null; h = (h + 1) & mask) {
+          if (keys[h] == code)
+            return values[h];
+        }
+        return null;
+    }
+  }
+
+  /*
+   * The edge with the largest first symbol below c that is larger than the
+   * first symbol of get(0), skipping wildcard edges; get(0) if none is.
+   */
+  Edge previous(int c) {
+    if (isEmpty())
+      return null;
+    int floor = get(0).codeAt(0);
+    if (size() <= INLINE_MAX) {
+      Edge best = null;
+      for (int i = 1; i < size(); i++) {
+        Edge e = get(i);
+        int code = e.codeAt(0);
+        if (code < c && code > floor && !e.isWildcardEdge()
+            && (best == null || code > best.codeAt(0)))
+          best = e;
+      }
+      return best != null ? best : get(0);
+    }
+
+    ensureSorted();
+    int[] sortedCodes = index.sortedCodes;
+    Edge[] sortedEdges = index.sortedEdges;
+    int i = lowerBound(c) - 1;
+    while (i >= 0 && sortedCodes[i] > floor) {
+      // The first non-wildcard edge of the run of equal symbols ending at i.
+      int runStart = i;
+      while (runStart > 0 && sortedCodes[runStart - 1] == sortedCodes[i])
+        runStart--;
+      for (int j = runStart; j <= i; j++) {
+        if (!sortedEdges[j].isWildcardEdge())
+          return sortedEdges[j];
+      }
+      i = runStart - 1;
+    }
+    return get(0);
+  }
+
+  /*
+   * The non-wildcard edge with the smallest first symbol, if that is smaller
+   * than the first symbol of get(0); get(0) otherwise.
+   */
+  Edge leftmost() {
+    if (isEmpty())
+      return null;
+    int first = get(0).codeAt(0);
+    if (size() <= INLINE_MAX) {
+      Edge best = null;
+      for (int i = 1; i < size(); i++) {
+        Edge e = get(i);
+        int code = e.codeAt(0);
+        if (code < first && !e.isWildcardEdge()
+            && (best == null || code < best.codeAt(0)))
+          best = e;
+      }
+      return best != null ? best : get(0);
+    }
+
+    ensureSorted();
+    for (int i = 0; i < size() && index.sortedCodes[i] < first; i++) {
+      if (!index.sortedEdges[i].isWildcardEdge())
+        return index.sortedEdges[i];
+    }
+    return get(0);
+  }
+
+  /*
+   * The non-wildcard edge with the largest first symbol (the first in the
+   * list among equals), if that is larger than the first symbol of get(0);
+   * get(0) otherwise.
+   */
+  Edge rightmost() {
+    if (isEmpty())
+      return null;
+    int first = get(0).codeAt(0);
+    if (size() <= INLINE_MAX) {
+      Edge best = null;
+      for (int i = 1; i < size(); i++) {
+        Edge e = get(i);
+        int code = e.codeAt(0);
+        if (code > first && !e.isWildcardEdge()
+            && (best == null || code > best.codeAt(0)))
+          best = e;
+      }
+      return best != null ? best : get(0);
+    }
+
+    ensureSorted();
+    int[] sortedCodes = index.sortedCodes;
+    Edge[] sortedEdges = index.sortedEdges;
+    for (int i = size() - 1; i >= 0 && sortedCodes[i] > first; ) {
+      int runStart = i;
+      while (runStart > 0 && sortedCodes[runStart - 1] == sortedCodes[i])
+        runStart--;
+      for (int j = runStart; j <= i; j++) {
+        if (!sortedEdges[j].isWildcardEdge())
+          return sortedEdges[j];
+      }
+      i = runStart - 1;
+    }
+    return get(0);
+  }
+
+  @Override
+  public boolean add(Edge edge) {
+    if (index == null)
+      return super.add(edge);
+    boolean indexCurrent = index.indexedModCount == modCount;
+    boolean sortedCurrent = index.sortedModCount == modCount;
+    super.add(edge);
+    int code = edge.codeAt(0);
+    if (sortedCurrent) {
+      insertSorted(edge, code);
+      index.sortedModCount = modCount;
+    }
+    if (indexCurrent && addToIndex(edge, code))
+      index.indexedModCount = modCount;
+    return true;
+  }
+
+  private Index index() {
+    if (index == null)
+      index = new Index(false);
+    return index;
+  }
+
+  // Returns false if the index has to be rebuilt instead.
+  private boolean addToIndex(Edge edge, int code) {
+    switch (index.kind) {
+      case DIRECT:
+        int slot = code - index.minCode;
+        if (slot < 0 || slot >= index.direct.length)
+          return false;
+        if (index.direct[slot] == null)
+          index.direct[slot] = edge;
+        return true;
+      case SORTED:
+        return size() <= SORTED_MAX && index.sortedModCount == modCount;
+      case HASH:
+        if (2 * size() > index.keys.length)
+          return false;
+        put(edge, code);
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private void rebuildIndex() {
+    int n = size();
+    int min = Integer.MAX_VALUE;
+    int max = Integer.MIN_VALUE;
+    for (int i = 0; i < n; i++) {
+      int code = get(i).codeAt(0);
+      min = Math.min(min, code);
+      max = Math.max(max, code);
+    }
+    index.direct = null;
+    index.keys = null;
+    index.values = null;
+    if (index.allowDirect && (long) max - min < DIRECT_RANGE) {
+      index.kind = DIRECT;
+      // As much room as possible below max, since symbols are usually small
+      // (for characters, the table covers every code below 256).
+      index.minCode = Math.max(0, max - DIRECT_RANGE + 1);
+      index.direct = new Edge[DIRECT_RANGE];
+      for (int i = 0; i < n; i++) {
+        Edge e = get(i);
+        int slot = e.codeAt(0) - index.minCode;
+        if (index.direct[slot] == null)
+          index.direct[slot] = e;
+      }
+    } else if (n <= SORTED_MAX) {
+      index.kind = SORTED;
+      ensureSorted();
+    } else {
+      index.kind = HASH;
+      int capacity = Integer.highestOneBit(Math.max(4 * n - 1, 16)) << 1;
+      index.keys = new int[capacity];
+      index.values = new Edge[capacity];
+      for (int i = 0; i < n; i++) {
+        put(get(i), get(i).codeAt(0));
+      }
+    }
+    index.indexedModCount = modCount;
+  }
+
+  private void ensureSorted() {
+    Index index = index();
+    if (index.sortedModCount == modCount)
+      return;
+    int n = size();
+    // Sort (code, position) pairs packed into longs, which keeps equal
+    // codes in list order.
+    long[] order = new long[n];
+    for (int i = 0; i < n; i++) {
+      order[i] = ((long) get(i).codeAt(0) << 32) | i;
+    }
+    Arrays.sort(order);
+    index.sortedCodes = new int[Math.max(n, 4)];
+    index.sortedEdges = new Edge[index.sortedCodes.length];
+    for (int i = 0; i < n; i++) {
+      index.sortedCodes[i] = (int) (order[i] >> 32);
+      index.sortedEdges[i] = get((int) order[i]);
+    }
+    index.sortedModCount = modCount;
+  }
+
+  // Inserts after any edges with the same code; size() already counts it.
+  private void insertSorted(Edge edge, int code) {
+    int n = size() - 1;
+    if (n == index.sortedCodes.length) {
+      index.sortedCodes = Arrays.copyOf(index.sortedCodes, 2 * n);
+      index.sortedEdges = Arrays.copyOf(index.sortedEdges, 2 * n);
+    }
+    int i = lowerBound(code + 1, n);
+    if (code == Integer.MAX_VALUE)
+      i = n;
+    System.arraycopy(index.sortedCodes, i, index.sortedCodes, i + 1, n - i);
+    System.arraycopy(index.sortedEdges, i, index.sortedEdges, i + 1, n - i);
+    index.sortedCodes[i] = code;
+    index.sortedEdges[i] = edge;
+  }
+
+  private int lowerBound(int code) {
+    return lowerBound(code, size());
+  }
+
+  // The first position among the first n sorted codes that is >= code.
+  private int lowerBound(int code, int n) {
+    int[] sortedCodes = index.sortedCodes;
+    int lo = 0, hi = n;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (sortedCodes[mid] < code)
+        lo = mid + 1;
+      else
+        hi = mid;
+    }
+    return lo;
+  }
+
+  // Keeps the first edge seen for a code, as the linear scan would.
+  private void put(Edge edge, int code) {
+    int[] keys = index.keys;
+    Edge[] values = index.values;
+    int mask = keys.length - 1;
+    int slot = hash(code) & mask;
+    while (values[slot] != null) {
+      if (keys[slot] == code)
+        return;
+      slot = (slot + 1) & mask;
+    }
+    keys[slot] = code;
+    values[slot] = edge;
+  }
+
+  private static int hash(int code) {
+    int h = code * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+}
@@ -20,7 +20,10 @@ public class Path {
   // keys in nodes.
   protected Map<Integer, Node> nodes;
   protected LinkedList<Integer> order;
-  protected YFastTrie<Object> steps;
+  // Made by buildYFastTrie(), or else the first time jump() needs it (as in a
+  // loaded tree, see TreeSnapshot). Volatile, so that a trie made during a
+  // query is seen whole by other threads.
+  protected volatile YFastTrie<Object> steps;
   
   protected Path() {
     nodes = new HashMap<Integer, Node>();
@@ -117,7 +120,12 @@ public class Path {
     if (nodes.containsKey(goal)) {
       return new Pair<Node, Integer>(nodes.get(goal), 0);
     } else {
-      Pair<Integer, Object> p = steps.predecessor(goal);
+      YFastTrie<Object> trie = steps;
+      if (trie == null) {
+        buildYFastTrie();
+        trie = steps;
+      }
+      Pair<Integer, Object> p = trie.predecessor(goal);
       Integer pred = p.getLeft();
       if (pred == null) {
         throw new RuntimeException("A jump query in a ladder exceeded the height of the ladder");
@@ -0,0 +1,382 @@
+package stringmatch.ds.suffixtree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import stringmatch.ds.text.Text;
+import stringmatch.ds.text.TextSubstring;
+
+/*
+ * A suffix tree over the last windowSize symbols of a stream, following
+ *   N. J. Larsson, "Extended Application of Suffix Trees to Data
+ *   Compression", DCC 1996,
+ * as surveyed in M. Senft, "Suffix Tree for a Sliding Window: An Overview",
+ * WDS 2005. New symbols go in with Ukkonen's algorithm, as in
+ * SuffixTree.Builder, and once the window is full, each one pushes the
+ * oldest suffix out: its leaf is removed, along with its parent if that is
+ * left with one child. The text is kept in a ring buffer (see Text.ring()),
+ * so the tree, the text and the leaf table all take O(windowSize) space
+ * however long the stream runs.
+ *
+ * Two things need care. First, the longest implicit suffix (see
+ * AppendableSuffixTree) may be a prefix of the oldest suffix only, in which
+ * case it takes over the oldest suffix's leaf instead of the leaf being
+ * removed. Second, an edge label is a pointer into the text, and once the
+ * symbols it points at leave the window the ring buffer reuses them. Every
+ * time a node gets a new child, its incoming label is moved to the newest
+ * occurrence, and every second time it passes that occurrence on to its
+ * parent (the node's credit bit says which time it is). This keeps every
+ * label in the window at amortized constant cost per symbol.
+ *
+ * Offsets are given relative to the start of the window; getWindowStart()
+ * says where that is in the stream.
+ */
+public class SlidingWindowSuffixTree {
+
+  private final int windowSize;
+  // Positions in the ring text are brought back down before they get here.
+  private final int maxPosition;
+  private final Text text;
+  private final int mask;
+  private final WindowNode root;
+  private final ActivePoint activePoint;
+  // How many suffixes are implicit; see SuffixTree.Builder.
+  private int remainder;
+  // end[0] is the position after the last symbol, and the end of every open
+  // leaf edge.
+  private final int[] end;
+  // The position of the first symbol in the window.
+  private int start;
+  // The stream offset of position start.
+  private long windowStart;
+  // leaves[j & mask] is the leaf edge of the suffix at position j.
+  private final Edge[] leaves;
+
+  public SlidingWindowSuffixTree(int windowSize) {
+    this(windowSize, 1 << 30);
+  }
+
+  SlidingWindowSuffixTree(int windowSize, int maxPosition) {
+    if (windowSize < 1)
+      throw new IllegalArgumentException("The window must hold a symbol.");
+    this.windowSize = windowSize;
+    this.maxPosition = maxPosition;
+    // Room for one more symbol than the window, which goes in before the
+    // oldest one is pushed out.
+    text = Text.ring(windowSize + 1);
+    mask = text.getRingCapacity() - 1;
+    root = new WindowNode(null, 0);
+    activePoint = new ActivePoint(root);
+    remainder = 0;
+    end = new int[] { 0 };
+    start = 0;
+    windowStart = 0;
+    leaves = new Edge[mask + 1];
+  }
+
+  public int getWindowSize() {
+    return windowSize;
+  }
+
+  // The number of symbols in the window, which is windowSize once the stream
+  // has had that many.
+  public int getLength() {
+    return end[0] - start;
+  }
+
+  // Where in the stream the window starts, i.e., the number of symbols that
+  // have left it.
+  public long getWindowStart() {
+    return windowStart;
+  }
+
+  public SlidingWindowSuffixTree append(Text symbols) {
+    for (int i = 0; i < symbols.getLength(); i++) {
+      append(symbols.codeAt(i));
+    }
+    return this;
+  }
+
+  public SlidingWindowSuffixTree append(String symbols) {
+    return append(new Text(symbols, false));
+  }
+
+  public SlidingWindowSuffixTree append(int code) {
+    if (end[0] == maxPosition)
+      rebase();
+    text.append(code);
+    extend(end[0]);
+    if (getLength() > windowSize)
+      removeOldestSuffix();
+    return this;
+  }
+
+  /*
+   * Returns the offset in the window of every occurrence of p, in increasing
+   * order. No wildcards allowed.
+   */
+  public List<Integer> queryIndices(Text p) {
+    return toOffsets(OpenTreeSearch.find(root, text, end[0], remainder, p,
+        false));
+  }
+
+  /*
+   * Same as queryIndices, except that a wildcard in p matches any symbol.
+   */
+  public List<Integer> naiveWildcardQueryIndices(Text p) {
+    return toOffsets(OpenTreeSearch.find(root, text, end[0], remainder, p,
+        true));
+  }
+
+  private List<Integer> toOffsets(List<Integer> positions) {
+    List<Integer> offsets = new ArrayList<Integer>(positions.size());
+    for (int position : positions) {
+      offsets.add(position - start);
+    }
+    Collections.sort(offsets);
+    return offsets;
+  }
+
+  /*
+   * One phase of Ukkonen's algorithm, as in SuffixTree.Builder.extend(),
+   * except that new leaves are recorded in leaves and refresh their parent's
+   * label.
+   */
+  private void extend(int i) {
+    end[0] = i + 1;
+    remainder++;
+    int code = text.codeAt(i);
+    Node lastNewNode = null;
+    while (remainder > 0) {
+      if (activePoint.getActiveLength() == 0)
+        activePoint.setActiveEdgeStart(i);
+      WindowNode activeNode = (WindowNode) activePoint.getActiveNode();
+      Edge activeEdge = activeNode.follow(
+          text.codeAt(activePoint.getActiveEdgeStart()));
+      int suffix = i - remainder + 1;
+
+      if (activeEdge == null) {
+        addLeaf(activeNode, suffix);
+        if (lastNewNode != null) {
+          lastNewNode.setSuffixLink(activeNode);
+          lastNewNode = null;
+        }
+      } else {
+        if (activePoint.walkDown(activeEdge))
+          continue;
+        int activeLength = activePoint.getActiveLength();
+        if (text.codeAt(activeEdge.getTextStart() + activeLength) == code) {
+          if (lastNewNode != null && activeNode != root) {
+            lastNewNode.setSuffixLink(activeNode);
+            lastNewNode = null;
+          }
+          activePoint.setActiveLength(activeLength + 1);
+          break;
+        }
+        WindowNode newNode = split(activeEdge, activeLength);
+        addLeaf(newNode, suffix);
+        if (lastNewNode != null)
+          lastNewNode.setSuffixLink(newNode);
+        lastNewNode = newNode;
+      }
+
+      remainder--;
+      moveToNextSuffix(activeNode);
+    }
+  }
+
+  // After the suffix at the active point has been given a leaf, moves the
+  // active point on to the next shorter one.
+  private void moveToNextSuffix(Node activeNode) {
+    if (activeNode == root && activePoint.getActiveLength() > 0) {
+      activePoint.setActiveLength(activePoint.getActiveLength() - 1);
+      activePoint.setActiveEdgeStart(end[0] - remainder);
+    } else if (activeNode != root) {
+      activePoint.setActiveNode(activeNode.hasSuffixLink()
+          ? activeNode.getSuffixLink() : root);
+    }
+  }
+
+  private void addLeaf(WindowNode node, int suffix) {
+    Edge leaf = new Edge(node, text, suffix + node.depth, end);
+    node.addOutgoingEdge(leaf);
+    leaves[suffix & mask] = leaf;
+    refresh(node, suffix);
+  }
+
+  // Splits the edge: edge -> newNode -> lower, where edge keeps the first
+  // length symbols of its label.
+  private WindowNode split(Edge edge, int length) {
+    WindowNode from = (WindowNode) edge.getFromNode();
+    int labelStart = edge.getTextStart();
+    WindowNode newNode = new WindowNode(edge, from.depth + length);
+    Edge lower;
+    if (edge.textEndsAtTreeEnd()) {
+      lower = new Edge(newNode, text, labelStart + length, end);
+      leaves[(labelStart - from.depth) & mask] = lower;
+    } else {
+      lower = new Edge(newNode, new TextSubstring(text, labelStart + length,
+          edge.getLength() - length));
+    }
+    lower.setToNode(edge.getToNode());
+    if (edge.getToNode() != null)
+      edge.getToNode().setIncomingEdge(lower);
+    newNode.addOutgoingEdge(lower);
+    edge.truncate(length);
+    edge.setToNode(newNode);
+    return newNode;
+  }
+
+  /*
+   * Larsson's update: the suffix at position suffix goes through node, so
+   * node's label can point at it. Each node passes every second such
+   * occurrence on to its parent, always keeping the newest one it has seen.
+   */
+  private void refresh(WindowNode node, int suffix) {
+    while (node != root) {
+      Edge incoming = node.incomingEdge;
+      WindowNode parent = (WindowNode) incoming.getFromNode();
+      suffix = Math.max(suffix, incoming.getTextStart() - parent.depth);
+      incoming.setTextStart(suffix + parent.depth);
+      node.credit = !node.credit;
+      if (node.credit)
+        return;
+      node = parent;
+    }
+  }
+
+  private void removeOldestSuffix() {
+    Edge leaf = leaves[start & mask];
+    leaves[start & mask] = null;
+    WindowNode node = (WindowNode) leaf.getFromNode();
+    canonize();
+    if (activePoint.getActiveNode() == node
+        && activePoint.getActiveLength() > 0
+        && node.follow(text.codeAt(activePoint.getActiveEdgeStart())) == leaf) {
+      // The longest implicit suffix ends on the leaf's edge, so without it
+      // it would be in the tree nowhere. It takes the leaf over instead.
+      int suffix = end[0] - remainder;
+      leaf.setTextStart(suffix + node.depth);
+      leaves[suffix & mask] = leaf;
+      refresh(node, suffix);
+      remainder--;
+      moveToNextSuffix(node);
+    } else {
+      node.outgoingEdges.remove(leaf);
+      if (node != root && node.numChildren() == 1)
+        removeNode(node);
+    }
+    start++;
+    windowStart++;
+  }
+
+  // Replaces node, which has only one child left, by a single edge from its
+  // parent to that child.
+  private void removeNode(WindowNode node) {
+    Edge upper = node.incomingEdge;
+    WindowNode parent = (WindowNode) upper.getFromNode();
+    Edge lower = node.outgoingEdges.get(0);
+    int upperLength = upper.getLength();
+    int suffix = lower.getTextStart() - node.depth;
+    if (node.credit) {
+      // Don't lose the occurrence node was holding on to for its parent.
+      refresh(parent, Math.max(suffix, upper.getTextStart() - parent.depth));
+    }
+
+    if (lower.textEndsAtTreeEnd()) {
+      lower.setTextStart(lower.getTextStart() - upperLength);
+    } else {
+      lower.setTextSubstring(new TextSubstring(text,
+          lower.getTextStart() - upperLength, upperLength + lower.getLength()));
+    }
+    lower.fromNode = parent;
+    parent.outgoingEdges.remove(upper);
+    parent.addOutgoingEdge(lower);
+
+    if (activePoint.getActiveNode() == node) {
+      activePoint.setActiveNode(parent);
+      activePoint.setActiveEdgeStart(activePoint.getActiveEdgeStart() - upperLength);
+      activePoint.setActiveLength(activePoint.getActiveLength() + upperLength);
+    }
+  }
+
+  // Walks the active point down to the last node above it.
+  private void canonize() {
+    while (activePoint.getActiveLength() > 0) {
+      Edge e = activePoint.getActiveNode().follow(
+          text.codeAt(activePoint.getActiveEdgeStart()));
+      if (!activePoint.walkDown(e))
+        return;
+    }
+  }
+
+  /*
+   * Throws a RuntimeException if some edge label points outside the window,
+   * where the ring buffer may have reused the symbols.
+   */
+  void checkLabels() {
+    new TreeWalker() {
+      @Override
+      protected boolean enter(Node n) {
+        for (int i = 0; i < n.numChildren(); i++) {
+          Edge e = n.outgoingEdges.get(i);
+          if (e.getTextStart() < start || e.getTextStart() + e.getLength() > end[0])
+            throw new RuntimeException("Label of " + e.getTextStart() + "+"
+                + e.getLength() + " outside the window [" + start + ", "
+                + end[0] + ")");
+        }
+        return true;
+      }
+
+      @Override
+      protected boolean follow(Edge e) {
+        return e.getToNode() != null;
+      }
+    }.walk(root);
+  }
+
+  /*
+   * Takes a multiple of the ring's capacity off every position, so that
+   * positions never overflow. This visits the whole tree, but only once
+   * every maxPosition symbols or so.
+   */
+  private void rebase() {
+    final int delta = start & ~mask;
+    new TreeWalker() {
+      @Override
+      protected boolean enter(Node n) {
+        for (int i = 0; i < n.numChildren(); i++) {
+          Edge e = n.outgoingEdges.get(i);
+          e.setTextStart(e.getTextStart() - delta);
+        }
+        return true;
+      }
+
+      @Override
+      protected boolean follow(Edge e) {
+        return e.getToNode() != null;
+      }
+    }.walk(root);
+    activePoint.setActiveEdgeStart(activePoint.getActiveEdgeStart() - delta);
+    end[0] -= delta;
+    start -= delta;
+    text.rebase(delta);
+  }
+
+  /*
+   * A node with its string depth, which the labels are computed from, and
+   * its credit for refresh().
+   */
+  private static class WindowNode extends Node {
+    final int depth;
+    boolean credit;
+
+    WindowNode(Edge incomingEdge, int depth) {
+      super(incomingEdge);
+      this.depth = depth;
+      credit = false;
+    }
+  }
+
+}
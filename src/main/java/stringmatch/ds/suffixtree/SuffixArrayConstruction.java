@@ -0,0 +1,235 @@
+package stringmatch.ds.suffixtree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import stringmatch.ds.suffixarray.SuffixArrays;
+import stringmatch.ds.text.Alphabet;
+import stringmatch.ds.text.Text;
+import stringmatch.ds.text.TextSubstring;
+
+/*
+ * Builds a suffix tree from the suffix array and LCP array of its text: the
+ * suffixes are added as leaves in sorted order, keeping the path to the last
+ * leaf on a stack. The LCP with the previous suffix says how far up that path
+ * the new leaf branches off, splitting an edge if it's in the middle of one.
+ * Edges come out sorted and leaves get the same indices as from
+ * Node.sortEdgesAndPutNodesAtLeaves(), so the tree is the one Ukkonen's
+ * algorithm gives.
+ *
+ * In parallel, the suffix array is cut into the ranges of suffixes that
+ * start with the same q symbols. Below depth q these are independent
+ * subtrees, so each is built on its own in a ForkJoinPool, and then the
+ * subtrees are hung under the top of the tree, which is built the same way
+ * but with each subtree standing in for a leaf. A leaf's lexicographic index
+ * is its position in the suffix array, i.e., the start of its range plus its
+ * position inside it.
+ */
+class SuffixArrayConstruction {
+
+  // How many ranges to aim for per thread, so uneven ranges even out.
+  private static final int RANGES_PER_THREAD = 8;
+  private static final int MAX_Q = 16;
+
+  private final Text text;
+  private final int n;
+  private final int[] sa;
+  private final int[] lcp;
+
+  private SuffixArrayConstruction(Text text, int[] sa, int[] lcp) {
+    this.text = text;
+    this.n = text.getLength();
+    this.sa = sa;
+    this.lcp = lcp;
+  }
+
+  static void build(Text text, Node root) {
+    checkEndChar(text);
+    int[] sa = SuffixArrays.suffixArray(text);
+    new SuffixArrayConstruction(text, sa, SuffixArrays.lcpArray(text, sa))
+        .buildRange(root, 0, 0, text.getLength());
+  }
+
+  static void buildInParallel(Text text, Node root, int threads) {
+    checkEndChar(text);
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      int[] sa = SuffixArrays.suffixArray(text);
+      int[] lcp = SuffixArrays.lcpArray(text, sa, pool);
+      new SuffixArrayConstruction(text, sa, lcp).buildInParallel(root, pool,
+          threads * RANGES_PER_THREAD);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private static void checkEndChar(Text text) {
+    int n = text.getLength();
+    for (int i = 0; i < n - 1; i++) {
+      if (text.codeAt(i) == Alphabet.END_CODE)
+        throw new IllegalArgumentException(
+            "END_CHAR can only be at the end of the text.");
+    }
+    if (n == 0 || text.codeAt(n - 1) != Alphabet.END_CODE)
+      throw new IllegalArgumentException("Text must end in END_CHAR.");
+  }
+
+  // Adds the leaves sa[from, to) under node, which is at string depth depth
+  // and a common prefix of all of them.
+  private void buildRange(Node node, int depth, int from, int to) {
+    RightmostPath path = new RightmostPath(node, depth);
+    for (int i = from; i < to; i++) {
+      Node leaf = new Node(null, true, sa[i], 2 * i);
+      path.add(leaf, sa[i], n - sa[i], i == from ? depth : lcp[i]);
+    }
+  }
+
+  private void buildInParallel(Node root, ForkJoinPool pool, int targetRanges) {
+    int q = chooseQ(targetRanges);
+
+    // Range starts: wherever a suffix doesn't share its first q symbols with
+    // the one before.
+    List<Integer> starts = new ArrayList<Integer>();
+    for (int i = 0; i < n; i++) {
+      if (i == 0 || lcp[i] < q)
+        starts.add(i);
+    }
+    int ranges = starts.size();
+    final int[] from = new int[ranges];
+    final int[] to = new int[ranges];
+    final int[] depth = new int[ranges];
+    final Node[] subtrees = new Node[ranges];
+    for (int r = 0; r < ranges; r++) {
+      from[r] = starts.get(r);
+      to[r] = r + 1 < ranges ? starts.get(r + 1) : n;
+      if (to[r] - from[r] == 1) {
+        depth[r] = n - sa[from[r]];
+      } else {
+        // The deepest node above all of the range.
+        int d = Integer.MAX_VALUE;
+        for (int i = from[r] + 1; i < to[r]; i++) {
+          d = Math.min(d, lcp[i]);
+        }
+        depth[r] = d;
+      }
+    }
+
+    // Group neighbouring ranges into tasks of about the same size.
+    final List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+    long perTask = Math.max(1, (long) n / targetRanges);
+    for (int r = 0; r < ranges; ) {
+      final int first = r;
+      long size = 0;
+      while (r < ranges && (size == 0 || size + to[r] - from[r] <= perTask)) {
+        size += to[r] - from[r];
+        r++;
+      }
+      final int last = r;
+      tasks.add(new RecursiveAction() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void compute() {
+          for (int i = first; i < last; i++) {
+            if (to[i] - from[i] == 1) {
+              subtrees[i] = new Node(null, true, sa[from[i]], 2 * from[i]);
+            } else {
+              subtrees[i] = new Node(null);
+              buildRange(subtrees[i], depth[i], from[i], to[i]);
+            }
+          }
+        }
+      });
+    }
+    pool.invoke(new RecursiveAction() {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected void compute() {
+        invokeAll(tasks);
+      }
+    });
+
+    RightmostPath path = new RightmostPath(root, 0);
+    for (int r = 0; r < ranges; r++) {
+      path.add(subtrees[r], sa[from[r]], depth[r], from[r] == 0 ? 0 : lcp[from[r]]);
+    }
+  }
+
+  // The smallest q that cuts the suffix array into at least targetRanges
+  // ranges, if there is one below MAX_Q.
+  private int chooseQ(int targetRanges) {
+    int[] lcpCounts = new int[MAX_Q + 1];
+    for (int i = 1; i < n; i++) {
+      lcpCounts[Math.min(lcp[i], MAX_Q)]++;
+    }
+    int ranges = 1;
+    for (int q = 1; q < MAX_Q; q++) {
+      // Going from q - 1 to q adds a range start at every LCP of q - 1.
+      ranges += lcpCounts[q - 1];
+      if (ranges >= targetRanges)
+        return q;
+    }
+    return MAX_Q;
+  }
+
+  /*
+   * The path from some node down to the last node added below it, with the
+   * string depth of each node on it.
+   */
+  private class RightmostPath {
+    private Node[] nodes = new Node[16];
+    private int[] depths = new int[16];
+    private int size;
+
+    RightmostPath(Node top, int depth) {
+      nodes[0] = top;
+      depths[0] = depth;
+      size = 1;
+    }
+
+    // Hangs child, the node for text[start, start + depth), off the path,
+    // given the LCP of that string with the last one added.
+    void add(Node child, int start, int depth, int lcp) {
+      Node last = null;
+      while (depths[size - 1] > lcp)
+        last = nodes[--size];
+      if (size + 2 > nodes.length) {
+        nodes = Arrays.copyOf(nodes, 2 * nodes.length);
+        depths = Arrays.copyOf(depths, 2 * depths.length);
+      }
+
+      if (depths[size - 1] < lcp) {
+        // Split the edge into last at depth lcp.
+        Edge upper = last.incomingEdge;
+        TextSubstring label = upper.getTextSubstring();
+        int split = lcp - depths[size - 1];
+        Node middle = new Node(upper);
+        Edge lower = new Edge(middle, new TextSubstring(text,
+            label.getStartIndex() + split, label.getLength() - split));
+        lower.setToNode(last);
+        last.setIncomingEdge(lower);
+        middle.addOutgoingEdge(lower);
+        upper.setTextSubstring(new TextSubstring(text, label.getStartIndex(),
+            split));
+        upper.setToNode(middle);
+        nodes[size] = middle;
+        depths[size++] = lcp;
+      }
+
+      Node parent = nodes[size - 1];
+      int parentDepth = depths[size - 1];
+      Edge edge = new Edge(parent, new TextSubstring(text, start + parentDepth,
+          depth - parentDepth));
+      edge.setToNode(child);
+      child.setIncomingEdge(edge);
+      parent.addOutgoingEdge(edge);
+      nodes[size] = child;
+      depths[size++] = depth;
+    }
+  }
+
+}
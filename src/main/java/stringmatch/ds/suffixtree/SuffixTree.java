@@ -1,15 +1,20 @@
 package stringmatch.ds.suffixtree;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import stringmatch.ds.text.Alphabet;
 import stringmatch.ds.text.AlphabetCharacter;
 import stringmatch.ds.text.Text;
 import stringmatch.ds.text.TextSubstring;
+import stringmatch.ds.util.MatchSet;
+import stringmatch.ds.util.MatchVisitor;
 import stringmatch.ds.util.Pair;
 import stringmatch.ds.suffixtree.Node;
 
@@ -19,7 +24,23 @@ import stringmatch.ds.suffixtree.Node;
 
 public class SuffixTree {
 
+  /*
+   * How a Builder constructs the tree. All give the same tree.
+   * SUFFIX_ARRAY builds a suffix array and LCP array on primitive arrays and
+   * then the tree bottom-up, which is several times faster and allocates far
+   * less than Ukkonen's algorithm, but needs the text to end in its only
+   * END_CHAR. PARALLEL does the same, but builds the subtrees below the
+   * first few symbols on all cores.
+   */
+  public enum Construction {
+    UKKONEN, SUFFIX_ARRAY, PARALLEL
+  }
+
   protected Node root;
+  // The offsets of the leaves in leaf order, made the first time a query
+  // reports leaves (see getLeafOffsets()). Volatile, so that an array made
+  // during a query is seen whole by other threads.
+  protected volatile int[] leafOffsets;
 
   protected SuffixTree() { }
   
@@ -35,6 +56,14 @@ public class SuffixTree {
     return root;
   }
 
+  /*
+   * Copies the tree into a FrozenSuffixTree, which answers the same queries
+   * from flat arrays. Drop this tree afterwards to get the memory back.
+   */
+  public FrozenSuffixTree freeze() {
+    return new FrozenSuffixTree(root);
+  }
+
   public List<List<AlphabetCharacter>> getAllSuffixes() {
     return getAllSuffixes(false);
   }
@@ -50,11 +79,11 @@ public class SuffixTree {
   public List<String> getAllSuffixesAsStrings(boolean ignoreCentroid) {
     List<String> allSuffixesAsStrings = new ArrayList<String>();
     for (List<AlphabetCharacter> x : getAllSuffixes(ignoreCentroid)) {
-      String xStr = "";
+      StringBuilder xStr = new StringBuilder(x.size());
       for (AlphabetCharacter y : x) {
-        xStr += y.toString();
+        xStr.append((char) y.getCode());
       }
-      allSuffixesAsStrings.add(xStr);
+      allSuffixesAsStrings.add(xStr.toString());
     }
     return allSuffixesAsStrings;
   }
@@ -72,22 +101,18 @@ public class SuffixTree {
     
   /* 
    * Checks that following an edge matches all the characters along the edge. If allowWildcards
-   * is set, then all characters except AlphabetCharacter.END_CHAR are matched to
-   * AlphabetCharacter.WILDCARD.
+   * is set, then all characters except AlphabetCharacter.END_CHAR and
+   * AlphabetCharacter.SEPARATOR are matched to AlphabetCharacter.WILDCARD.
    */
   protected boolean checkMatch(Text p, int start, Edge e, boolean allowWildcards) {
     if (e != null) {
-      for (int i = 0; i < Math.min(e.getTextSubstring().length, p.getLength()
-          - start); i++) {
-        AlphabetCharacter nextOnEdge = e.getTextSubstring().getIthChar(i);
-        AlphabetCharacter nextInPattern = p.getCharAtIndex(start + i);
-        if (!nextOnEdge.equals(nextInPattern)) {
-          if (!(allowWildcards && wildcardMatch(nextOnEdge, nextInPattern))) {
-            return false;
-          }
-        }
-      }
-      return true;
+      TextSubstring edgeSubstring = e.getTextSubstring();
+      int maxLength = Math.min(edgeSubstring.length, p.getLength() - start);
+      Text edgeText = edgeSubstring.getText();
+      if (!allowWildcards)
+        return edgeText.regionEquals(edgeSubstring.start, p, start, maxLength);
+      return edgeText.matchLength(edgeSubstring.start, p, start, maxLength)
+          == maxLength;
     }
     return false;
   }
@@ -101,19 +126,19 @@ public class SuffixTree {
   }
 
   protected Pair<Node, Integer> query(Text p, int start, Node current) {
-    if (start >= p.getSize()) {
-      return new Pair<Node, Integer>(current, p.getSize() - start);
+    while (start < p.getSize()) {
+      Edge e = current.follow(p.codeAt(start));
+      if (!checkMatch(p, start, e, false))
+        return null;
+      start += e.getTextSubstring().length;
+      current = e.getToNode();
     }
-    Edge e = current.follow(p.getCharAtIndex(start));
-    if (checkMatch(p, start, e, false)) {
-      return query(p, start + e.getTextSubstring().length, e.getToNode());
-    }
-    return null;
+    return new Pair<Node, Integer>(current, p.getSize() - start);
   }
 
   public boolean wildcardMatch(AlphabetCharacter nextOnEdge,
       AlphabetCharacter nextInPattern) {
-    return (nextInPattern.isWild() && !nextOnEdge.isEnd());
+    return (nextInPattern.isWild() && !Alphabet.isTerminator(nextOnEdge.getCode()));
   }
   
   public static void main(String[] args) {
@@ -125,12 +150,182 @@ public class SuffixTree {
   }
 
   public List<Integer> naiveWildcardQueryIndices(Text p) {
-    List<Node> nodes = naiveWildcardQuery(p);
-    Set<Integer> nodeIndices = new HashSet<Integer>();
+    return leafOffsetsBelow(naiveWildcardQuery(p));
+  }
+  
+  /*
+   * Same as naiveWildcardQueryIndices, but hands each match to visitor as
+   * soon as the search gets to it, keeping only the path it is on. Returns
+   * false if visitor stopped it.
+   */
+  public boolean naiveWildcardQueryIndices(Text p, MatchVisitor visitor) {
+    Node[] stackNode = new Node[16];
+    int[] stackPos = new int[16];
+    int size = 0;
+    stackNode[size] = root;
+    stackPos[size++] = 0;
+    while (size > 0) {
+      size--;
+      Node current = stackNode[size];
+      int start = stackPos[size];
+      stackNode[size] = null;
+      if (start >= p.getSize()) {
+        if (!visitLeafOffsets(current, visitor))
+          return false;
+        continue;
+      }
+      boolean wild = p.getCharAtIndex(start).isWild();
+      List<Edge> edges = current.getOutgoingEdges();
+      for (int i = 0; i < (wild ? edges.size() : 1); i++) {
+        // As in naiveWildcardQuery(), wildcard edges are left alone.
+        Edge e = wild ? edges.get(i) : current.follow(p.codeAt(start));
+        if (e == null || e.isWildcardEdge() || !checkMatch(p, start, e, true))
+          continue;
+        if (size == stackNode.length) {
+          stackNode = Arrays.copyOf(stackNode, 2 * size);
+          stackPos = Arrays.copyOf(stackPos, 2 * size);
+        }
+        stackNode[size] = e.getToNode();
+        stackPos[size++] = start + e.getTextSubstring().length;
+      }
+    }
+    return true;
+  }
+  
+  /*
+   * Same as naiveWildcardQueryIndices, but as a MatchSet, in text order and
+   * without boxing.
+   */
+  public MatchSet naiveWildcardQueryMatches(Text p) {
+    return leafOffsetMatches(naiveWildcardQuery(p));
+  }
+  
+  // The number of occurrences of p, which may contain wildcards.
+  public int naiveWildcardQueryCount(Text p) {
+    int count = 0;
+    for (Node node : naiveWildcardQuery(p)) {
+      count += countLeaves(node);
+    }
+    return count;
+  }
+  
+  /*
+   * Returns the offsets of the leaves of this tree, and of the wildcard
+   * subtrees below it, in leaf order, one tree after another. The leaves
+   * below any node are the range [node.leafRangeStart, node.leafRangeEnd)
+   * of it, so a query can report them without walking the subtree, and
+   * count them for free. Made on first use, as the tree must be done.
+   */
+  public int[] getLeafOffsets() {
+    int[] offsets = leafOffsets;
+    if (offsets == null) {
+      offsets = new LeafNumbering(root).offsets();
+      leafOffsets = offsets;
+    }
+    return offsets;
+  }
+  
+  // The number of leaves below node, which is in this tree.
+  public int countLeaves(Node node) {
+    getLeafOffsets();
+    return node.leafRangeEnd - node.leafRangeStart;
+  }
+  
+  // Adds the offsets of the leaves below node, which is in this tree.
+  public void addLeafOffsets(Node node, List<Integer> indices) {
+    int[] offsets = getLeafOffsets();
+    for (int i = node.leafRangeStart; i < node.leafRangeEnd; i++) {
+      indices.add(offsets[i]);
+    }
+  }
+  
+  /*
+   * The offsets of the leaves below the given nodes, which must not be
+   * above one another.
+   */
+  protected List<Integer> leafOffsetsBelow(List<Node> nodes) {
+    int count = 0;
+    for (Node node : nodes) {
+      count += countLeaves(node);
+    }
+    List<Integer> indices = new ArrayList<Integer>(count);
     for (Node node : nodes) {
-      nodeIndices.addAll(node.getOffsetIndicesOfLeaves());
+      addLeafOffsets(node, indices);
+    }
+    return indices;
+  }
+  
+  /*
+   * Hands the offsets of the leaves below node, which is in this tree, to
+   * visitor. Returns false if visitor stopped.
+   */
+  protected boolean visitLeafOffsets(Node node, MatchVisitor visitor) {
+    int[] offsets = getLeafOffsets();
+    for (int i = node.leafRangeStart; i < node.leafRangeEnd; i++) {
+      if (!visitor.visit(offsets[i]))
+        return false;
+    }
+    return true;
+  }
+  
+  // The offsets of the leaves below the given nodes, as a MatchSet.
+  protected MatchSet leafOffsetMatches(List<Node> nodes) {
+    int[] offsets = getLeafOffsets();
+    MatchSet.Builder matches = new MatchSet.Builder();
+    for (Node node : nodes) {
+      matches.add(offsets, node.leafRangeStart, node.leafRangeEnd);
+    }
+    return matches.build();
+  }
+  
+  /*
+   * Numbers the leaves for getLeafOffsets(). Each tree is walked without
+   * its wildcard edges, and the wildcard subtrees they lead to are walked
+   * after it, so that every node's leaves stay together.
+   */
+  private static class LeafNumbering extends TreeWalker {
+    private int[] offsets = new int[16];
+    private int size = 0;
+    private final List<Node> roots = new ArrayList<Node>();
+    private final Set<Node> seen =
+        Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+
+    private LeafNumbering(Node root) {
+      roots.add(root);
+      seen.add(root);
+      for (int i = 0; i < roots.size(); i++) {
+        walk(roots.get(i));
+      }
+    }
+
+    private int[] offsets() {
+      return Arrays.copyOf(offsets, size);
+    }
+
+    @Override
+    protected boolean enter(Node node) {
+      node.leafRangeStart = size;
+      if (node.isLeaf()) {
+        if (size == offsets.length)
+          offsets = Arrays.copyOf(offsets, 2 * size);
+        offsets[size++] = node.leafOffsetIndexInS;
+      }
+      return true;
+    }
+
+    @Override
+    protected void leave(Node node) {
+      node.leafRangeEnd = size;
+    }
+
+    @Override
+    protected boolean follow(Edge edge) {
+      if (!edge.isWildcardEdge())
+        return true;
+      if (seen.add(edge.getToNode()))
+        roots.add(edge.getToNode());
+      return false;
     }
-    return new ArrayList<Integer>(nodeIndices);
   }
   
   /*
@@ -147,17 +342,22 @@ public class SuffixTree {
       results.add(current);
       return results;
     }
-    Edge e = current.follow(p.getCharAtIndex(start));
-    if (checkMatch(p, start, e, true)) {
-      results.addAll(naiveWildcardQuery(p, start
-          + e.getTextSubstring().length, e.getToNode()));
+    // Wildcard edges are left alone: the tree's own edges already lead to
+    // every match, and the wildcard subtrees would only repeat some. A
+    // wildcard in p tries every edge, so following its code as well would
+    // reach a literal '*' in the text twice.
+    if (!p.getCharAtIndex(start).isWild()) {
+      Edge e = current.follow(p.codeAt(start));
+      if (e != null && !e.isWildcardEdge() && checkMatch(p, start, e, true)) {
+        results.addAll(naiveWildcardQuery(p, start
+            + e.getTextSubstring().length, e.getToNode()));
+      }
+      return results;
     }
     for (Edge next : current.getOutgoingEdges()) {
-      if (p.getCharAtIndex(start).isWild()) {
-        if (checkMatch(p, start, next, true)) {
-          results.addAll(naiveWildcardQuery(p,
-              start + next.getTextSubstring().length, next.getToNode()));
-        }
+      if (!next.isWildcardEdge() && checkMatch(p, start, next, true)) {
+        results.addAll(naiveWildcardQuery(p,
+            start + next.getTextSubstring().length, next.getToNode()));
       }
     }
     return results;
@@ -198,193 +398,142 @@ public class SuffixTree {
   public static class Builder {
     protected Node root;
     private ActivePoint activePoint;
-    private int insertsAtStep;
-    private Node lastInsertedNode;
-    private int prefixStart;
-    int prefixEnd;
-    private int endPosition;
+    // How many suffixes are still waiting to be inserted explicitly.
+    private int remainder;
+    // The end of every open leaf edge; see Edge.
+    private final int[] end;
+    private Construction construction;
 
     private Text inputText;
 
     public Builder(Text inputText) {
+      this(inputText, Construction.UKKONEN);
+    }
+
+    public Builder(Text inputText, Construction construction) {
       root = new Node(null);
+      root.outgoingEdges.indexDirectly();
       activePoint = new ActivePoint(root);
-      insertsAtStep = 0;
-      lastInsertedNode = null;
-      prefixStart = 0;
-      prefixEnd = 0;
-      endPosition = 0;
+      remainder = 0;
+      end = new int[] { 0 };
+      this.construction = construction;
 
       this.inputText = inputText;
     }
 
-    protected int getEndPosition() {
-      return endPosition;
-    }
-
     protected Text getInputText() {
       return inputText;
     }
 
     private void processPrefixes() {
-      for (int i = 0; i < inputText.getLength(); i++) {
-        prefixEnd++;
-        int length = prefixEnd - prefixStart;
-        TextSubstring prefix = new TextSubstring(inputText, prefixStart, length);
-        insertsAtStep = 0;
-        addSubstring(prefix);
-        endPosition++;
-      }
+      extendTo(inputText.getLength());
     }
 
-    private void addSubstring(TextSubstring substr) {
-      if (activePoint.isOnNode())
-        addOntoNode(substr);
-      else if (activePoint.isInsideEdge())
-        addIntoEdge(substr);
-    }
-
-    private void addOntoNode(TextSubstring substr) {
-      AlphabetCharacter lastCharInSubstr = substr.getLastChar();
-
-      Node activeNode = activePoint.getActiveNode();
-      Edge edgeStartingWithLastChar = null;
-      for (Edge outgoingEdge : activeNode.getOutgoingEdges()) {
-        if (outgoingEdge.getTextSubstring().getFirstChar()
-            .equals(lastCharInSubstr)) {
-          edgeStartingWithLastChar = outgoingEdge;
-          break;
-        }
-      }
-
-      if (edgeStartingWithLastChar != null) {
-        // Update suffix links.
-        if (insertsAtStep > 0 && activePoint.getActiveNode() != root) {
-          lastInsertedNode.setSuffixLink(activePoint.getActiveNode());
-          lastInsertedNode = activePoint.getActiveNode();
-        }
-        // Move into middle of this edge.
-        activePoint.updateToMiddleOfOutgoingEdge(edgeStartingWithLastChar);
-      } else {
-        // Add a new edge.
-        Edge edge = new Edge(activeNode, substr.getEndIndex() - 1, this);
-        activeNode.addOutgoingEdge(edge);
-
-        if (prefixStart == prefixEnd)
-          prefixEnd++;
-        prefixStart++;
-        TextSubstring newSubstr = new TextSubstring(inputText, prefixStart,
-            prefixEnd - prefixStart);
-        // activeNode as used below should stay as is, even if activePoint.getActiveNode()
-        // changes with the call immediately below.
-
-        resetWithSuffixLinks(newSubstr);
-        if (insertsAtStep > 0 && activeNode != root) {
-          lastInsertedNode.setSuffixLink(activeNode);
-          lastInsertedNode = activeNode;
-        }
-        if (newSubstr.getStartIndex() < newSubstr.getEndIndex() &&
-            newSubstr.getEndIndex() <= newSubstr.getText().getLength())
-          addSubstring(newSubstr);
+    /*
+     * Runs Ukkonen's algorithm up to text[0, length), carrying on from
+     * wherever it got to last time. The text may have grown in between.
+     */
+    void extendTo(int length) {
+      for (int i = end[0]; i < length; i++) {
+        extend(i);
       }
     }
 
-    protected void resetWithSuffixLinks(TextSubstring currentSubstr) {
-      if (activePoint.getActiveNode() == root
-          && (currentSubstr.getStartIndex() >= currentSubstr.getEndIndex() ||
-          currentSubstr.getEndIndex() > currentSubstr.getText().getLength())) {
-        // Start back at root.
-        activePoint.setActiveEdge(null);
-        activePoint.setActiveLength(0);
-        return;
-      }
+    // How many of the suffixes read so far (the shortest ones) are implicit,
+    // i.e., end inside the tree instead of at a leaf edge.
+    int getRemainder() {
+      return remainder;
+    }
 
-      if (activePoint.getActiveNode() == root) {
-        // Move into edge.
-        AlphabetCharacter substrFirstChar = currentSubstr.getFirstChar();
-        activePoint.setActiveEdge(null);
-        for (Edge outgoingEdge : activePoint.getActiveNode().getOutgoingEdges()) {
-          if (outgoingEdge.getTextSubstring().getFirstChar()
-              .equals(substrFirstChar)) {
-            activePoint.setActiveEdge(outgoingEdge);
+    /*
+     * One phase of Ukkonen's algorithm: extends the tree of text[0, i) to
+     * the tree of text[0, i + 1). Open leaf edges grow by themselves when end
+     * moves, so only the suffixes that are waiting (remainder of them) are
+     * visited, starting from the active point. Nothing is allocated except
+     * the new nodes and edges.
+     */
+    private void extend(int i) {
+      end[0] = i + 1;
+      remainder++;
+      int code = inputText.codeAt(i);
+      Node lastNewNode = null;
+      while (remainder > 0) {
+        if (activePoint.getActiveLength() == 0)
+          activePoint.setActiveEdgeStart(i);
+        Node activeNode = activePoint.getActiveNode();
+        Edge activeEdge = activeNode.follow(
+            inputText.codeAt(activePoint.getActiveEdgeStart()));
+
+        if (activeEdge == null) {
+          // Add a new leaf edge.
+          activeNode.addOutgoingEdge(new Edge(activeNode, inputText, i, end));
+          if (lastNewNode != null) {
+            lastNewNode.setSuffixLink(activeNode);
+            lastNewNode = null;
+          }
+        } else {
+          if (activePoint.walkDown(activeEdge))
+            continue;
+          int activeLength = activePoint.getActiveLength();
+          if (inputText.codeAt(activeEdge.getTextStart() + activeLength) == code) {
+            // The suffix is already in the tree, and so are all shorter ones.
+            if (lastNewNode != null && activeNode != root) {
+              lastNewNode.setSuffixLink(activeNode);
+              lastNewNode = null;
+            }
+            activePoint.setActiveLength(activeLength + 1);
             break;
           }
+          Node newNode = split(activeEdge, activeLength);
+          newNode.addOutgoingEdge(new Edge(newNode, inputText, i, end));
+          if (lastNewNode != null)
+            lastNewNode.setSuffixLink(newNode);
+          lastNewNode = newNode;
         }
 
-        if (activePoint.getActiveLength() > 0)
+        remainder--;
+        if (activeNode == root && activePoint.getActiveLength() > 0) {
           activePoint.setActiveLength(activePoint.getActiveLength() - 1);
-
-        activePoint.moveToActiveEdgeEndpointIfNeeded();
-        activePoint.moveForwardActiveEdge(currentSubstr);
-        return;
-      }
-
-      if (activePoint.getActiveNode().hasSuffixLink()) {
-        // Move active node to suffix link.
-        activePoint.setActiveNode(activePoint.getActiveNode().getSuffixLink());
-        activePoint.updateActiveEdgeAfterNodeChange();
-        activePoint.moveForwardActiveEdge(currentSubstr);
-        return;
+          activePoint.setActiveEdgeStart(i - remainder + 1);
+        } else if (activeNode != root) {
+          activePoint.setActiveNode(activeNode.hasSuffixLink()
+              ? activeNode.getSuffixLink() : root);
+        }
       }
-
-      activePoint.setActiveNode(root);
-      activePoint.updateActiveEdgeAfterNodeChange();
-      activePoint.moveForwardActiveEdge(currentSubstr);
     }
 
-    protected void addIntoEdge(TextSubstring substr) {
-      AlphabetCharacter lastCharInSubstr = substr.getLastChar();
-      AlphabetCharacter charForInsertion = activePoint.getActiveEdge()
-          .getTextSubstring().getIthChar(activePoint.getActiveLength());
-
-      if (lastCharInSubstr.equals(charForInsertion)) {
-        activePoint.setActiveLength(activePoint.getActiveLength() + 1);
-        activePoint.moveToActiveEdgeEndpointIfNeeded();
+    // Splits the edge: edge -> newNode -> lower, where edge keeps the first
+    // length symbols of its label.
+    private Node split(Edge edge, int length) {
+      TextSubstring label = edge.getTextSubstring();
+      Node newNode = new Node(edge);
+      Edge lower;
+      if (edge.textEndsAtTreeEnd()) {
+        lower = new Edge(newNode, inputText, label.getStartIndex() + length, end);
       } else {
-        // Split the edge: activeEdge -> newNode -> newEdge, oldEdge
-        Node newNode = new Node(activePoint.getActiveEdge());
-        Edge newEdge = new Edge(newNode, substr.getEndIndex() - 1, this);
-        newNode.addOutgoingEdge(newEdge);
-        int oldEdgeTextStartIndex = activePoint.getActiveEdge()
-            .getTextSubstring().getStartIndex()
-            + activePoint.getActiveLength();
-        Edge oldEdge = new Edge(newNode, oldEdgeTextStartIndex, this);
-        if (!activePoint.getActiveEdge().textEndsAtTreeEnd()) {
-          oldEdge.setTextSubstring(new TextSubstring(inputText, oldEdgeTextStartIndex,
-              activePoint.getActiveEdge().getTextSubstring().getEndIndex() -
-              oldEdgeTextStartIndex));
-        }
-        oldEdge.setToNode(activePoint.getActiveEdge().getToNode());
-        if (activePoint.getActiveEdge() != null && activePoint.getActiveEdge().getToNode() != null)
-          activePoint.getActiveEdge().getToNode().setIncomingEdge(oldEdge);
-        newNode.addOutgoingEdge(oldEdge);
-        activePoint.getActiveEdge().setToNode(newNode);
-        activePoint.getActiveEdge().setTextSubstring(
-            new TextSubstring(inputText, activePoint.getActiveEdge()
-                .getTextSubstring().getStartIndex(), activePoint
-                .getActiveLength()));
-
-        if (insertsAtStep > 0)
-          lastInsertedNode.setSuffixLink(newNode);
-        lastInsertedNode = newNode;
-        insertsAtStep++;
-
-        if (prefixStart == prefixEnd)
-          prefixEnd++;
-        prefixStart++;
-        TextSubstring newSubstr = new TextSubstring(inputText, prefixStart,
-            prefixEnd - prefixStart);
-        resetWithSuffixLinks(newSubstr);
-
-        if (newSubstr.getStartIndex() < newSubstr.getEndIndex())
-          addSubstring(newSubstr);
+        lower = new Edge(newNode, new TextSubstring(inputText,
+            label.getStartIndex() + length, label.getLength() - length));
       }
+      lower.setToNode(edge.getToNode());
+      if (edge.getToNode() != null)
+        edge.getToNode().setIncomingEdge(lower);
+      newNode.addOutgoingEdge(lower);
+      edge.truncate(length);
+      edge.setToNode(newNode);
+      return newNode;
     }
 
     public SuffixTree build() {
-      processPrefixes();
-      //root.removeEndCharEdge();
-      root.sortEdgesAndPutNodesAtLeaves(0, new int[] { 0 });
+      if (construction == Construction.SUFFIX_ARRAY) {
+        SuffixArrayConstruction.build(inputText, root);
+      } else if (construction == Construction.PARALLEL) {
+        SuffixArrayConstruction.buildInParallel(inputText, root,
+            Runtime.getRuntime().availableProcessors());
+      } else {
+        processPrefixes();
+        //root.removeEndCharEdge();
+        root.sortEdgesAndPutNodesAtLeaves(0, new int[] { 0 });
+      }
       return new SuffixTree(this);
     }
 
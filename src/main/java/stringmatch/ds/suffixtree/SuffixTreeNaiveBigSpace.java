@@ -1,10 +1,12 @@
 package stringmatch.ds.suffixtree;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import stringmatch.ds.text.AlphabetCharacter;
 import stringmatch.ds.text.Text;
+import stringmatch.ds.util.MatchVisitor;
 import stringmatch.ds.util.Pair;
 
 public class SuffixTreeNaiveBigSpace extends SuffixTreeWithWildcards {
@@ -22,10 +24,19 @@ public class SuffixTreeNaiveBigSpace extends SuffixTreeWithWildcards {
    */
   public List<Integer> queryForIndices(Text p) {
     Pair<Node, Integer> pair = query(p);
-    if (pair == null)
-      return new ArrayList<Integer>();
-    else
-      return pair.getLeft().getOffsetIndicesOfLeaves();
+    List<Integer> indices = new ArrayList<Integer>();
+    if (pair != null)
+      addLeafOffsets(pair.getLeft(), indices);
+    return indices;
+  }
+  
+  /*
+   * Same as queryForIndices, but hands each match to visitor instead of
+   * making a list of them. Returns false if visitor stopped it.
+   */
+  public boolean queryForIndices(Text p, MatchVisitor visitor) {
+    Pair<Node, Integer> pair = query(p);
+    return pair == null || visitLeafOffsets(pair.getLeft(), visitor);
   }
   
   /*
@@ -81,38 +92,54 @@ public class SuffixTreeNaiveBigSpace extends SuffixTreeWithWildcards {
     public Builder(Text inputText, int k) {
       super(inputText, k);
     }
+
+    public Builder(Text inputText, int k, Construction construction) {
+      super(inputText, k, construction);
+    }
     
-    protected static void addWildcardSubtreesAt(Node node, int k) {   
-      if (node.isLeaf || k <= 0)
-        return;
-      
-      // Make the wildcard subtree to be attached to node.
-      Node nodeClone = node.clone();
-      if (!(nodeClone.outgoingEdges.size() == 1 &&
-          nodeClone.outgoingEdges.get(0).getTextSubstring().getFirstChar().
-          equals(AlphabetCharacter.END_CHAR))) {
-        // There's a special case in which nodeClone has just one outgoing edge,
-        // which is '$'. We don't want to turn this edge into a wildcard because
-        // otherwise wildcards could match for '$', which isn't really in the
-        // input text.
-        
-        SuffixTreeWithWildcards wildcardSubtree
-            = new SuffixTreeNaiveBigSpace(nodeClone);
-        nodeClone = turnIntoWildcardSubtree(wildcardSubtree);
+    protected static void addWildcardSubtreesAt(Node node, final int k) {
+      // Wildcard subtrees are added top-down, so that the walk goes on into
+      // the one just added to n and adds wildcard subtrees to it as well.
+      new TreeWalker() {
+        // The number of wildcards left at each node on the current path.
+        private int[] ks = new int[32];
 
-        // Attach nodeClone onto node. nodeClone should have just one outgoing
-        // edge: the wildcard edge.
-        Edge wildcardEdge = nodeClone.outgoingEdges.get(0);
-        wildcardEdge.fromNode = node;
-        node.addOutgoingEdge(wildcardEdge);
-      
-        // Recursively add wildcard subtrees.
-        for (Edge edge : node.outgoingEdges) {
-          // Recursively add them to the new wildcard subtree as well.
-          int newK = edge.isWildcardEdge() ? k - 1 : k;
-          addWildcardSubtreesAt(edge.getToNode(), newK);
+        @Override
+        protected boolean enter(Node n) {
+          int d = depth();
+          if (d == ks.length)
+            ks = Arrays.copyOf(ks, 2 * d);
+          ks[d] = d == 0 ? k : ks[d - 1] - (edge().isWildcardEdge() ? 1 : 0);
+          if (n.isLeaf || ks[d] <= 0)
+            return false;
+          return addWildcardSubtree(n);
         }
-      }
+
+        // Returns whether n got a wildcard subtree.
+        private boolean addWildcardSubtree(Node n) {
+          Node nodeClone = n.clone();
+          if (nodeClone.outgoingEdges.size() == 1 &&
+              nodeClone.outgoingEdges.get(0).getTextSubstring().getFirstChar().
+              equals(AlphabetCharacter.END_CHAR)) {
+            // There's a special case in which nodeClone has just one outgoing
+            // edge, which is '$'. We don't want to turn this edge into a
+            // wildcard because otherwise wildcards could match for '$', which
+            // isn't really in the input text.
+            return false;
+          }
+
+          SuffixTreeWithWildcards wildcardSubtree
+              = new SuffixTreeNaiveBigSpace(nodeClone);
+          nodeClone = turnIntoWildcardSubtree(wildcardSubtree);
+
+          // Attach nodeClone onto n. nodeClone should have just one outgoing
+          // edge: the wildcard edge.
+          Edge wildcardEdge = nodeClone.outgoingEdges.get(0);
+          wildcardEdge.fromNode = n;
+          n.addOutgoingEdge(wildcardEdge);
+          return true;
+        }
+      }.walk(node);
     }
     
     public SuffixTreeNaiveBigSpace build() {
@@ -1,12 +1,17 @@
 package stringmatch.ds.suffixtree;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
 
+import stringmatch.ds.text.Alphabet;
 import stringmatch.ds.text.AlphabetCharacter;
 import stringmatch.ds.text.Text;
+import stringmatch.ds.text.TextSubstring;
+import stringmatch.ds.util.MatchSet;
+import stringmatch.ds.util.MatchVisitor;
 import stringmatch.ds.util.Pair;
 import stringmatch.ds.yfasttrie.YFastTrie;
 import stringmatch.ds.yfasttrie.cuckoohash.CuckooHashMap;
@@ -16,11 +21,10 @@ import stringmatch.ds.yfasttrie.cuckoohash.CuckooHashMap;
  */
 public class SuffixTreeWithCPD extends SuffixTreeWithWildcards {
   
-  private List<Pair<Integer, Node>> LCAOrder;
-  CuckooHashMap<Integer, CuckooHashMap<Integer, Integer>> LCATable;
-  
-  // Used or MA queries
-  CuckooHashMap<Node, CuckooHashMap<Integer, Pair<Node, Integer>>> MATable;
+  List<Pair<Integer, Node>> LCAOrder;
+  // LCATable[t][i] is the index of the minimum of LCAOrder between i and
+  // i + 2^t (inclusive), a sparse table for RMQ.
+  int[][] LCATable;
   
 
   // The depth of this wildcard subtree starting from the root of the original
@@ -31,13 +35,21 @@ public class SuffixTreeWithCPD extends SuffixTreeWithWildcards {
   // order.
   protected CuckooHashMap<Integer, Integer> offsetToLexicographicIndexInS;
   
-  // Y-Fast tries for leaf lexicographic indices (in T).
-  protected YFastTrie<Node> leafLexicographicIndices;
+  // Y-Fast tries for leaf lexicographic indices (in T). A loaded tree (see
+  // TreeSnapshot) only has the pairs to make it from, in leafIndexPairs,
+  // until the first query that needs it. Volatile, so that a trie made
+  // during a query is seen whole by other threads.
+  protected volatile YFastTrie<Node> leafLexicographicIndices;
+  protected List<Pair<Integer, Node>> leafIndexPairs;
   
   // Mapping from lexicographic index of leaves to the leaf node.
   // (This is only computed for the original suffix tree S.)
   protected CuckooHashMap<Integer, Node> lexicographicIndexToLeafInS;
   
+  // Set when the input text has fingerprints (see Text.computeFingerprints()),
+  // in which case subqueries get them too.
+  protected boolean fingerprintSubqueries;
+  
   public SuffixTreeWithCPD(Node root) {
     super(root);
   }
@@ -46,22 +58,40 @@ public class SuffixTreeWithCPD extends SuffixTreeWithWildcards {
     super(builder.root);
   }
   
+  /*
+   * Writes the tree, with its wildcard subtrees and query tables, to file
+   * (see TreeSnapshot for the format), so that later runs can load() it
+   * instead of building it again.
+   */
+  public void save(File file) throws IOException {
+    TreeSnapshot.write(this, file);
+  }
+  
+  /*
+   * Loads a tree written by save(). This reads the file in one pass and
+   * builds nothing, so it takes a fraction of the time the Builder does.
+   */
+  public static SuffixTreeWithCPD load(File file) throws IOException {
+    return TreeSnapshot.read(file);
+  }
+  
   // Determines and sets leafOffsetIndexInT and leafLexicographicIndexInT.
   public void determineLeafValuesInSubtree() {
     determineLeafValuesInSubtree(root);
   }
   
   protected void determineLeafValuesInSubtree(Node node) {
-    if (node.isLeaf()) {
-      node.leafOffsetIndexInT = node.leafOffsetIndexInS + subtreeDepth;
-      node.leafLexicographicIndexInT = offsetToLexicographicIndexInS.
-          get(node.leafOffsetIndexInT);
-      return;
-    }
-    
-    for (Edge outgoingEdge : node.getOutgoingEdges()) {
-      determineLeafValuesInSubtree(outgoingEdge.getToNode());
-    }
+    new TreeWalker() {
+      @Override
+      protected boolean enter(Node n) {
+        if (n.isLeaf()) {
+          n.leafOffsetIndexInT = n.leafOffsetIndexInS + subtreeDepth;
+          n.leafLexicographicIndexInT = offsetToLexicographicIndexInS.
+              get(n.leafOffsetIndexInT);
+        }
+        return true;
+      }
+    }.walk(node);
   }
   
   protected void constructLeafLexicographicIndexYFT() {
@@ -72,20 +102,32 @@ public class SuffixTreeWithCPD extends SuffixTreeWithWildcards {
   
   protected List<Pair<Integer, Node>> constructLeafIndexArray(
       Node node) {
-    List<Pair<Integer, Node>> leaves =
+    final List<Pair<Integer, Node>> leaves =
         new ArrayList<Pair<Integer, Node>>();
-    if (node.isLeaf) {
-      leaves.add(new Pair<Integer, Node>(node.leafLexicographicIndexInT, node));
-      return leaves;
-    }
-    
-    for (Edge edge : node.getOutgoingEdges()) {
-      leaves.addAll(constructLeafIndexArray(edge.getToNode()));
-    }
-    
+    new TreeWalker() {
+      @Override
+      protected boolean enter(Node n) {
+        if (n.isLeaf) {
+          leaves.add(new Pair<Integer, Node>(n.leafLexicographicIndexInT, n));
+          return false;
+        }
+        return true;
+      }
+    }.walk(node);
     return leaves;
   }
   
+  protected YFastTrie<Node> getLeafLexicographicIndices() {
+    YFastTrie<Node> trie = leafLexicographicIndices;
+    if (trie == null && leafIndexPairs != null) {
+      // The builder sorts its input, so give it a copy.
+      trie = new YFastTrie.Builder<Node>().buildFromPairs(
+          new ArrayList<Pair<Integer, Node>>(leafIndexPairs));
+      leafLexicographicIndices = trie;
+    }
+    return trie;
+  }
+  
   // Returns the node in S with the same string as leaf, where leaf's
   // string is considered to be from the root of the wildcard subtree
   // containing leaf down to leaf.
@@ -93,34 +135,44 @@ public class SuffixTreeWithCPD extends SuffixTreeWithWildcards {
     return lexicographicIndexToLeafInS.get(leaf.leafLexicographicIndexInT);
   }
   
-  protected void constructNodeDepths(Node node, int height) {
-    node.depthInSubtree = height;
-    for (Edge outgoingEdge : node.getOutgoingEdges()) {
-      int outgoingEdgeHeight = outgoingEdge.getTextSubstring().getLength();
-      constructNodeDepths(outgoingEdge.getToNode(), outgoingEdgeHeight + height);
-    }
+  protected void constructNodeDepths(Node node, final int height) {
+    new TreeWalker() {
+      @Override
+      protected boolean enter(Node n) {
+        n.depthInSubtree = height + stringDepth();
+        return true;
+      }
+    }.walk(node);
   }
   
   public void constructLCAAndMA() {
     LCAOrder = eulerTour();
     LCATable = buildLCATable();
-    MATable = buildMATable();
-    computeHeights();
+    buildMATable();
+    computeHeightsAndLeftAndRightLeaves();
     buildLongPaths();
     extendLadders();
-    setLeftAndRightLeaves();
     setRootPointers();
   }
   
-  private void setLeftAndRightLeaves() {
-    setLeftAndRightLeaves(root);
-  }
+
   
-  private void setLeftAndRightLeaves(Node n) {
-    if (!n.isLeaf()) {
-      for (Edge e: n.outgoingEdges) {
-        setLeftAndRightLeaves(e.getToNode());
+
+
+  // Both computeHeights() and setLeftAndRightLeaves() only need the node's
+  // children to be done, so they share one post-order walk.
+  private void computeHeightsAndLeftAndRightLeaves() {
+    new TreeWalker() {
+      @Override
+      protected void leave(Node node) {
+        computeHeightFromChildren(node);
+        setLeftAndRightLeavesFromChildren(node);
       }
+    }.walk(root);
+  }
+
+  private static void setLeftAndRightLeavesFromChildren(Node n) {
+    if (!n.isLeaf()) {
       Node leftChild = n.followLeft().getToNode();
       n.leftMost = leftChild.leftMost;
       Node rightChild = n.followRight().getToNode();
@@ -137,15 +189,19 @@ public class SuffixTreeWithCPD extends SuffixTreeWithWildcards {
   }
   
   private void setRootPointers(Node n) {
-    if (!n.isLeaf()) {
-      for (Edge e: n.outgoingEdges) {
-        if (!e.isWildcardEdge()) {
-          Node child = e.getToNode();
-          child.rootPointer = n.rootPointer;
-          setRootPointers(child);
-        }
+    new TreeWalker() {
+      @Override
+      protected boolean enter(Node node) {
+        if (parent() != null)
+          node.rootPointer = parent().rootPointer;
+        return true;
       }
-    }
+
+      @Override
+      protected boolean follow(Edge e) {
+        return !e.isWildcardEdge();
+      }
+    }.walk(n);
   }
   
   /*
@@ -153,14 +209,10 @@ public class SuffixTreeWithCPD extends SuffixTreeWithWildcards {
    */
   private Integer lengthOfMatch(Text p, int start, Edge e) {
     if (e != null) {
-      for (int i = 0; i < Math.min(e.getTextSubstring().length, p.getLength() - start); i++) {
-        AlphabetCharacter nextOnEdge = e.getTextSubstring().getIthChar(i);
-        AlphabetCharacter nextInPattern = p.getCharAtIndex(i + start);
-        if (!nextOnEdge.equals(nextInPattern)) {
-          return i;
-        }
-      }
-      return Math.min(e.getTextSubstring().length, p.getLength() - start);
+      TextSubstring edgeSubstring = e.getTextSubstring();
+      int maxLength = Math.min(edgeSubstring.length, p.getLength() - start);
+      return edgeSubstring.getText().commonPrefixLength(edgeSubstring.start,
+          p, start, maxLength);
     }
     return 0;
   }
@@ -178,7 +230,7 @@ public class SuffixTreeWithCPD extends SuffixTreeWithWildcards {
     if (start >= p.getLength()) {
       return new Pair<Node, Integer>(current, start - p.getLength());
     }
-    Edge e = current.follow(p.getCharAtIndex(start));
+    Edge e = current.follow(p.codeAt(start));
     int length = lengthOfMatch(p, start, e);
     if (e != null) {
       if (length == e.getLength()) {
@@ -231,24 +283,26 @@ public class SuffixTreeWithCPD extends SuffixTreeWithWildcards {
   }
   
   protected Text constructHighestOverlap(Pair<Node, Integer> highestOverlapPoint) {
-    List<String> strs = new ArrayList<String>();
+    List<TextSubstring> labels = new ArrayList<TextSubstring>();
     Node current = highestOverlapPoint.getLeft();
     Edge e = current.incomingEdge;
     if (e != null) {
-      strs.add(e.toString().substring(0, e.getLength() + highestOverlapPoint.getRight()));
+      labels.add(e.getTextSubstring().substring(0,
+          e.getLength() + highestOverlapPoint.getRight()));
     }
     while (e != null) {
       current = e.getFromNode();
       e = current.incomingEdge;
       if (e != null) {
-        strs.add(e.toString()); 
+        labels.add(e.getTextSubstring()); 
       }
     }
-    StringBuilder sb = new StringBuilder();
-    for (int i = strs.size() - 1; i >= 0; i--) {
-      sb.append(strs.get(i));
+    Text.Builder tb = new Text.Builder(highestOverlapPoint.getLeft() == root
+        ? Text.Encoding.CHARACTERS : labels.get(0).getText().getEncoding());
+    for (int i = labels.size() - 1; i >= 0; i--) {
+      tb.addTextSubstring(labels.get(i));
     }
-    return new Text(sb.toString(), false);
+    return tb.build();
   }
   
   /*
@@ -259,59 +313,70 @@ public class SuffixTreeWithCPD extends SuffixTreeWithWildcards {
     return eulerTour(0, root);
   }
 
-  protected List<Pair<Integer, Node>> eulerTour(int depth, Node start) {
-    Pair<Integer, Node> pair = new Pair<Integer, Node>(depth, start);
-    List<Pair<Integer, Node>> order = new ArrayList<Pair<Integer, Node>>();
-    order.add(pair);
-    if (!start.isLeaf()) {
-      for (int i = 0; i < start.numChildren(); i++) {
-        if (!start.outgoingEdges.get(i).isWildcardEdge()) {
-          List<Pair<Integer, Node>> l = eulerTour(depth + 1, start.getChild(i));
-          order.addAll(l);
-          order.add(pair);
-        }
+  protected List<Pair<Integer, Node>> eulerTour(final int depth, Node start) {
+    final List<Pair<Integer, Node>> order = new ArrayList<Pair<Integer, Node>>();
+    // The pair for each node on the current path, to repeat for the parent
+    // after each child.
+    final List<Pair<Integer, Node>> path = new ArrayList<Pair<Integer, Node>>();
+    new TreeWalker() {
+      @Override
+      protected boolean enter(Node node) {
+        Pair<Integer, Node> pair = new Pair<Integer, Node>(depth + depth(), node);
+        path.add(pair);
+        order.add(pair);
+        return true;
       }
-    }
-    return order;
-  }
-  
-  /*
-   * Find the minimum of LCAOrder between indices start and end. Takes time
-   * O(len(LCAOrder)), should only be used for pre-processing.
-   */
-  private int findMin(int start, int end) {
-    int min = LCAOrder.get(start).getLeft();
-    int index = start;
-    for (int i = start + 1; i <= end; i++) {
-      int val = LCAOrder.get(i).getLeft();
-      if (val < min) {
-        min = val;
-        index = i;
+
+      @Override
+      protected void leave(Node node) {
+        path.remove(path.size() - 1);
+        if (!path.isEmpty())
+          order.add(path.get(path.size() - 1));
       }
-    }
-    return index;
+
+      @Override
+      protected boolean follow(Edge e) {
+        return !e.isWildcardEdge();
+      }
+    }.walk(start);
+    return order;
   }
   
   /*
    * Build the look-up table used for LCA. For each index in LCAOrder, the table stores
    * the index of the minimum element between that index and the index 2^i to the right,
-   * for all values of i.
+   * for all values of i. Each level is made from the one below it, since the range of
+   * 2^i is covered by two ranges of 2^(i-1) (the first minimum wins ties).
    */
-  private CuckooHashMap<Integer, CuckooHashMap<Integer, Integer>> buildLCATable() {
-    CuckooHashMap<Integer, CuckooHashMap<Integer, Integer>> table =
-        new CuckooHashMap<Integer, CuckooHashMap<Integer, Integer>>();
-    for (int index = 0; index < LCAOrder.size(); index++) {
-      CuckooHashMap<Integer, Integer> inner = new CuckooHashMap<Integer, Integer>();
-      for (int i = 1; i < log2(LCAOrder.size()); i++) {
-        int end = Math.min(LCAOrder.size() - 1, (int) Math.pow(2, i) + index);
-        inner.put((int) Math.pow(2, i), findMin(index, end));
+  private int[][] buildLCATable() {
+    int size = LCAOrder.size();
+    int levels = 1;
+    while (levels < log2(size)) {
+      levels++;
+    }
+    int[][] table = new int[levels][size];
+    for (int index = 0; index < size; index++) {
+      table[0][index] = lowerDepth(index, Math.min(size - 1, index + 1));
+    }
+    for (int i = 1; i < levels; i++) {
+      int half = 1 << (i - 1);
+      for (int index = 0; index < size; index++) {
+        table[i][index] = lowerDepth(table[i - 1][index],
+            table[i - 1][Math.min(size - 1, index + half)]);
       }
-      table.put(index, inner);
     }
     updateIndices();
     return table;
   }
   
+  // Whichever of two indices of LCAOrder has the lower depth, or the first
+  // if they're the same.
+  private int lowerDepth(int first, int second) {
+    if (LCAOrder.get(second).getLeft() < LCAOrder.get(first).getLeft())
+      return second;
+    return first;
+  }
+  
   /*
    * Make sure each node in the tree has a pointer to its first reference in LCAOrder
    */
@@ -340,8 +405,9 @@ public class SuffixTreeWithCPD extends SuffixTreeWithWildcards {
       min1 = i;
       min2 = j;
     } else {
-      min1 = LCATable.get(i).get(width);
-      min2 = LCATable.get(j - width).get(width);
+      int level = Integer.numberOfTrailingZeros(width);
+      min1 = LCATable[level][i];
+      min2 = LCATable[level][j - width];
     }
     if (LCAOrder.get(min1).getLeft() <= LCAOrder.get(min2).getLeft()) {
       return min1;
@@ -364,47 +430,40 @@ public class SuffixTreeWithCPD extends SuffixTreeWithWildcards {
   
   /*
    * Build the look-up table used for MA (implementing jump pointers). For each node in the graph,
-   * the table stores the point 2^i steps above. It stores the point as a pair, where the first element
-   * is either this point or the node above this point if the point appears on the edge. The second
-   * element represents the distance that that point occurs below the node.
+   * the table stores the point 2^i steps above, as node.jumps[i]. That's either this point or
+   * the node above this point if the point appears on the edge (MA() only needs the node).
    */
-  private CuckooHashMap<Node, CuckooHashMap<Integer, Pair<Node, Integer>>> buildMATable() {
-    CuckooHashMap<Node, CuckooHashMap<Integer, Pair<Node, Integer>>> table =
-        new CuckooHashMap<Node, CuckooHashMap<Integer, Pair<Node, Integer>>>();
-    buildMATable(root, table);
-    return table;
+  private void buildMATable() {
+    new TreeWalker() {
+      @Override
+      protected boolean enter(Node n) {
+        if (edge() != null)
+          n.jumps = buildJumps(n);
+        return true;
+      }
+    }.walk(root);
   }
   
-  private void buildMATable(Node node, CuckooHashMap<Node, CuckooHashMap<Integer, Pair<Node, Integer>>> table) {
-    for (Edge e: node.outgoingEdges) {
-      Node n = e.getToNode();
-      CuckooHashMap<Integer, Pair<Node, Integer>> inner = buildInnerMATable(n);
-      table.put(n, inner);
-      buildMATable(n, table);
+  private static Node[] buildJumps(Node node) {
+    int textSize = node.incomingEdge.getTextSubstring().getText().getSize();
+    int levels = 0;
+    while (levels < log2(textSize)) {
+      levels++;
     }
-  }
-  
-  private CuckooHashMap<Integer, Pair<Node, Integer>> buildInnerMATable(Node node) {
-    CuckooHashMap<Integer, Pair<Node, Integer>> inner = new CuckooHashMap<Integer, Pair<Node, Integer>>();
-    for (int i = 0; i < log2(node.incomingEdge.getTextSubstring().getText().getSize()); i++) {
-      int jump = (int) Math.pow(2, i);
+    Node[] jumps = new Node[levels];
+    for (int i = 0; i < levels; i++) {
+      int jump = 1 << i;
       int k = 0;
       Node current = node;
       while (k < jump && current.incomingEdge != null) {
-        Edge edge = current.incomingEdge;
-        if (edge != null) {
-          k += current.incomingEdge.getTextSubstring().getLength();
-          if (k <= jump) {
-            current = current.incomingEdge.getFromNode();
-          }
-        } else {
-          break;
+        k += current.incomingEdge.getTextSubstring().getLength();
+        if (k <= jump) {
+          current = current.incomingEdge.getFromNode();
         }
       }
-      int diff = Math.min(0, jump - k);
-      inner.put(jump, new Pair<Node, Integer>(current, diff));
+      jumps[i] = current;
     }
-    return inner;
+    return jumps;
   }
   
   /*
@@ -415,19 +474,27 @@ public class SuffixTreeWithCPD extends SuffixTreeWithWildcards {
   }
   
   public int computeHeights(Node node) {
+    new TreeWalker() {
+      @Override
+      protected void leave(Node n) {
+        computeHeightFromChildren(n);
+      }
+    }.walk(node);
+    return node.maxHeight;
+  }
+
+  private static void computeHeightFromChildren(Node node) {
     if (node.isLeaf()) {
       node.maxHeight = 0;
     } else {
       for (Edge e: node.outgoingEdges) {
-        Node child = e.getToNode();
-        int childHeight = computeHeights(child);
+        int childHeight = e.getToNode().maxHeight;
         if (childHeight + e.getLength() > node.maxHeight) {
           node.maxHeight = childHeight + e.getLength();
           node.longPathEdge = e;
         }
       }
     }
-    return node.maxHeight;
   }
   
   /*
@@ -438,15 +505,28 @@ public class SuffixTreeWithCPD extends SuffixTreeWithWildcards {
     buildLongPaths(root);
   }
   
-  public void buildLongPaths(Node node) {
+  public void buildLongPaths(final Node node) {
+    // Each node that isn't on its parent's long path starts a new one, which
+    // follows longPathEdge all the way down.
+    new TreeWalker() {
+      @Override
+      protected boolean enter(Node n) {
+        if (n == node || edge() != parent().longPathEdge)
+          buildLongPathFrom(n);
+        return true;
+      }
+
+      @Override
+      protected boolean follow(Edge e) {
+        return !e.isWildcardEdge() || e == e.getFromNode().longPathEdge;
+      }
+    }.walk(node);
+  }
+
+  private static void buildLongPathFrom(Node node) {
     Path path = new Path();
     Node current = node;
     while (current != null) {
-      for (Edge e: current.outgoingEdges) {
-        if (e!= current.longPathEdge && !e.isWildcardEdge()) {
-          buildLongPaths(e.getToNode());
-        }
-      }
       int height = path.addNode(current);
       current.ladder = new Pair<Integer, Path>(height, path);
       Edge e = current.longPathEdge;
@@ -466,6 +546,21 @@ public class SuffixTreeWithCPD extends SuffixTreeWithWildcards {
   }
   
   public void extendLadders(Node node) {
+    new TreeWalker() {
+      @Override
+      protected boolean enter(Node n) {
+        extendLadder(n);
+        return true;
+      }
+
+      @Override
+      protected boolean follow(Edge e) {
+        return !e.isWildcardEdge();
+      }
+    }.walk(node);
+  }
+
+  private static void extendLadder(Node node) {
     Path path = node.ladder.getRight();
     int nodeHeight;
     if (node.incomingEdge == null) {
@@ -487,12 +582,6 @@ public class SuffixTreeWithCPD extends SuffixTreeWithWildcards {
       }
       path.buildYFastTrie();
     }
-    for (Edge e: node.outgoingEdges) {
-      if (!e.isWildcardEdge()) {
-        extendLadders(e.getToNode());
-      }
-    }
-
   }
   
   /*
@@ -506,48 +595,37 @@ public class SuffixTreeWithCPD extends SuffixTreeWithWildcards {
       return new Pair<Node, Integer>(node, 0);
     }
     int jump = (int) Math.pow(2, Math.floor(log2(k)));
-    Pair<Node, Integer> res = MATable.get(node).get(jump);
-    int diff = node.depthInSubtree - res.getLeft().depthInSubtree;
+    Node above = node.jumps[Integer.numberOfTrailingZeros(jump)];
+    int diff = node.depthInSubtree - above.depthInSubtree;
     // We've already made it up at least k
     if (diff > k) {
       throw new RuntimeException("Something may be wrong with MA");
-      //return new Pair<Node, Integer>(res.getLeft(), res.getRight() - (jump - k));
     // Otherwise we need to look up in a ladder
     } else {
-      Path ladder = res.getLeft().ladder.getRight();
+      Path ladder = above.ladder.getRight();
       int rem = k - diff;
-      return ladder.jump(res.getLeft().maxHeight, rem);
+      return ladder.jump(above.maxHeight, rem);
     }
     
   }
 
   protected boolean checkMatch(Text p, int start, Edge e, int offset) {
     if (e != null) {
-      for (int i = 0; i < Math.min(e.getTextSubstring().length - offset, p.getLength()
-          - start); i++) {
-        AlphabetCharacter nextOnEdge = e.getTextSubstring().getIthChar(i + offset);
-        AlphabetCharacter nextInPattern = p.getCharAtIndex(start + i);
-        if (!nextOnEdge.equals(nextInPattern)) {
-            return false;
-        }
-      }
-      return true;
+      TextSubstring edgeSubstring = e.getTextSubstring();
+      int maxLength = Math.min(edgeSubstring.length - offset, p.getLength()
+          - start);
+      return edgeSubstring.getText().regionEquals(
+          edgeSubstring.start + offset, p, start, maxLength);
     }
     return false;
   }
   
   public List<Integer> slowSmartQueryIndices(Text p) {
-    List<Pair<Node, Integer>> nodes = slowSmartQuery(p);
-    Set<Integer> nodeIndices = new HashSet<Integer>();
-    for (Pair<Node, Integer> pair : nodes) {
-      Node node = pair.getLeft();
-      nodeIndices.addAll(node.getOffsetIndicesOfLeaves());
-    }
-    return new ArrayList<Integer>(nodeIndices);
+    return leafOffsetsBelow(matchedNodes(slowSmartQuery(p)));
   }
   
   protected List<Pair<Node, Integer>> slowSmartQuery(Text p) {
-    List<Text> subQueries = breakQuery(p);
+    List<Text> subQueries = breakQuery(p, fingerprintSubqueries);
     Text query = subQueries.get(0);
     Pair<Node, Integer> prev = slowRootedLCP(query);
     if (subQueries.size() > 1) {
@@ -604,17 +682,55 @@ public class SuffixTreeWithCPD extends SuffixTreeWithWildcards {
   }
   
   public List<Integer> smartQueryIndices(Text p) {
-    List<Pair<Node, Integer>> nodes = smartQuery(p);
-    Set<Integer> nodeIndices = new HashSet<Integer>();
-    for (Pair<Node, Integer> pair : nodes) {
-      Node node = pair.getLeft();
-      nodeIndices.addAll(node.getOffsetIndicesOfLeaves());
+    return leafOffsetsBelow(matchedNodes(smartQuery(p)));
+  }
+  
+  /*
+   * Same as smartQueryIndices, but hands each match to visitor instead of
+   * making a list of them. Returns false if visitor stopped it.
+   */
+  public boolean smartQueryIndices(Text p, MatchVisitor visitor) {
+    for (Node node : matchedNodes(smartQuery(p))) {
+      if (!visitLeafOffsets(node, visitor))
+        return false;
+    }
+    return true;
+  }
+  
+  /*
+   * Same as smartQueryIndices, but as a MatchSet, in text order and without
+   * boxing.
+   */
+  public MatchSet smartQueryMatches(Text p) {
+    return leafOffsetMatches(matchedNodes(smartQuery(p)));
+  }
+  
+  // The number of occurrences of p, which may contain up to k wildcards.
+  public int smartQueryCount(Text p) {
+    int count = 0;
+    for (Node node : matchedNodes(smartQuery(p))) {
+      count += countLeaves(node);
     }
-    return new ArrayList<Integer>(nodeIndices);
+    return count;
+  }
+  
+  /*
+   * The nodes below which the matches are. They come from this tree and
+   * its wildcard subtrees, whose leaves are all numbered together in this
+   * tree's getLeafOffsets(), and no match is below two of them: a query
+   * goes either into a node's wildcard subtree, which leaves out the
+   * centroid child, or down the centroid edge.
+   */
+  private static List<Node> matchedNodes(List<Pair<Node, Integer>> matches) {
+    List<Node> nodes = new ArrayList<Node>(matches.size());
+    for (Pair<Node, Integer> match : matches) {
+      nodes.add(match.getLeft());
+    }
+    return nodes;
   }
   
   protected List<Pair<Node, Integer>> smartQuery(Text p) {
-    List<Text> subQueries = breakQuery(p);
+    List<Text> subQueries = breakQuery(p, fingerprintSubqueries);
     List<Integer> queryIndices = new ArrayList<Integer>();
     List<Integer> overlapHeights = new ArrayList<Integer>();
     List<Node> ssps = new ArrayList<Node>();
@@ -709,11 +825,12 @@ public class SuffixTreeWithCPD extends SuffixTreeWithWildcards {
     if (queryIndex == -1) {
       return new Pair<Node, Integer>(prevNode.rootPointer, 0);
     }
-    if (leafLexicographicIndices.hasKey(queryIndex)) {
+    YFastTrie<Node> leafIndices = getLeafLexicographicIndices();
+    if (leafIndices.hasKey(queryIndex)) {
       throw new RuntimeException("Query index in predecessor");
     }
-    Pair<Integer, Node> pred = leafLexicographicIndices.predecessor(queryIndex);
-    Pair<Integer, Node> succ = leafLexicographicIndices.successor(queryIndex);
+    Pair<Integer, Node> pred = leafIndices.predecessor(queryIndex);
+    Pair<Integer, Node> succ = leafIndices.successor(queryIndex);
     
     if (pred == null && succ == null) {
       throw new RuntimeException("Predecessor and Successor both null");
@@ -775,19 +892,30 @@ public class SuffixTreeWithCPD extends SuffixTreeWithWildcards {
   }
   
   public static List<Text> breakQuery(Text p) {
+    return breakQuery(p, false);
+  }
+  
+  /*
+   * Splits p at its wildcards. If withFingerprints is set, each subquery gets
+   * its prefix fingerprints, so that checkMatch can compare it against an
+   * edge of a fingerprinted text in constant time.
+   */
+  public static List<Text> breakQuery(Text p, boolean withFingerprints) {
     List<Text> subQueries = new ArrayList<Text>();
-    int start = 0;
-    int len = 0;
+    Text.Builder current = new Text.Builder(p.getEncoding());
     for (int i = 0; i < p.getSize(); i++) {
-      if (p.getCharAtIndex(i).equals(AlphabetCharacter.WILDCARD)) {
-        subQueries.add(new Text(p.toString().substring(start, start + len), false));
-        start = i + 1;
-        len = 0;
+      if (p.codeAt(i) == Alphabet.WILDCARD_CODE) {
+        subQueries.add(current.build());
       } else {
-        len += 1;
+        current.addCode(p.codeAt(i));
+      }
+    }
+    subQueries.add(current.build());
+    if (withFingerprints) {
+      for (Text subQuery : subQueries) {
+        subQuery.computeFingerprints();
       }
     }
-    subQueries.add(new Text(p.toString().substring(start, start + len), false));
     return subQueries;
   }
   
@@ -795,90 +923,106 @@ public class SuffixTreeWithCPD extends SuffixTreeWithWildcards {
     
     public Builder(Text inputText, int k) {
       super(inputText, k);
+    }
+
+    public Builder(Text inputText, int k, Construction construction) {
+      super(inputText, k, construction);
     }  
     
     protected static void findCentroidPaths(Node node) {
-      node.numLeaves = 0;
-      int maxNumberOfChildrenLeaves = 0;
-      for (Edge outgoingEdge : node.outgoingEdges) {
-        // In each child, count the number of their children.
-        findCentroidPaths(outgoingEdge.getToNode());
-        
-        if (outgoingEdge.getToNode().isLeaf)
-          node.numLeaves += 1;
-        else
-          node.numLeaves += outgoingEdge.getToNode().numLeaves;
-        
-        // Find the max number of children leaves. And keep track of the heaviest
-        // children, breaking ties arbitrarily.
-        if (outgoingEdge.getToNode().numLeaves >= maxNumberOfChildrenLeaves) {
-          maxNumberOfChildrenLeaves = outgoingEdge.getToNode().numLeaves;
-          node.centroidEdge = outgoingEdge;
+      new TreeWalker() {
+        @Override
+        protected void leave(Node n) {
+          n.numLeaves = 0;
+          int maxNumberOfChildrenLeaves = 0;
+          for (Edge outgoingEdge : n.outgoingEdges) {
+            // The children have already counted their leaves.
+            if (outgoingEdge.getToNode().isLeaf)
+              n.numLeaves += 1;
+            else
+              n.numLeaves += outgoingEdge.getToNode().numLeaves;
+
+            // Find the max number of children leaves. And keep track of the
+            // heaviest children, breaking ties arbitrarily.
+            if (outgoingEdge.getToNode().numLeaves >= maxNumberOfChildrenLeaves) {
+              maxNumberOfChildrenLeaves = outgoingEdge.getToNode().numLeaves;
+              n.centroidEdge = outgoingEdge;
+            }
+          }
         }
-      }
+      }.walk(node);
     }
     
-    protected static void addWildcardSubtreesAt(Node node, int k, int depthToNode,
-        CuckooHashMap<Integer, Integer> offsetToLexicographicIndexInS,
-        CuckooHashMap<Integer, Node> lexicographicIndexToNodeInS,
-        boolean forSlowQueries) {   
-      if (node.isLeaf || k <= 0)
-        return;
-      
-      // Make the wildcard subtree to be attached to node, without the
-      // centroid edge.
-      Node nodeClone = node.clone(true, null);
-      if (nodeClone.outgoingEdges.size() > 0) {
-        // There's a special case where nodeClone may have no outgoing edges.
-        // The reason is that node could be the root of a wildcard subtree and
-        // node has only one outgoing edge. This edge is labeled the centroid
-        // edge and then its children are not included in nodeClone.
-        // We should only turn nodeClone into a wildcard subtree and attach it to
-        // node if it has children. If nodeClone doesn't have children, then
-        // node won't have a wildcard subtree -- but this is ok because we
-        // will simply follow the centroid edge.
-        
-        if (!(nodeClone.outgoingEdges.size() == 1 &&
-            nodeClone.outgoingEdges.get(0).getTextSubstring().getFirstChar().
-            equals(AlphabetCharacter.END_CHAR))) {
-          // There's another special case in which nodeClone has just one outgoing edge,
-          // which is '$'. We don't want to turn this edge into a wildcard because
-          // otherwise wildcards could match for '$', which isn't really in the
-          // input text.
-          
-          SuffixTreeWithCPD wildcardSubtree = new SuffixTreeWithCPD(nodeClone);
-          wildcardSubtree.offsetToLexicographicIndexInS = offsetToLexicographicIndexInS;
-          wildcardSubtree.lexicographicIndexToLeafInS = lexicographicIndexToNodeInS;
-          wildcardSubtree.subtreeDepth = depthToNode + 1; // +1 for the wildcard edge.
-          nodeClone = turnIntoWildcardSubtree(wildcardSubtree);
-          if (!forSlowQueries) {
-            wildcardSubtree.constructLCAAndMA();
-            wildcardSubtree.determineLeafValuesInSubtree();
-            wildcardSubtree.constructLeafLexicographicIndexYFT();
+    protected static void addWildcardSubtreesAt(Node node, final int k,
+        final int depthToNode,
+        final CuckooHashMap<Integer, Integer> offsetToLexicographicIndexInS,
+        final CuckooHashMap<Integer, Node> lexicographicIndexToNodeInS,
+        final boolean forSlowQueries) {
+      // Wildcard subtrees are added top-down, so that the walk goes on into
+      // the one just added to n and adds wildcard subtrees to it as well.
+      new TreeWalker() {
+        // The number of wildcards left at each node on the current path.
+        private int[] ks = new int[32];
+
+        @Override
+        protected boolean enter(Node n) {
+          int d = depth();
+          if (d == ks.length)
+            ks = Arrays.copyOf(ks, 2 * d);
+          ks[d] = d == 0 ? k : ks[d - 1] - (edge().isWildcardEdge() ? 1 : 0);
+          if (n.isLeaf || ks[d] <= 0)
+            return false;
+          addWildcardSubtree(n, depthToNode + stringDepth());
+          return true;
+        }
+
+        private void addWildcardSubtree(Node n, int depthToNode) {
+          // Make the wildcard subtree to be attached to n, without the
+          // centroid edge.
+          Node nodeClone = n.clone(true, null);
+          if (nodeClone.outgoingEdges.size() > 0) {
+            // There's a special case where nodeClone may have no outgoing edges.
+            // The reason is that n could be the root of a wildcard subtree and
+            // n has only one outgoing edge. This edge is labeled the centroid
+            // edge and then its children are not included in nodeClone.
+            // We should only turn nodeClone into a wildcard subtree and attach it to
+            // n if it has children. If nodeClone doesn't have children, then
+            // n won't have a wildcard subtree -- but this is ok because we
+            // will simply follow the centroid edge.
+
+            if (!(nodeClone.outgoingEdges.size() == 1 &&
+                nodeClone.outgoingEdges.get(0).getTextSubstring().getFirstChar().
+                equals(AlphabetCharacter.END_CHAR))) {
+              // There's another special case in which nodeClone has just one outgoing edge,
+              // which is '$'. We don't want to turn this edge into a wildcard because
+              // otherwise wildcards could match for '$', which isn't really in the
+              // input text.
+
+              SuffixTreeWithCPD wildcardSubtree = new SuffixTreeWithCPD(nodeClone);
+              wildcardSubtree.offsetToLexicographicIndexInS = offsetToLexicographicIndexInS;
+              wildcardSubtree.lexicographicIndexToLeafInS = lexicographicIndexToNodeInS;
+              wildcardSubtree.subtreeDepth = depthToNode + 1; // +1 for the wildcard edge.
+              nodeClone = turnIntoWildcardSubtree(wildcardSubtree);
+              if (!forSlowQueries) {
+                wildcardSubtree.constructLCAAndMA();
+                wildcardSubtree.determineLeafValuesInSubtree();
+                wildcardSubtree.constructLeafLexicographicIndexYFT();
+              }
+              wildcardSubtree.constructNodeDepths(wildcardSubtree.root, 0);
+
+              // Attach nodeClone onto n. nodeClone should have just one outgoing
+              // edge: the wildcard edge.
+              Edge wildcardEdge = nodeClone.outgoingEdges.get(0);
+              wildcardEdge.fromNode = n;
+              n.addOutgoingEdge(wildcardEdge);
+
+              // Find the centroid path decomposition of the copied tree (i.e., the
+              // wildcard subtree), which is rooted at wildcardEdge.getToNode().
+              findCentroidPaths(wildcardEdge.getToNode());
+            }
           }
-          wildcardSubtree.constructNodeDepths(wildcardSubtree.root, 0);
-      
-          // Attach nodeClone onto node. nodeClone should have just one outgoing
-          // edge: the wildcard edge.
-          Edge wildcardEdge = nodeClone.outgoingEdges.get(0);
-          wildcardEdge.fromNode = node;
-          node.addOutgoingEdge(wildcardEdge);
-        
-          // Find the centroid path decomposition of the copied tree (i.e., the
-          // wildcard subtree), which is rooted at wildcardEdge.getToNode().
-          findCentroidPaths(wildcardEdge.getToNode());
         }
-      }
-      
-      // Recursively add wildcard subtrees.
-      for (Edge edge : node.outgoingEdges) {
-        // Recursively add them to the new wildcard subtree as well.
-        int newK = edge.isWildcardEdge() ? k - 1 : k;
-        int edgeDepth = edge.getTextSubstring().getLength();
-        addWildcardSubtreesAt(edge.getToNode(), newK, depthToNode + edgeDepth,
-            offsetToLexicographicIndexInS, lexicographicIndexToNodeInS,
-            forSlowQueries);
-      }
+      }.walk(node);
     }
     
     protected CuckooHashMap<Integer, Integer>
@@ -889,15 +1033,17 @@ public class SuffixTreeWithCPD extends SuffixTreeWithWildcards {
     }
     
     protected void constructOffsetToLexicographicIndexMap(
-        Node node, CuckooHashMap<Integer, Integer> map) {
-      if (node.isLeaf()) {
-        map.put(node.leafOffsetIndexInS, node.leafLexicographicIndexInS);
-        return;
-      }
-      
-      for (Edge outgoingEdge : node.getOutgoingEdges()) {
-        constructOffsetToLexicographicIndexMap(outgoingEdge.getToNode(), map);
-      }
+        Node node, final CuckooHashMap<Integer, Integer> map) {
+      new TreeWalker() {
+        @Override
+        protected boolean enter(Node n) {
+          if (n.isLeaf()) {
+            map.put(n.leafOffsetIndexInS, n.leafLexicographicIndexInS);
+            return false;
+          }
+          return true;
+        }
+      }.walk(node);
     }
     
     protected CuckooHashMap<Integer, Node> constructLexicographicIndexToLeafMap() {
@@ -907,15 +1053,17 @@ public class SuffixTreeWithCPD extends SuffixTreeWithWildcards {
     }
     
     protected void constructLexicographicIndexToLeafMap(Node node,
-        CuckooHashMap<Integer, Node> map) {
-      if (node.isLeaf()) {
-        map.put(node.leafLexicographicIndexInS, node);
-        return;
-      }
-      
-      for (Edge outgoingEdge : node.getOutgoingEdges()) {
-        constructLexicographicIndexToLeafMap(outgoingEdge.getToNode(), map);
-      }
+        final CuckooHashMap<Integer, Node> map) {
+      new TreeWalker() {
+        @Override
+        protected boolean enter(Node n) {
+          if (n.isLeaf()) {
+            map.put(n.leafLexicographicIndexInS, n);
+            return false;
+          }
+          return true;
+        }
+      }.walk(node);
     }
     
     public SuffixTreeWithCPD build() {
@@ -927,6 +1075,7 @@ public class SuffixTreeWithCPD extends SuffixTreeWithWildcards {
       if (!forSlowQueries)
       stcpd.offsetToLexicographicIndexInS = constructOffsetToLexicographicIndexMap();
       stcpd.subtreeDepth = 0;
+      stcpd.fingerprintSubqueries = getInputText().hasFingerprints();
       if (!forSlowQueries) {
         stcpd.constructLCAAndMA();
         stcpd.determineLeafValuesInSubtree();
@@ -25,7 +25,11 @@ public abstract class SuffixTreeWithWildcards extends SuffixTree {
     protected int k; // The number of wildcards.
     
     public Builder(Text inputText, int k) {
-      super(inputText);
+      this(inputText, k, Construction.UKKONEN);
+    }
+
+    public Builder(Text inputText, int k, Construction construction) {
+      super(inputText, construction);
       root = super.build().root;
       this.k = k;
     } 
@@ -0,0 +1,639 @@
+package stringmatch.ds.suffixtree;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import stringmatch.ds.text.Text;
+import stringmatch.ds.text.TextSubstring;
+import stringmatch.ds.util.Pair;
+import stringmatch.ds.yfasttrie.cuckoohash.CuckooHashMap;
+
+/*
+ * Writes a SuffixTreeWithCPD, with all of its wildcard subtrees and
+ * everything smartQuery() reads, to a file, and loads it back. Loading maps
+ * the file and makes one pass over it that recreates the objects as they
+ * were: nothing is cloned, condensed or sorted, and the LCA, MA, ladder and
+ * leaf tables are filled in from the file instead of being computed again.
+ * The LCA table is copied out of the mapping in bulk, and the y-fast tries
+ * (of the ladders and of each tree's leaves) are only made the first time a
+ * query needs them, as there are a lot of them and a query sees few. A
+ * text with encoding BYTES isn't copied at all; the loaded tree reads its
+ * labels straight from the mapping.
+ *
+ * Each Node, Edge, Path and tree gets a number the first time it is seen,
+ * and references between them are written as those numbers (NONE for null).
+ * The file is all big-endian ints:
+ *   header: MAGIC, VERSION, #trees, #nodes, #edges, #paths, and the root
+ *           node of each tree (tree 0 is the one that was written)
+ *   text:   encoding, has fingerprints?, length, then the symbols: one byte
+ *           each for BYTES (padded to a multiple of 4), else one int each
+ *   edges:  from, to, label start, label length, and the wildcard subtree
+ *           below it (NONE unless it's a wildcard edge)
+ *   nodes:  the fields of Node used by queries (see writeNode()), then the
+ *           outgoing edges
+ *   paths:  #nodes, then (height, node) in order; the y-fast tries are
+ *           left for Path.jump() to make when it first needs them
+ *   trees:  k, subtreeDepth, fingerprintSubqueries, LCAOrder, LCATable
+ *           (#levels, #indices, then the levels in order), and the
+ *           (index, leaf) pairs of leafLexicographicIndices
+ *   maps:   offsetToLexicographicIndexInS and lexicographicIndexToLeafInS,
+ *           which all the trees share
+ * A list or table that was never built (as with build(true)) has NONE
+ * where its size would be. Bump VERSION whenever the layout changes.
+ */
+final class TreeSnapshot {
+
+  static final int MAGIC = 0x53465854; // "SFXT"
+  static final int VERSION = 1;
+
+  private static final int NONE = -1;
+
+  private TreeSnapshot() { }
+
+  static void write(SuffixTreeWithCPD tree, File file) throws IOException {
+    Numbering numbering = new Numbering(tree);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(file), 1 << 16));
+    try {
+      numbering.write(out);
+    } finally {
+      out.close();
+    }
+  }
+
+  static SuffixTreeWithCPD read(File file) throws IOException {
+    FileChannel channel = FileChannel.open(file.toPath(),
+        StandardOpenOption.READ);
+    ByteBuffer in;
+    try {
+      // The mapping stays valid after the channel is closed.
+      in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } finally {
+      channel.close();
+    }
+    if (in.remaining() < 8 || in.getInt() != MAGIC)
+      throw new IOException("Not a suffix tree snapshot: " + file);
+    int version = in.getInt();
+    if (version != VERSION)
+      throw new IOException("Unsupported snapshot version " + version
+          + " (expected " + VERSION + "): " + file);
+    return new Loader(in).load();
+  }
+
+  /*
+   * Numbers everything reachable from a tree, then writes it out.
+   */
+  private static class Numbering {
+
+    private final List<SuffixTreeWithCPD> trees =
+        new ArrayList<SuffixTreeWithCPD>();
+    private final List<Node> nodes = new ArrayList<Node>();
+    private final List<Edge> edges = new ArrayList<Edge>();
+    private final List<Path> paths = new ArrayList<Path>();
+    private final Map<Object, Integer> ids =
+        new IdentityHashMap<Object, Integer>();
+    // The pairs in each tree's leafLexicographicIndices, or null.
+    private final List<List<Pair<Integer, Node>>> leafIndices =
+        new ArrayList<List<Pair<Integer, Node>>>();
+    private Text text;
+
+    Numbering(SuffixTreeWithCPD tree) {
+      tree(tree);
+      // Numbering one thing can turn up others, so go round until nothing
+      // new is found.
+      int t = 0;
+      int n = 0;
+      int e = 0;
+      int p = 0;
+      while (t < trees.size() || n < nodes.size() || e < edges.size()
+          || p < paths.size()) {
+        while (t < trees.size())
+          visit(trees.get(t++));
+        while (n < nodes.size())
+          visit(nodes.get(n++));
+        while (e < edges.size())
+          visit(edges.get(e++));
+        while (p < paths.size())
+          visit(paths.get(p++));
+      }
+    }
+
+    private int tree(SuffixTreeWithCPD tree) {
+      return number(tree, trees);
+    }
+
+    private int node(Node node) {
+      return number(node, nodes);
+    }
+
+    private int edge(Edge edge) {
+      return number(edge, edges);
+    }
+
+    private int path(Path path) {
+      return number(path, paths);
+    }
+
+    private <T> int number(T o, List<T> all) {
+      if (o == null)
+        return NONE;
+      Integer id = ids.get(o);
+      if (id == null) {
+        id = all.size();
+        ids.put(o, id);
+        all.add(o);
+      }
+      return id;
+    }
+
+    private void visit(SuffixTreeWithCPD tree) {
+      node(tree.root);
+      if (tree.LCAOrder != null) {
+        for (Pair<Integer, Node> pair : tree.LCAOrder) {
+          node(pair.getRight());
+        }
+      }
+      List<Pair<Integer, Node>> leaves = null;
+      if (tree.leafIndexPairs != null) {
+        leaves = tree.leafIndexPairs;
+      } else if (tree.leafLexicographicIndices != null) {
+        leaves = leafIndexPairs(tree);
+        for (Pair<Integer, Node> pair : leaves) {
+          node(pair.getRight());
+        }
+      }
+      leafIndices.add(leaves);
+      if (tree.lexicographicIndexToLeafInS != null) {
+        for (Node leaf : tree.lexicographicIndexToLeafInS.values()) {
+          node(leaf);
+        }
+      }
+    }
+
+    private void visit(Node node) {
+      edge(node.incomingEdge);
+      edge(node.centroidEdge);
+      edge(node.longPathEdge);
+      node(node.leftMost);
+      node(node.rightMost);
+      node(node.rootPointer);
+      if (node.ladder != null)
+        path(node.ladder.getRight());
+      if (node.jumps != null) {
+        for (Node above : node.jumps) {
+          node(above);
+        }
+      }
+      if (node.outgoingEdges != null) {
+        for (Edge e : node.outgoingEdges) {
+          edge(e);
+        }
+      }
+    }
+
+    private void visit(Edge edge) {
+      node(edge.fromNode);
+      node(edge.toNode);
+      if (edge.isWildcardEdge()) {
+        SuffixTreeWithWildcards subtree = ((WildcardEdge) edge).wildcardTree;
+        if (!(subtree instanceof SuffixTreeWithCPD))
+          throw new IllegalArgumentException(
+              "Only trees with SuffixTreeWithCPD wildcard subtrees can be saved.");
+        tree((SuffixTreeWithCPD) subtree);
+      } else {
+        Text labelText = edge.getTextSubstring().getText();
+        if (text == null)
+          text = labelText;
+        else if (labelText != text)
+          throw new IllegalArgumentException(
+              "All edge labels must be from the same text.");
+      }
+    }
+
+    private void visit(Path path) {
+      for (Node node : path.nodes.values()) {
+        node(node);
+      }
+    }
+
+    void write(DataOutputStream out) throws IOException {
+      SuffixTreeWithCPD tree = trees.get(0);
+      for (SuffixTreeWithCPD subtree : trees) {
+        if (subtree.offsetToLexicographicIndexInS != tree.offsetToLexicographicIndexInS
+            || subtree.lexicographicIndexToLeafInS != tree.lexicographicIndexToLeafInS)
+          throw new IllegalArgumentException(
+              "Wildcard subtrees must share the maps of the tree they're in.");
+      }
+
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(trees.size());
+      out.writeInt(nodes.size());
+      out.writeInt(edges.size());
+      out.writeInt(paths.size());
+      for (SuffixTreeWithCPD subtree : trees) {
+        out.writeInt(node(subtree.root));
+      }
+
+      writeText(out);
+      for (Edge edge : edges) {
+        writeEdge(out, edge);
+      }
+      for (Node node : nodes) {
+        writeNode(out, node);
+      }
+      for (Path path : paths) {
+        writePath(out, path);
+      }
+      for (int t = 0; t < trees.size(); t++) {
+        writeTables(out, trees.get(t), leafIndices.get(t));
+      }
+
+      if (tree.offsetToLexicographicIndexInS == null) {
+        out.writeInt(NONE);
+      } else {
+        out.writeInt(tree.offsetToLexicographicIndexInS.size());
+        for (Map.Entry<Integer, Integer> entry
+            : tree.offsetToLexicographicIndexInS.entrySet()) {
+          out.writeInt(entry.getKey());
+          out.writeInt(entry.getValue());
+        }
+      }
+      if (tree.lexicographicIndexToLeafInS == null) {
+        out.writeInt(NONE);
+      } else {
+        out.writeInt(tree.lexicographicIndexToLeafInS.size());
+        for (Map.Entry<Integer, Node> entry
+            : tree.lexicographicIndexToLeafInS.entrySet()) {
+          out.writeInt(entry.getKey());
+          out.writeInt(node(entry.getValue()));
+        }
+      }
+    }
+
+    private void writeText(DataOutputStream out) throws IOException {
+      if (text == null) {
+        out.writeInt(Text.Encoding.CHARACTERS.ordinal());
+        out.writeInt(0);
+        out.writeInt(0);
+        return;
+      }
+      out.writeInt(text.getEncoding().ordinal());
+      out.writeInt(text.hasFingerprints() ? 1 : 0);
+      int length = text.getLength();
+      out.writeInt(length);
+      if (text.getEncoding() == Text.Encoding.BYTES) {
+        for (int i = 0; i < length; i++) {
+          out.writeByte(text.codeAt(i));
+        }
+        for (int i = length; i % 4 != 0; i++) {
+          out.writeByte(0);
+        }
+      } else {
+        for (int i = 0; i < length; i++) {
+          out.writeInt(text.codeAt(i));
+        }
+      }
+    }
+
+    private void writeEdge(DataOutputStream out, Edge edge) throws IOException {
+      out.writeInt(node(edge.fromNode));
+      out.writeInt(node(edge.toNode));
+      if (edge.isWildcardEdge()) {
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeInt(tree((SuffixTreeWithCPD) ((WildcardEdge) edge).wildcardTree));
+      } else {
+        TextSubstring label = edge.getTextSubstring();
+        out.writeInt(label.start);
+        out.writeInt(label.length);
+        out.writeInt(NONE);
+      }
+    }
+
+    // Loader.readNode() reads these back in the same order.
+    private void writeNode(DataOutputStream out, Node node) throws IOException {
+      out.writeInt(edge(node.incomingEdge));
+      out.writeInt(node(node.leftMost));
+      out.writeInt(node(node.rightMost));
+      out.writeInt(node.numLeaves);
+      out.writeInt(edge(node.centroidEdge));
+      out.writeInt(node.isLeaf ? 1 : 0);
+      out.writeInt(node.leafOffsetIndexInS);
+      out.writeInt(node.leafOffsetIndexInT);
+      out.writeInt(node.leafLexicographicIndexInS);
+      out.writeInt(node.leafLexicographicIndexInT);
+      out.writeInt(node.depthInSubtree);
+      out.writeInt(node.LCAIndex);
+      out.writeInt(node.maxHeight);
+      out.writeInt(edge(node.longPathEdge));
+      if (node.ladder == null) {
+        out.writeInt(0);
+        out.writeInt(NONE);
+      } else {
+        out.writeInt(node.ladder.getLeft());
+        out.writeInt(path(node.ladder.getRight()));
+      }
+      out.writeInt(node(node.rootPointer));
+      if (node.jumps == null) {
+        out.writeInt(NONE);
+      } else {
+        out.writeInt(node.jumps.length);
+        for (Node above : node.jumps) {
+          out.writeInt(node(above));
+        }
+      }
+      if (node.outgoingEdges == null) {
+        out.writeInt(NONE);
+      } else {
+        out.writeInt(node.outgoingEdges.size());
+        for (Edge e : node.outgoingEdges) {
+          out.writeInt(edge(e));
+        }
+      }
+    }
+
+    private void writePath(DataOutputStream out, Path path) throws IOException {
+      out.writeInt(path.order.size());
+      for (int height : path.order) {
+        out.writeInt(height);
+        out.writeInt(node(path.nodes.get(height)));
+      }
+    }
+
+    private void writeTables(DataOutputStream out, SuffixTreeWithCPD tree,
+        List<Pair<Integer, Node>> leaves) throws IOException {
+      out.writeInt(tree.k);
+      out.writeInt(tree.subtreeDepth);
+      out.writeInt(tree.fingerprintSubqueries ? 1 : 0);
+
+      if (tree.LCAOrder == null) {
+        out.writeInt(NONE);
+      } else {
+        out.writeInt(tree.LCAOrder.size());
+        for (Pair<Integer, Node> pair : tree.LCAOrder) {
+          out.writeInt(pair.getLeft());
+          out.writeInt(node(pair.getRight()));
+        }
+      }
+
+      if (tree.LCATable == null) {
+        out.writeInt(NONE);
+      } else {
+        out.writeInt(tree.LCATable.length);
+        out.writeInt(tree.LCAOrder.size());
+        for (int[] level : tree.LCATable) {
+          for (int min : level) {
+            out.writeInt(min);
+          }
+        }
+      }
+
+      if (leaves == null) {
+        out.writeInt(NONE);
+      } else {
+        out.writeInt(leaves.size());
+        for (Pair<Integer, Node> pair : leaves) {
+          out.writeInt(pair.getLeft());
+          out.writeInt(node(pair.getRight()));
+        }
+      }
+    }
+  }
+
+  /*
+   * The pairs that tree.leafLexicographicIndices was built from, which it
+   * can't list itself. That was done before any wildcard subtrees were
+   * added below tree's root, so they're skipped here.
+   */
+  private static List<Pair<Integer, Node>> leafIndexPairs(
+      SuffixTreeWithCPD tree) {
+    final List<Pair<Integer, Node>> leaves =
+        new ArrayList<Pair<Integer, Node>>();
+    new TreeWalker() {
+      @Override
+      protected boolean enter(Node n) {
+        if (n.isLeaf) {
+          leaves.add(new Pair<Integer, Node>(n.leafLexicographicIndexInT, n));
+          return false;
+        }
+        return true;
+      }
+
+      @Override
+      protected boolean follow(Edge e) {
+        return !e.isWildcardEdge();
+      }
+    }.walk(tree.root);
+    return leaves;
+  }
+
+  /*
+   * Recreates the objects from a mapped file, just past the version.
+   */
+  private static class Loader {
+
+    private final ByteBuffer in;
+    private SuffixTreeWithCPD[] trees;
+    private Node[] nodes;
+    private Edge[] edges;
+    private Path[] paths;
+    private Text text;
+
+    Loader(ByteBuffer in) {
+      this.in = in;
+    }
+
+    SuffixTreeWithCPD load() {
+      trees = new SuffixTreeWithCPD[in.getInt()];
+      nodes = new Node[in.getInt()];
+      edges = new Edge[in.getInt()];
+      paths = new Path[in.getInt()];
+      // Everything is made up front, so that references can be set as
+      // they're read.
+      for (int i = 0; i < nodes.length; i++) {
+        nodes[i] = new Node(null);
+      }
+      for (int i = 0; i < paths.length; i++) {
+        paths[i] = new Path();
+      }
+      for (int i = 0; i < trees.length; i++) {
+        trees[i] = new SuffixTreeWithCPD(node(in.getInt()));
+      }
+      trees[0].root.outgoingEdges.indexDirectly();
+
+      readText();
+      for (int i = 0; i < edges.length; i++) {
+        edges[i] = readEdge();
+      }
+      for (Node node : nodes) {
+        readNode(node);
+      }
+      for (Path path : paths) {
+        readPath(path);
+      }
+      for (SuffixTreeWithCPD tree : trees) {
+        readTables(tree);
+      }
+
+      CuckooHashMap<Integer, Integer> offsetToLexicographicIndex = null;
+      int size = in.getInt();
+      if (size != NONE) {
+        offsetToLexicographicIndex = new CuckooHashMap<Integer, Integer>();
+        for (int i = 0; i < size; i++) {
+          offsetToLexicographicIndex.put(in.getInt(), in.getInt());
+        }
+      }
+      CuckooHashMap<Integer, Node> lexicographicIndexToLeaf = null;
+      size = in.getInt();
+      if (size != NONE) {
+        lexicographicIndexToLeaf = new CuckooHashMap<Integer, Node>();
+        for (int i = 0; i < size; i++) {
+          lexicographicIndexToLeaf.put(in.getInt(), node(in.getInt()));
+        }
+      }
+      for (SuffixTreeWithCPD tree : trees) {
+        tree.offsetToLexicographicIndexInS = offsetToLexicographicIndex;
+        tree.lexicographicIndexToLeafInS = lexicographicIndexToLeaf;
+      }
+      return trees[0];
+    }
+
+    private Node node(int id) {
+      return id == NONE ? null : nodes[id];
+    }
+
+    private Edge edge(int id) {
+      return id == NONE ? null : edges[id];
+    }
+
+    private void readText() {
+      Text.Encoding encoding = Text.Encoding.values()[in.getInt()];
+      boolean fingerprints = in.getInt() != 0;
+      int length = in.getInt();
+      if (encoding == Text.Encoding.BYTES) {
+        // Read the symbols where they are.
+        ByteBuffer symbols = in.duplicate();
+        symbols.limit(in.position() + length);
+        text = Text.wrap(symbols.slice());
+        in.position(in.position() + (length + 3) / 4 * 4);
+      } else {
+        Text.Builder builder = new Text.Builder(encoding);
+        for (int i = 0; i < length; i++) {
+          builder.addCode(in.getInt());
+        }
+        text = builder.build();
+      }
+      if (fingerprints)
+        text.computeFingerprints();
+    }
+
+    private Edge readEdge() {
+      Node from = node(in.getInt());
+      Node to = node(in.getInt());
+      int start = in.getInt();
+      int length = in.getInt();
+      int subtree = in.getInt();
+      Edge edge;
+      if (subtree != NONE) {
+        edge = new WildcardEdge(from, trees[subtree]);
+      } else {
+        edge = new Edge(from, new TextSubstring(text, start, length));
+      }
+      edge.toNode = to;
+      return edge;
+    }
+
+    private void readNode(Node node) {
+      node.incomingEdge = edge(in.getInt());
+      node.leftMost = node(in.getInt());
+      node.rightMost = node(in.getInt());
+      node.numLeaves = in.getInt();
+      node.centroidEdge = edge(in.getInt());
+      node.isLeaf = in.getInt() != 0;
+      node.leafOffsetIndexInS = in.getInt();
+      node.leafOffsetIndexInT = in.getInt();
+      node.leafLexicographicIndexInS = in.getInt();
+      node.leafLexicographicIndexInT = in.getInt();
+      node.depthInSubtree = in.getInt();
+      node.LCAIndex = in.getInt();
+      node.maxHeight = in.getInt();
+      node.longPathEdge = edge(in.getInt());
+      int height = in.getInt();
+      int path = in.getInt();
+      if (path != NONE)
+        node.ladder = new Pair<Integer, Path>(height, paths[path]);
+      node.rootPointer = node(in.getInt());
+      int numJumps = in.getInt();
+      if (numJumps != NONE) {
+        node.jumps = new Node[numJumps];
+        for (int i = 0; i < numJumps; i++) {
+          node.jumps[i] = node(in.getInt());
+        }
+      }
+      int numChildren = in.getInt();
+      if (numChildren == NONE) {
+        node.outgoingEdges = null;
+      } else {
+        for (int i = 0; i < numChildren; i++) {
+          node.addOutgoingEdge(edges[in.getInt()]);
+        }
+      }
+    }
+
+    private void readPath(Path path) {
+      int size = in.getInt();
+      for (int i = 0; i < size; i++) {
+        int height = in.getInt();
+        path.nodes.put(height, node(in.getInt()));
+        path.order.addLast(height);
+      }
+    }
+
+    private void readTables(SuffixTreeWithCPD tree) {
+      tree.k = in.getInt();
+      tree.subtreeDepth = in.getInt();
+      tree.fingerprintSubqueries = in.getInt() != 0;
+
+      int size = in.getInt();
+      if (size != NONE) {
+        tree.LCAOrder = new ArrayList<Pair<Integer, Node>>(size);
+        for (int i = 0; i < size; i++) {
+          int depth = in.getInt();
+          tree.LCAOrder.add(new Pair<Integer, Node>(depth, node(in.getInt())));
+        }
+      }
+
+      int levels = in.getInt();
+      if (levels != NONE) {
+        size = in.getInt();
+        tree.LCATable = new int[levels][size];
+        for (int[] level : tree.LCATable) {
+          in.asIntBuffer().get(level);
+          in.position(in.position() + 4 * size);
+        }
+      }
+
+      size = in.getInt();
+      if (size != NONE) {
+        List<Pair<Integer, Node>> leaves = new ArrayList<Pair<Integer, Node>>(size);
+        for (int i = 0; i < size; i++) {
+          int index = in.getInt();
+          leaves.add(new Pair<Integer, Node>(index, node(in.getInt())));
+        }
+        tree.leafIndexPairs = leaves;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,106 @@
+package stringmatch.ds.suffixtree;
+
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Depth-first traversal with an explicit stack, so that passes over very deep
+ * trees (long repeats, low-entropy DNA) don't need a big thread stack.
+ * Subclasses override enter() (pre-order), leave() (post-order) and follow()
+ * (which edges to go down); several passes that need the same order can be
+ * done in one walk.
+ *
+ * The stack holds each node on the current path, the edge into it, the index
+ * of its next edge and its string depth. Children are read after enter()
+ * returns, so enter() may rearrange or replace the node's outgoing edges.
+ */
+abstract class TreeWalker {
+
+  private Node[] nodes = new Node[32];
+  private Edge[] edges = new Edge[32];
+  private int[] nextEdge = new int[32];
+  private int[] stringDepths = new int[32];
+  private int size;
+
+  /*
+   * Called on the way down. Returns whether to visit node's children.
+   */
+  protected boolean enter(Node node) {
+    return true;
+  }
+
+  /*
+   * Called on the way up, after all of node's (followed) children.
+   */
+  protected void leave(Node node) { }
+
+  /*
+   * Whether to go down edge. By default every edge is followed, including
+   * wildcard edges.
+   */
+  protected boolean follow(Edge edge) {
+    return true;
+  }
+
+  // The depth in edges of the current node below the node the walk started
+  // at.
+  protected int depth() {
+    return size - 1;
+  }
+
+  // The length of the path from the node the walk started at to the current
+  // node.
+  protected int stringDepth() {
+    return stringDepths[size - 1];
+  }
+
+  // The parent of the current node in this walk, or null at the start node.
+  protected Node parent() {
+    return size > 1 ? nodes[size - 2] : null;
+  }
+
+  // The edge from parent() to the current node, or null at the start node.
+  protected Edge edge() {
+    return edges[size - 1];
+  }
+
+  public final void walk(Node start) {
+    size = 0;
+    push(start, null, 0);
+    while (size > 0) {
+      int top = size - 1;
+      Node node = nodes[top];
+      List<Edge> outgoing = node.outgoingEdges;
+      int i = nextEdge[top];
+      while (i < outgoing.size() && !follow(outgoing.get(i)))
+        i++;
+      if (i < outgoing.size()) {
+        nextEdge[top] = i + 1;
+        Edge edge = outgoing.get(i);
+        push(edge.getToNode(), edge, stringDepths[top] + edge.getLength());
+      } else {
+        leave(node);
+        nodes[top] = null;
+        edges[top] = null;
+        size--;
+      }
+    }
+  }
+
+  private void push(Node node, Edge edge, int stringDepth) {
+    if (size == nodes.length) {
+      nodes = Arrays.copyOf(nodes, 2 * size);
+      edges = Arrays.copyOf(edges, 2 * size);
+      nextEdge = Arrays.copyOf(nextEdge, 2 * size);
+      stringDepths = Arrays.copyOf(stringDepths, 2 * size);
+    }
+    nodes[size] = node;
+    edges[size] = edge;
+    stringDepths[size] = stringDepth;
+    nextEdge[size] = 0;
+    size++;
+    if (!enter(node))
+      nextEdge[size - 1] = Integer.MAX_VALUE;
+  }
+
+}
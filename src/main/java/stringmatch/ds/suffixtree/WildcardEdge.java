@@ -1,5 +1,6 @@
 package stringmatch.ds.suffixtree;
 
+import stringmatch.ds.text.Alphabet;
 import stringmatch.ds.text.AlphabetCharacter;
 import stringmatch.ds.text.TextSubstring;
 
@@ -21,6 +22,14 @@ public class WildcardEdge extends Edge {
     return AlphabetCharacter.WILDCARD;
   }
   
+  public int codeAt(int i) {
+    return Alphabet.WILDCARD_CODE;
+  }
+  
+  protected int getLength() {
+    return 1;
+  }
+  
   public boolean isWildcardEdge() {
     return true;
   }
@@ -41,6 +50,10 @@ public class WildcardEdge extends Edge {
     throw new RuntimeException("We shouldn't be cloning a wildcard edge!");
   }
   
+  protected Edge copyLabel(Node fromNode) {
+    throw new RuntimeException("We shouldn't be cloning a wildcard edge!");
+  }
+  
   @Override
   public int compareTo(Edge o) {
     return 0;
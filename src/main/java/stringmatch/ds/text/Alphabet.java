@@ -0,0 +1,135 @@
+package stringmatch.ds.text;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Registry of every symbol that has been seen. Each symbol code is interned
+ * to a single AlphabetCharacter, and each AlphabetCharacter is given a dense
+ * ordinal (0, 1, 2, ... in order of first appearance), which is handy for
+ * sizing tables indexed by symbol.
+ *
+ * END_CHAR, WILDCARD and SEPARATOR are always registered first, so they keep
+ * the reserved ordinals END_ORDINAL, WILDCARD_ORDINAL and SEPARATOR_ORDINAL.
+ */
+public final class Alphabet {
+
+  public static final int END_CODE = '$';
+  public static final int WILDCARD_CODE = '*';
+  // Goes between records when several are indexed in one text. This is the
+  // ASCII record separator, which never survives input normalization.
+  public static final int SEPARATOR_CODE = 0x1E;
+
+  // Codes from TOKEN_BASE up are word-level symbols (see Vocabulary), so they
+  // never collide with characters. They can only be stored in a Text with
+  // encoding INTS.
+  public static final int TOKEN_BASE = Character.MAX_VALUE + 1;
+
+  public static final int END_ORDINAL = 0;
+  public static final int WILDCARD_ORDINAL = 1;
+  public static final int SEPARATOR_ORDINAL = 2;
+
+  // Reads are done without locking; the arrays are only ever replaced by
+  // larger copies (under the lock) and AlphabetCharacter is immutable.
+  private static volatile AlphabetCharacter[] byCode = new AlphabetCharacter[128];
+  private static volatile AlphabetCharacter[] byOrdinal = new AlphabetCharacter[64];
+  // Symbols with codes past Character.MAX_VALUE, which would make byCode too
+  // big to index directly.
+  private static final ConcurrentHashMap<Integer, AlphabetCharacter> byLargeCode
+    = new ConcurrentHashMap<Integer, AlphabetCharacter>();
+  private static int size = 0;
+
+  static {
+    register(AlphabetCharacter.END_CHAR);
+    register(AlphabetCharacter.WILDCARD);
+    register(AlphabetCharacter.SEPARATOR);
+  }
+
+  private Alphabet() { }
+
+  /*
+   * Returns the interned AlphabetCharacter for code, registering it if it
+   * hasn't been seen before.
+   */
+  public static AlphabetCharacter forCode(int code) {
+    AlphabetCharacter[] table = byCode;
+    if (code >= 0 && code < table.length) {
+      AlphabetCharacter ac = table[code];
+      if (ac != null)
+        return ac;
+    } else if (code > Character.MAX_VALUE) {
+      AlphabetCharacter ac = byLargeCode.get(code);
+      if (ac != null)
+        return ac;
+    }
+    return intern(code);
+  }
+
+  public static AlphabetCharacter forOrdinal(int ordinal) {
+    if (ordinal < 0 || ordinal >= size())
+      throw new IllegalArgumentException();
+    return byOrdinal[ordinal];
+  }
+
+  public static int ordinalOf(int code) {
+    return forCode(code).getOrdinal();
+  }
+
+  /*
+   * Returns true for the codes that end a record (END_CODE and
+   * SEPARATOR_CODE). A wildcard never matches these.
+   */
+  public static boolean isTerminator(int code) {
+    return code == END_CODE || code == SEPARATOR_CODE;
+  }
+
+  public static boolean isToken(int code) {
+    return code >= TOKEN_BASE;
+  }
+
+  /*
+   * Appends the printable form of code to sb: the character itself, or
+   * <n> for token n.
+   */
+  public static StringBuilder appendSymbol(StringBuilder sb, int code) {
+    if (isToken(code))
+      return sb.append('<').append(code - TOKEN_BASE).append('>');
+    return sb.append((char) code);
+  }
+
+  /*
+   * Returns the number of symbols registered so far (including END_CHAR,
+   * WILDCARD and SEPARATOR).
+   */
+  public static synchronized int size() {
+    return size;
+  }
+
+  private static synchronized AlphabetCharacter intern(int code) {
+    if (code < 0)
+      throw new IllegalArgumentException("Invalid symbol code: " + code);
+    if (code < byCode.length && byCode[code] != null)
+      return byCode[code];
+    if (code > Character.MAX_VALUE && byLargeCode.containsKey(code))
+      return byLargeCode.get(code);
+    return register(new AlphabetCharacter(code, size));
+  }
+
+  private static synchronized AlphabetCharacter register(AlphabetCharacter ac) {
+    int code = ac.getCode();
+    if (code > Character.MAX_VALUE) {
+      byLargeCode.put(code, ac);
+    } else if (code >= byCode.length) {
+      byCode = Arrays.copyOf(byCode,
+          Math.min(Character.MAX_VALUE + 1, Math.max(code + 1, 2 * byCode.length)));
+    }
+    if (size >= byOrdinal.length) {
+      byOrdinal = Arrays.copyOf(byOrdinal, 2 * byOrdinal.length);
+    }
+    byOrdinal[size++] = ac;
+    if (code <= Character.MAX_VALUE)
+      byCode[code] = ac;
+    return ac;
+  }
+
+}
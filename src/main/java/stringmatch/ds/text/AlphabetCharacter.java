@@ -1,44 +1,77 @@
 package stringmatch.ds.text;
 
+/*
+ * A symbol of the alphabet. Instances are interned by Alphabet, so equality
+ * and ordering come down to comparing the integer codes.
+ */
 public class AlphabetCharacter implements Comparable<AlphabetCharacter> {
 
   public static final AlphabetCharacter END_CHAR
-    = new AlphabetCharacter(new Character('$'));
+    = new AlphabetCharacter(Alphabet.END_CODE, Alphabet.END_ORDINAL);
   public static final AlphabetCharacter WILDCARD
-    = new AlphabetCharacter(new Character('*'));
-  
-  private final Character character;
-  
+    = new AlphabetCharacter(Alphabet.WILDCARD_CODE, Alphabet.WILDCARD_ORDINAL);
+  public static final AlphabetCharacter SEPARATOR
+    = new AlphabetCharacter(Alphabet.SEPARATOR_CODE, Alphabet.SEPARATOR_ORDINAL);
+
+  private final int code;
+  private final int ordinal;
+
   public AlphabetCharacter(Character character) {
-    this.character = character;
+    this(character.charValue(), Alphabet.ordinalOf(character.charValue()));
+  }
+
+  AlphabetCharacter(int code, int ordinal) {
+    this.code = code;
+    this.ordinal = ordinal;
+  }
+
+  /*
+   * Returns the primitive code under which this character is stored in a Text.
+   * Codes order the same way as the characters themselves.
+   */
+  public int getCode() {
+    return code;
+  }
+
+  /*
+   * Returns the dense index assigned to this character by Alphabet.
+   */
+  public int getOrdinal() {
+    return ordinal;
   }
-  
+
   public boolean equals(Object obj) {
+    if (obj == this)
+      return true;
     if (obj instanceof AlphabetCharacter)
-      return (((AlphabetCharacter) obj).character.equals(character));
+      return ((AlphabetCharacter) obj).code == code;
     else
       return false;
   }
-  
+
   public int hashCode() {
-    return character.hashCode();
+    return code;
   }
-  
+
   public boolean isWild() {
-	  return this.equals(WILDCARD);
+	  return code == Alphabet.WILDCARD_CODE;
   }
-  
+
   public boolean isEnd() {
-	  return this.equals(END_CHAR);
+	  return code == Alphabet.END_CODE;
   }
-  
+
+  public boolean isSeparator() {
+	  return code == Alphabet.SEPARATOR_CODE;
+  }
+
   public String toString() {
-    return character.toString();
+    return Alphabet.appendSymbol(new StringBuilder(), code).toString();
   }
 
   @Override
   public int compareTo(AlphabetCharacter o) {
-    return character.compareTo(o.character);
+    return code < o.code ? -1 : (code == o.code ? 0 : 1);
   }
-  
-}
\ No newline at end of file
+
+}
@@ -0,0 +1,179 @@
+package stringmatch.ds.text;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/*
+ * Stores one byte per symbol in a ByteBuffer. The buffer is on the heap when
+ * the Text is built in memory, and can also be a direct or memory-mapped
+ * buffer handed to Text.wrap(), in which case the symbols never enter the
+ * heap at all.
+ *
+ * The buffer is kept little-endian so that getLong(i) puts symbol i in the
+ * low byte, which lets the comparison kernels read 8 symbols per step and
+ * find the first mismatch with Long.numberOfTrailingZeros.
+ */
+final class ByteSymbolStore extends SymbolStore {
+
+  private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+  private static final long END_BYTES = broadcast(Alphabet.END_CODE);
+  private static final long SEPARATOR_BYTES = broadcast(Alphabet.SEPARATOR_CODE);
+  // WILDCARD_BYTES[b] has 0x80 in byte k for each bit k set in b.
+  private static final long[] WILDCARD_BYTES = new long[256];
+  static {
+    for (int b = 0; b < 256; b++) {
+      for (int k = 0; k < 8; k++) {
+        if ((b & (1 << k)) != 0)
+          WILDCARD_BYTES[b] |= 0x80L << (k << 3);
+      }
+    }
+  }
+
+  private ByteBuffer symbols;
+  private int length;
+
+  ByteSymbolStore(int capacity) {
+    symbols = ByteBuffer.allocate(Math.max(capacity, 1))
+        .order(ByteOrder.LITTLE_ENDIAN);
+    length = 0;
+  }
+
+  ByteSymbolStore(ByteBuffer buffer) {
+    symbols = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+    length = symbols.remaining();
+  }
+
+  @Override
+  Text.Encoding getEncoding() {
+    return Text.Encoding.BYTES;
+  }
+
+  @Override
+  int length() {
+    return length;
+  }
+
+  @Override
+  int codeAt(int index) {
+    return symbols.get(index) & 0xFF;
+  }
+
+  // Wrapped buffers may be read-only (e.g., a mapped file). Appending to one
+  // moves the symbols onto the heap.
+  private void ensureCapacity(int capacity) {
+    if (capacity > symbols.capacity() || symbols.isReadOnly()) {
+      ByteBuffer grown = ByteBuffer.allocate(
+          Math.max(capacity, symbols.capacity() + (symbols.capacity() >> 1)));
+      ByteBuffer old = symbols.duplicate();
+      old.position(0);
+      old.limit(length);
+      grown.put(old);
+      symbols = grown.order(ByteOrder.LITTLE_ENDIAN);
+    }
+  }
+
+  @Override
+  void append(int code) {
+    if (code < 0 || code > 0xFF)
+      throw new IllegalArgumentException("Symbol code " + code
+          + " doesn't fit in one byte.");
+    ensureCapacity(length + 1);
+    symbols.put(length++, (byte) code);
+  }
+
+  @Override
+  void truncate(int length) {
+    this.length = Math.min(length, this.length);
+  }
+
+  @Override
+  void trimToSize() {
+    if (symbols.hasArray() && symbols.capacity() != length) {
+      ByteBuffer trimmed = ByteBuffer.allocate(length);
+      ByteBuffer old = symbols.duplicate();
+      old.position(0);
+      old.limit(length);
+      trimmed.put(old);
+      symbols = trimmed.order(ByteOrder.LITTLE_ENDIAN);
+    }
+  }
+
+  @Override
+  SymbolStore copyOfRange(int start, int end) {
+    ByteSymbolStore copy = new ByteSymbolStore(end - start);
+    ByteBuffer range = symbols.duplicate();
+    range.position(start);
+    range.limit(end);
+    copy.symbols.put(range);
+    copy.length = end - start;
+    return copy;
+  }
+
+  private static long broadcast(int code) {
+    return (code & 0xFFL) * 0x0101010101010101L;
+  }
+
+  // Sets the high bit of each byte of x that is nonzero.
+  private static long nonzeroBytes(long x) {
+    return (((x & LOW_BITS) + LOW_BITS) | x) & ~LOW_BITS;
+  }
+
+  /*
+   * Compares 8 symbols per step: XOR the little-endian words and find the
+   * first nonzero byte with Long.numberOfTrailingZeros.
+   */
+  @Override
+  int commonPrefixLength(int start, SymbolStore other, int otherStart,
+      int maxLength) {
+    if (!(other instanceof ByteSymbolStore))
+      return super.commonPrefixLength(start, other, otherStart, maxLength);
+    ByteBuffer otherSymbols = ((ByteSymbolStore) other).symbols;
+
+    int matched = 0;
+    for (; matched + 8 <= maxLength; matched += 8) {
+      long diff = symbols.getLong(start + matched)
+          ^ otherSymbols.getLong(otherStart + matched);
+      if (diff != 0)
+        return matched + (Long.numberOfTrailingZeros(diff) >>> 3);
+    }
+    for (; matched < maxLength; matched++) {
+      if (symbols.get(start + matched) != otherSymbols.get(otherStart + matched))
+        return matched;
+    }
+    return maxLength;
+  }
+
+  /*
+   * 8 symbols per step, as in commonPrefixLength. A byte is a mismatch if it
+   * differs where the pattern has no wildcard, or if it is a terminator where
+   * the pattern does.
+   */
+  @Override
+  int matchLength(int start, SymbolStore other, int otherStart, int maxLength,
+      long[] wildcards) {
+    if (!(other instanceof ByteSymbolStore))
+      return super.matchLength(start, other, otherStart, maxLength, wildcards);
+    ByteBuffer otherSymbols = ((ByteSymbolStore) other).symbols;
+
+    int matched = 0;
+    for (; matched + 8 <= maxLength; matched += 8) {
+      long word = symbols.getLong(start + matched);
+      long wild = WILDCARD_BYTES[(int) bitsAt(wildcards, otherStart + matched) & 0xFF];
+      long terminators = ~nonzeroBytes(word ^ END_BYTES)
+          | ~nonzeroBytes(word ^ SEPARATOR_BYTES);
+      long mismatches = (nonzeroBytes(word ^ otherSymbols.getLong(otherStart + matched))
+          & ~wild) | (terminators & wild);
+      if (mismatches != 0)
+        return matched + (Long.numberOfTrailingZeros(mismatches) >>> 3);
+    }
+    for (; matched < maxLength; matched++) {
+      int code = codeAt(start + matched);
+      if (isSet(wildcards, otherStart + matched)
+          ? Alphabet.isTerminator(code)
+          : code != (otherSymbols.get(otherStart + matched) & 0xFF))
+        return matched;
+    }
+    return maxLength;
+  }
+
+}
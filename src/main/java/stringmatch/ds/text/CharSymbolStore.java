@@ -0,0 +1,95 @@
+package stringmatch.ds.text;
+
+import java.util.Arrays;
+
+/*
+ * Stores one 16-bit code per symbol. This is the default encoding and can
+ * hold any char-based alphabet.
+ */
+final class CharSymbolStore extends SymbolStore {
+
+  private char[] symbols;
+  private int length;
+
+  CharSymbolStore(int capacity) {
+    symbols = new char[Math.max(capacity, 1)];
+    length = 0;
+  }
+
+  private CharSymbolStore(char[] symbols) {
+    this.symbols = symbols;
+    this.length = symbols.length;
+  }
+
+  @Override
+  Text.Encoding getEncoding() {
+    return Text.Encoding.CHARACTERS;
+  }
+
+  @Override
+  int length() {
+    return length;
+  }
+
+  @Override
+  int codeAt(int index) {
+    return symbols[index];
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > symbols.length) {
+      symbols = Arrays.copyOf(symbols,
+          Math.max(capacity, symbols.length + (symbols.length >> 1)));
+    }
+  }
+
+  @Override
+  void append(int code) {
+    if (code < 0 || code > Character.MAX_VALUE)
+      throw new IllegalArgumentException("Symbol code " + code
+          + " doesn't fit in a char.");
+    ensureCapacity(length + 1);
+    symbols[length++] = (char) code;
+  }
+
+  @Override
+  void append(CharSequence s) {
+    ensureCapacity(length + s.length());
+    if (s instanceof String) {
+      ((String) s).getChars(0, s.length(), symbols, length);
+      length += s.length();
+    } else {
+      super.append(s);
+    }
+  }
+
+  @Override
+  void truncate(int length) {
+    this.length = Math.min(length, this.length);
+  }
+
+  @Override
+  void trimToSize() {
+    if (symbols.length != length)
+      symbols = Arrays.copyOf(symbols, length);
+  }
+
+  @Override
+  SymbolStore copyOfRange(int start, int end) {
+    return new CharSymbolStore(Arrays.copyOfRange(symbols, start, end));
+  }
+
+  @Override
+  int commonPrefixLength(int start, SymbolStore other, int otherStart,
+      int maxLength) {
+    if (!(other instanceof CharSymbolStore))
+      return super.commonPrefixLength(start, other, otherStart, maxLength);
+    char[] otherSymbols = ((CharSymbolStore) other).symbols;
+    for (int i = 0; i < maxLength; i++) {
+      if (symbols[start + i] != otherSymbols[otherStart + i])
+        return i;
+    }
+    return maxLength;
+  }
+
+}
@@ -0,0 +1,84 @@
+package stringmatch.ds.text;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/*
+ * Karp-Rabin fingerprints modulo the Mersenne prime 2^61 - 1, with a base
+ * chosen at random when the class is loaded. The prefix fingerprint of a
+ * text t is
+ *   H[0] = 0,  H[i + 1] = H[i] * BASE + t[i]
+ * so the fingerprint of t[i, i + len) is H[i + len] - H[i] * BASE^len. Two
+ * different strings of the same length collide with probability at most
+ * len / 2^61.
+ */
+final class Fingerprints {
+
+  static final long MODULUS = (1L << 61) - 1;
+  static final long BASE = 256 + (new Random().nextLong() >>> 4) % (MODULUS - 512);
+
+  private static final long LOW_31 = (1L << 31) - 1;
+  private static final long LOW_30 = (1L << 30) - 1;
+
+  // powers[i] = BASE^i, grown as longer substrings are fingerprinted.
+  private static volatile long[] powers = { 1 };
+
+  private Fingerprints() { }
+
+  static long[] prefixes(SymbolStore symbols) {
+    long[] prefixes = new long[symbols.length() + 1];
+    for (int i = 0; i < symbols.length(); i++) {
+      prefixes[i + 1] = extend(prefixes[i], symbols.codeAt(i));
+    }
+    return prefixes;
+  }
+
+  static long extend(long prefix, int code) {
+    return reduce(multiply(prefix, BASE) + code);
+  }
+
+  // Fingerprint of the len symbols that start at start.
+  static long of(long[] prefixes, int start, int len) {
+    long shifted = multiply(prefixes[start], power(len));
+    long h = prefixes[start + len] - shifted;
+    return h < 0 ? h + MODULUS : h;
+  }
+
+  static long power(int n) {
+    long[] table = powers;
+    if (n < table.length)
+      return table[n];
+    return growPowers(n)[n];
+  }
+
+  private static synchronized long[] growPowers(int n) {
+    long[] table = powers;
+    if (n < table.length)
+      return table;
+    int oldLength = table.length;
+    table = Arrays.copyOf(table, Math.max(n + 1, 2 * oldLength));
+    for (int i = oldLength; i < table.length; i++) {
+      table[i] = multiply(table[i - 1], BASE);
+    }
+    powers = table;
+    return table;
+  }
+
+  // a * b mod MODULUS, for a, b < MODULUS, without 128-bit arithmetic.
+  static long multiply(long a, long b) {
+    long aHi = a >>> 31, aLo = a & LOW_31;
+    long bHi = b >>> 31, bLo = b & LOW_31;
+    long mid = aLo * bHi + aHi * bLo;
+    long low = reduce(aLo * bLo);
+    // aHi * bHi * 2^62 = 2 * aHi * bHi, and mid * 2^31 splits at 2^61.
+    long r = ((aHi * bHi) << 1) + (mid >>> 30) + ((mid & LOW_30) << 31) + low;
+    return reduce(r);
+  }
+
+  private static long reduce(long x) {
+    x = (x & MODULUS) + (x >>> 61);
+    x = (x & MODULUS) + (x >>> 61);
+    return x >= MODULUS ? x - MODULUS : x;
+  }
+
+}
@@ -0,0 +1,81 @@
+package stringmatch.ds.text;
+
+import java.util.Arrays;
+
+/*
+ * Stores one 32-bit code per symbol, for alphabets too large for a char
+ * (e.g., word IDs from a Vocabulary).
+ */
+final class IntSymbolStore extends SymbolStore {
+
+  private int[] symbols;
+  private int length;
+
+  IntSymbolStore(int capacity) {
+    symbols = new int[Math.max(capacity, 1)];
+    length = 0;
+  }
+
+  private IntSymbolStore(int[] symbols) {
+    this.symbols = symbols;
+    this.length = symbols.length;
+  }
+
+  @Override
+  Text.Encoding getEncoding() {
+    return Text.Encoding.INTS;
+  }
+
+  @Override
+  int length() {
+    return length;
+  }
+
+  @Override
+  int codeAt(int index) {
+    return symbols[index];
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > symbols.length) {
+      symbols = Arrays.copyOf(symbols,
+          Math.max(capacity, symbols.length + (symbols.length >> 1)));
+    }
+  }
+
+  @Override
+  void append(int code) {
+    ensureCapacity(length + 1);
+    symbols[length++] = code;
+  }
+
+  @Override
+  void truncate(int length) {
+    this.length = Math.min(length, this.length);
+  }
+
+  @Override
+  void trimToSize() {
+    if (symbols.length != length)
+      symbols = Arrays.copyOf(symbols, length);
+  }
+
+  @Override
+  SymbolStore copyOfRange(int start, int end) {
+    return new IntSymbolStore(Arrays.copyOfRange(symbols, start, end));
+  }
+
+  @Override
+  int commonPrefixLength(int start, SymbolStore other, int otherStart,
+      int maxLength) {
+    if (!(other instanceof IntSymbolStore))
+      return super.commonPrefixLength(start, other, otherStart, maxLength);
+    int[] otherSymbols = ((IntSymbolStore) other).symbols;
+    for (int i = 0; i < maxLength; i++) {
+      if (symbols[start + i] != otherSymbols[otherStart + i])
+        return i;
+    }
+    return maxLength;
+  }
+
+}
@@ -0,0 +1,265 @@
+package stringmatch.ds.text;
+
+import java.util.Arrays;
+
+/*
+ * Stores A/C/G/T in 2 bits per base, 32 bases per long. Base i lives in bits
+ * 2*(i % 32) and 2*(i % 32) + 1 of bases[i / 32]. The 2-bit values follow the
+ * order of the characters (A < C < G < T), so comparing packed values gives
+ * the same order as comparing codes.
+ *
+ * Any other symbol (N, the end sentinel, a wildcard in a pattern, ...) is an
+ * exception: its bit is set in the exceptional bitmap and its code is kept in
+ * a side table of runs. Genomes have few, long N runs, so the side table
+ * stays tiny.
+ */
+final class PackedDnaSymbolStore extends SymbolStore {
+
+  private static final int BASES_PER_WORD = 32;
+  private static final int[] BASE_CODES = { 'A', 'C', 'G', 'T' };
+  private static final int[] PACKED_VALUES = new int[128];
+  static {
+    Arrays.fill(PACKED_VALUES, -1);
+    for (int v = 0; v < BASE_CODES.length; v++) {
+      PACKED_VALUES[BASE_CODES[v]] = v;
+    }
+  }
+
+  private long[] bases;
+  private long[] exceptional;
+  private int length;
+
+  // Run r covers positions [runStarts[r], runStarts[r] + runLengths[r]) and
+  // holds the symbol runCodes[r]. Runs are ordered by start.
+  private int[] runStarts;
+  private int[] runLengths;
+  private int[] runCodes;
+  private int numRuns;
+
+  PackedDnaSymbolStore(int capacity) {
+    bases = new long[wordsFor(capacity, BASES_PER_WORD)];
+    exceptional = new long[wordsFor(capacity, 64)];
+    length = 0;
+    runStarts = new int[4];
+    runLengths = new int[4];
+    runCodes = new int[4];
+    numRuns = 0;
+  }
+
+  private static int wordsFor(int n, int perWord) {
+    return Math.max(1, (n + perWord - 1) / perWord);
+  }
+
+  @Override
+  Text.Encoding getEncoding() {
+    return Text.Encoding.PACKED_DNA;
+  }
+
+  @Override
+  int length() {
+    return length;
+  }
+
+  @Override
+  int codeAt(int index) {
+    if ((exceptional[index >>> 6] & (1L << index)) != 0)
+      return exceptionCodeAt(index);
+    return BASE_CODES[(int) (bases[index >>> 5] >>> (index << 1)) & 3];
+  }
+
+  private int exceptionCodeAt(int index) {
+    int lo = 0;
+    int hi = numRuns - 1;
+    while (lo < hi) {
+      int mid = (lo + hi + 1) >>> 1;
+      if (runStarts[mid] <= index)
+        lo = mid;
+      else
+        hi = mid - 1;
+    }
+    return runCodes[lo];
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (wordsFor(capacity, BASES_PER_WORD) > bases.length) {
+      int newCapacity = Math.max(capacity,
+          bases.length * BASES_PER_WORD * 3 / 2);
+      bases = Arrays.copyOf(bases, wordsFor(newCapacity, BASES_PER_WORD));
+      exceptional = Arrays.copyOf(exceptional, wordsFor(newCapacity, 64));
+    }
+  }
+
+  @Override
+  void append(int code) {
+    ensureCapacity(length + 1);
+    int i = length;
+    int packed = code >= 0 && code < PACKED_VALUES.length ? PACKED_VALUES[code] : -1;
+    bases[i >>> 5] &= ~(3L << (i << 1));
+    if (packed >= 0) {
+      bases[i >>> 5] |= ((long) packed) << (i << 1);
+      exceptional[i >>> 6] &= ~(1L << i);
+    } else {
+      exceptional[i >>> 6] |= 1L << i;
+      appendException(i, code);
+    }
+    length++;
+  }
+
+  private void appendException(int index, int code) {
+    if (numRuns > 0 && runCodes[numRuns - 1] == code
+        && runStarts[numRuns - 1] + runLengths[numRuns - 1] == index) {
+      runLengths[numRuns - 1]++;
+      return;
+    }
+    if (numRuns == runStarts.length) {
+      runStarts = Arrays.copyOf(runStarts, 2 * numRuns);
+      runLengths = Arrays.copyOf(runLengths, 2 * numRuns);
+      runCodes = Arrays.copyOf(runCodes, 2 * numRuns);
+    }
+    runStarts[numRuns] = index;
+    runLengths[numRuns] = 1;
+    runCodes[numRuns] = code;
+    numRuns++;
+  }
+
+  @Override
+  void truncate(int length) {
+    if (length >= this.length)
+      return;
+    this.length = length;
+    while (numRuns > 0 && runStarts[numRuns - 1] >= length) {
+      numRuns--;
+    }
+    if (numRuns > 0) {
+      runLengths[numRuns - 1] = Math.min(runLengths[numRuns - 1],
+          length - runStarts[numRuns - 1]);
+    }
+  }
+
+  @Override
+  void trimToSize() {
+    bases = Arrays.copyOf(bases, wordsFor(length, BASES_PER_WORD));
+    exceptional = Arrays.copyOf(exceptional, wordsFor(length, 64));
+    runStarts = Arrays.copyOf(runStarts, Math.max(numRuns, 1));
+    runLengths = Arrays.copyOf(runLengths, Math.max(numRuns, 1));
+    runCodes = Arrays.copyOf(runCodes, Math.max(numRuns, 1));
+  }
+
+  @Override
+  SymbolStore copyOfRange(int start, int end) {
+    PackedDnaSymbolStore copy = new PackedDnaSymbolStore(end - start);
+    for (int i = start; i < end; i++) {
+      copy.append(codeAt(i));
+    }
+    return copy;
+  }
+
+  // Returns the 32 packed bases starting at index. Bases past the end of the
+  // store come back as garbage and must be masked off by the caller.
+  private long wordAt(int index) {
+    int w = index >>> 5;
+    int shift = (index & 31) << 1;
+    long word = bases[w] >>> shift;
+    if (shift != 0 && w + 1 < bases.length)
+      word |= bases[w + 1] << (64 - shift);
+    return word;
+  }
+
+  // Returns the exceptional bits for the 32 positions starting at index.
+  private long exceptionalBitsAt(int index) {
+    int w = index >>> 6;
+    int shift = index & 63;
+    long bits = exceptional[w] >>> shift;
+    if (shift != 0 && w + 1 < exceptional.length)
+      bits |= exceptional[w + 1] << (64 - shift);
+    return bits & 0xFFFFFFFFL;
+  }
+
+  /*
+   * Compares 32 bases per step: XOR the packed words and find the first
+   * differing 2-bit lane with Long.numberOfTrailingZeros. Exceptional
+   * positions cut a step short and are compared by code.
+   */
+  @Override
+  int commonPrefixLength(int start, SymbolStore other, int otherStart,
+      int maxLength) {
+    if (!(other instanceof PackedDnaSymbolStore))
+      return super.commonPrefixLength(start, other, otherStart, maxLength);
+    PackedDnaSymbolStore o = (PackedDnaSymbolStore) other;
+
+    int matched = 0;
+    while (matched < maxLength) {
+      int i = start + matched;
+      int j = otherStart + matched;
+      int step = Math.min(BASES_PER_WORD, maxLength - matched);
+      long exceptions = exceptionalBitsAt(i) | o.exceptionalBitsAt(j);
+      int clean = Math.min(step, Long.numberOfTrailingZeros(exceptions));
+      if (clean == 0) {
+        if (codeAt(i) != o.codeAt(j))
+          return matched;
+        matched++;
+        continue;
+      }
+      long diff = wordAt(i) ^ o.wordAt(j);
+      if (clean < BASES_PER_WORD)
+        diff &= (1L << (clean << 1)) - 1;
+      if (diff != 0)
+        return matched + (Long.numberOfTrailingZeros(diff) >>> 1);
+      matched += clean;
+    }
+    return maxLength;
+  }
+
+  /*
+   * Same 32-bases-per-step kernel as commonPrefixLength, with the pattern's
+   * wildcard positions cleared from the XOR before looking for a mismatch.
+   * Wildcards are exceptions in a packed pattern, but they're covered by the
+   * mask and don't cut a step short; only exceptions in this store (N, '$',
+   * ...) and non-wildcard exceptions in the pattern are compared by code.
+   */
+  @Override
+  int matchLength(int start, SymbolStore other, int otherStart, int maxLength,
+      long[] wildcards) {
+    if (!(other instanceof PackedDnaSymbolStore))
+      return super.matchLength(start, other, otherStart, maxLength, wildcards);
+    PackedDnaSymbolStore o = (PackedDnaSymbolStore) other;
+
+    int matched = 0;
+    while (matched < maxLength) {
+      int i = start + matched;
+      int j = otherStart + matched;
+      int step = Math.min(BASES_PER_WORD, maxLength - matched);
+      long wild = bitsAt(wildcards, j) & 0xFFFFFFFFL;
+      long exceptions = exceptionalBitsAt(i) | (o.exceptionalBitsAt(j) & ~wild);
+      int clean = Math.min(step, Long.numberOfTrailingZeros(exceptions));
+      if (clean == 0) {
+        int code = codeAt(i);
+        if ((wild & 1) != 0 ? Alphabet.isTerminator(code) : code != o.codeAt(j))
+          return matched;
+        matched++;
+        continue;
+      }
+      long diff = wordAt(i) ^ o.wordAt(j);
+      // One bit per differing base, in the low bit of its lane.
+      diff = (diff | (diff >>> 1)) & 0x5555555555555555L;
+      diff &= ~spreadToLanes(wild);
+      if (clean < BASES_PER_WORD)
+        diff &= (1L << (clean << 1)) - 1;
+      if (diff != 0)
+        return matched + (Long.numberOfTrailingZeros(diff) >>> 1);
+      matched += clean;
+    }
+    return maxLength;
+  }
+
+  // Moves bit k of the low 32 bits of x to bit 2k.
+  private static long spreadToLanes(long x) {
+    x = (x | (x << 16)) & 0x0000FFFF0000FFFFL;
+    x = (x | (x << 8)) & 0x00FF00FF00FF00FFL;
+    x = (x | (x << 4)) & 0x0F0F0F0F0F0F0F0FL;
+    x = (x | (x << 2)) & 0x3333333333333333L;
+    x = (x | (x << 1)) & 0x5555555555555555L;
+    return x;
+  }
+
+}
@@ -0,0 +1,76 @@
+package stringmatch.ds.text;
+
+/*
+ * Keeps only the last symbols appended, in a circular buffer whose capacity
+ * is a power of two. Positions keep counting up as symbols are appended, so
+ * length() is the position of the next symbol, and only positions in
+ * [length() - capacity, length()) can be read. rebase() moves all positions
+ * down by a multiple of the capacity, so that they can keep counting up
+ * forever without overflowing.
+ */
+final class RingSymbolStore extends SymbolStore {
+
+  private final int[] symbols;
+  private final int mask;
+  private int length;
+
+  RingSymbolStore(int capacity) {
+    int size = 1;
+    while (size < capacity) {
+      size <<= 1;
+    }
+    symbols = new int[size];
+    mask = size - 1;
+    length = 0;
+  }
+
+  @Override
+  Text.Encoding getEncoding() {
+    return Text.Encoding.INTS;
+  }
+
+  int capacity() {
+    return symbols.length;
+  }
+
+  @Override
+  int length() {
+    return length;
+  }
+
+  @Override
+  int codeAt(int index) {
+    return symbols[index & mask];
+  }
+
+  @Override
+  void append(int code) {
+    symbols[length & mask] = code;
+    length++;
+  }
+
+  // Takes delta, a multiple of the capacity, off every position.
+  void rebase(int delta) {
+    if ((delta & mask) != 0 || delta > length)
+      throw new IllegalArgumentException("Can't rebase by " + delta);
+    length -= delta;
+  }
+
+  @Override
+  void truncate(int length) {
+    throw new UnsupportedOperationException("Can't truncate a ring buffer.");
+  }
+
+  @Override
+  void trimToSize() { }
+
+  @Override
+  SymbolStore copyOfRange(int start, int end) {
+    SymbolStore copy = new IntSymbolStore(end - start);
+    for (int i = start; i < end; i++) {
+      copy.append(codeAt(i));
+    }
+    return copy;
+  }
+
+}
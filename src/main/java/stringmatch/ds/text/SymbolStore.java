@@ -0,0 +1,102 @@
+package stringmatch.ds.text;
+
+/*
+ * Backing storage for the symbol codes of a Text. A store is appended to
+ * while the Text is being built and is treated as read-only afterwards
+ * (apart from Text.addEndCharIfNeeded() and Text.append(), which only ever
+ * add to the end).
+ */
+abstract class SymbolStore {
+
+  static SymbolStore create(Text.Encoding encoding, int capacity) {
+    switch (encoding) {
+    case PACKED_DNA:
+      return new PackedDnaSymbolStore(capacity);
+    case BYTES:
+      return new ByteSymbolStore(capacity);
+    case INTS:
+      return new IntSymbolStore(capacity);
+    case CHARACTERS:
+    default:
+      return new CharSymbolStore(capacity);
+    }
+  }
+
+  abstract Text.Encoding getEncoding();
+
+  abstract int length();
+
+  abstract int codeAt(int index);
+
+  abstract void append(int code);
+
+  void append(CharSequence s) {
+    for (int i = 0; i < s.length(); i++) {
+      append(s.charAt(i));
+    }
+  }
+
+  // Drops everything from position length onwards.
+  abstract void truncate(int length);
+
+  // Releases any spare capacity left over from appending.
+  abstract void trimToSize();
+
+  abstract SymbolStore copyOfRange(int start, int end);
+
+  /*
+   * Returns the number of positions, up to maxLength, for which the symbols
+   * starting at start in this store agree with the symbols starting at
+   * otherStart in other.
+   */
+  int commonPrefixLength(int start, SymbolStore other, int otherStart,
+      int maxLength) {
+    for (int i = 0; i < maxLength; i++) {
+      if (codeAt(start + i) != other.codeAt(otherStart + i))
+        return i;
+    }
+    return maxLength;
+  }
+
+  /*
+   * Like commonPrefixLength, except that a position where wildcards has its
+   * bit set (see Text.getWildcardMask()) matches any symbol of this store
+   * other than a terminator. The bits of wildcards are indexed by positions
+   * in other.
+   *
+   * This version jumps from mismatch to mismatch with commonPrefixLength;
+   * stores with a word-parallel kernel apply the mask a whole word at a time.
+   */
+  int matchLength(int start, SymbolStore other, int otherStart, int maxLength,
+      long[] wildcards) {
+    int matched = 0;
+    while (true) {
+      matched += commonPrefixLength(start + matched, other,
+          otherStart + matched, maxLength - matched);
+      if (matched == maxLength)
+        return matched;
+      if (!isSet(wildcards, otherStart + matched)
+          || Alphabet.isTerminator(codeAt(start + matched)))
+        return matched;
+      matched++;
+    }
+  }
+
+  static boolean isSet(long[] bits, int index) {
+    int w = index >>> 6;
+    return w < bits.length && (bits[w] & (1L << index)) != 0;
+  }
+
+  // Returns the 64 bits of bits starting at index (zero past the end).
+  static long bitsAt(long[] bits, int index) {
+    int w = index >>> 6;
+    if (w >= bits.length)
+      return 0;
+    int shift = index & 63;
+    long word = bits[w] >>> shift;
+    if (shift != 0 && w + 1 < bits.length)
+      word |= bits[w + 1] << (64 - shift);
+    return word;
+  }
+
+}
@@ -1,141 +1,398 @@
 package stringmatch.ds.text;
 
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
 
 public class Text {
 
-  private final List<AlphabetCharacter> text;
-  
+  /*
+   * How the symbols of a Text are laid out in memory.
+   */
+  public enum Encoding {
+    // One 16-bit code per symbol; works for any alphabet of chars.
+    CHARACTERS,
+    // A/C/G/T packed into 2 bits each, with anything else (N, '$', '*')
+    // kept in a side table. Meant for genomes.
+    PACKED_DNA,
+    // One byte per symbol, for alphabets whose codes are all below 256. This
+    // is the encoding of texts that wrap a direct or memory-mapped buffer.
+    BYTES,
+    // One 32-bit code per symbol, for token alphabets (codes from
+    // Alphabet.TOKEN_BASE up) such as the words of a Vocabulary.
+    INTS
+  }
+
+  // Each symbol is stored as its primitive code (see AlphabetCharacter.getCode()),
+  // so reading a position never has to go through an object.
+  private final SymbolStore symbols;
+  // Bit i is set if symbol i is a wildcard; computed the first time this
+  // text is used as a pattern.
+  private long[] wildcardMask;
+  // Karp-Rabin prefix fingerprints (see Fingerprints), or null if they
+  // haven't been asked for.
+  private long[] prefixFingerprints;
+
+  // Below this length comparing symbols directly beats comparing fingerprints.
+  private static final int MIN_FINGERPRINT_LENGTH = 16;
+
   private Text(Builder builder) {
-    this.text = builder.text;
+    builder.symbols.trimToSize();
+    this.symbols = builder.symbols;
+    builder.symbols = SymbolStore.create(symbols.getEncoding(), 16);
   }
-  
+
+  private Text(SymbolStore symbols) {
+    this.symbols = symbols;
+  }
+
   public Text(AlphabetCharacter ac) {
-    Builder builder = new Builder();
-    builder.addAlphabetCharacter(ac);
-    this.text = builder.text;
+    this(SymbolStore.create(Alphabet.isToken(ac.getCode())
+        ? Encoding.INTS : Encoding.CHARACTERS, 1));
+    symbols.append(ac.getCode());
   }
-  
+
   public Text(String s, boolean endChar) {
-	  Builder builder = new Builder();
-	  for (char c : s.toCharArray()) {
-	    builder.addAlphabetCharacter(new AlphabetCharacter(new Character(c)));
-	  }
-	  if (endChar) {
-	    builder.addAlphabetCharacter(AlphabetCharacter.END_CHAR);
-	  }
-	  this.text = builder.text;
-  }
-  
+    this(s, endChar, Encoding.CHARACTERS);
+  }
+
+  public Text(String s, boolean endChar, Encoding encoding) {
+    this(SymbolStore.create(encoding, endChar ? s.length() + 1 : s.length()));
+    symbols.append(s);
+    if (endChar) {
+      symbols.append(Alphabet.END_CODE);
+    }
+  }
+
+  /*
+   * Returns a Text (with encoding BYTES) whose symbols are the remaining
+   * bytes of buffer, one per symbol. Nothing is copied, so buffer can be a
+   * memory-mapped file larger than the heap. The buffer must not be modified
+   * afterwards.
+   */
+  public static Text wrap(ByteBuffer buffer) {
+    return new Text(new ByteSymbolStore(buffer));
+  }
+
+  /*
+   * Returns an empty text that only keeps its last capacity (rounded up to a
+   * power of two) symbols, for indexing a window over a stream. Positions
+   * keep counting from the start of the stream: getLength() is the position
+   * of the next symbol to be appended, and only the last capacity positions
+   * can be read. Use rebase() to keep the positions from overflowing. Don't
+   * compute fingerprints of a ring text.
+   */
+  public static Text ring(int capacity) {
+    return new Text(new RingSymbolStore(capacity));
+  }
+
+  /*
+   * For a ring text, the number of symbols it keeps.
+   */
+  public int getRingCapacity() {
+    return ringSymbols().capacity();
+  }
+
+  /*
+   * For a ring text, takes delta, a multiple of getRingCapacity(), off every
+   * position, so that position i becomes position i - delta.
+   */
+  public void rebase(int delta) {
+    ringSymbols().rebase(delta);
+  }
+
+  private RingSymbolStore ringSymbols() {
+    if (!(symbols instanceof RingSymbolStore))
+      throw new IllegalStateException("Not a ring text.");
+    return (RingSymbolStore) symbols;
+  }
+
+  public Encoding getEncoding() {
+    return symbols.getEncoding();
+  }
+
+  /*
+   * Returns a read-only view of the text as AlphabetCharacters. Prefer
+   * codeAt() on hot paths.
+   */
   public List<AlphabetCharacter> getList() {
-    return text;
+    return new AbstractList<AlphabetCharacter>() {
+      @Override
+      public AlphabetCharacter get(int index) {
+        return getCharAtIndex(index);
+      }
+
+      @Override
+      public int size() {
+        return getLength();
+      }
+    };
   }
-  
+
   public int getLength() {
-    return text.size();
+    return symbols.length();
   }
-  
+
   public AlphabetCharacter getCharAtIndex(int index) {
-    if (index < 0 || index >= text.size())
+    if (index < 0 || index >= symbols.length())
       throw new IllegalArgumentException();
-    return text.get(index);
+    return Alphabet.forCode(symbols.codeAt(index));
+  }
+
+  /*
+   * Returns the code of the symbol at index, without going through an
+   * AlphabetCharacter.
+   */
+  public int codeAt(int index) {
+    return symbols.codeAt(index);
+  }
+
+  /*
+   * Returns the number of positions, up to maxLength, for which this text
+   * starting at start agrees with other starting at otherStart. Both ranges
+   * must have at least maxLength symbols. When both texts are PACKED_DNA this
+   * compares 32 bases at a time.
+   */
+  public int commonPrefixLength(int start, Text other, int otherStart,
+      int maxLength) {
+    return symbols.commonPrefixLength(start, other.symbols, otherStart,
+        maxLength);
+  }
+
+  /*
+   * Computes the prefix fingerprints of this text, so that regionEquals can
+   * compare long ranges in constant time. Costs one long per symbol.
+   */
+  public Text computeFingerprints() {
+    if (prefixFingerprints == null)
+      prefixFingerprints = Fingerprints.prefixes(symbols);
+    return this;
   }
-  
+
+  public boolean hasFingerprints() {
+    return prefixFingerprints != null;
+  }
+
+  /*
+   * Returns the Karp-Rabin fingerprint of the length symbols starting at
+   * start. computeFingerprints() must have been called.
+   */
+  public long fingerprint(int start, int length) {
+    if (prefixFingerprints == null)
+      throw new IllegalStateException("Fingerprints have not been computed.");
+    return Fingerprints.of(prefixFingerprints, start, length);
+  }
+
+  /*
+   * Returns true if the length symbols starting at start equal the length
+   * symbols of other starting at otherStart. If both texts have
+   * fingerprints, unequal ranges are rejected in constant time and only a
+   * fingerprint match is verified symbol by symbol.
+   */
+  public boolean regionEquals(int start, Text other, int otherStart,
+      int length) {
+    if (length >= MIN_FINGERPRINT_LENGTH && prefixFingerprints != null
+        && other.prefixFingerprints != null
+        && Fingerprints.of(prefixFingerprints, start, length)
+            != Fingerprints.of(other.prefixFingerprints, otherStart, length))
+      return false;
+    return commonPrefixLength(start, other, otherStart, length) == length;
+  }
+
+  /*
+   * Same as commonPrefixLength, except that a wildcard in pattern matches any
+   * symbol of this text other than END_CHAR and SEPARATOR. The wildcard
+   * positions come from a mask computed once per pattern, so the word-at-a-
+   * time kernels don't have to test each symbol for a wildcard.
+   */
+  public int matchLength(int start, Text pattern, int patternStart,
+      int maxLength) {
+    long[] wildcards = pattern.getWildcardMask();
+    if (wildcards.length == 0)
+      return commonPrefixLength(start, pattern, patternStart, maxLength);
+    return symbols.matchLength(start, pattern.symbols, patternStart,
+        maxLength, wildcards);
+  }
+
+  /*
+   * Returns a bitmap with bit i set if symbol i is a wildcard. The array is
+   * empty if there are no wildcards at all.
+   */
+  long[] getWildcardMask() {
+    if (wildcardMask == null) {
+      long[] mask = new long[0];
+      for (int i = 0; i < getLength(); i++) {
+        if (codeAt(i) == Alphabet.WILDCARD_CODE) {
+          if (mask.length == 0)
+            mask = new long[(getLength() + 63) >>> 6];
+          mask[i >>> 6] |= 1L << i;
+        }
+      }
+      wildcardMask = mask;
+    }
+    return wildcardMask;
+  }
+
   public Text extractSubstring(int start, int end) {
-    if (text.size() == 0 || start >= text.size() || end <= start
-        || end > text.size())
+    int length = getLength();
+    if (length == 0 || start >= length || end <= start || end > length)
       throw new IllegalArgumentException();
-    
-    return (new Builder()).addAlphabetCharacters(
-        text.subList(start, end)).build();
+
+    return new Text(symbols.copyOfRange(start, end));
   }
-  
+
   public Text addEndCharIfNeeded() {
-    if (!getCharAtIndex(getLength() - 1).equals(AlphabetCharacter.END_CHAR))
-      text.add(AlphabetCharacter.END_CHAR);
+    if (codeAt(getLength() - 1) != Alphabet.END_CODE) {
+      symbols.append(Alphabet.END_CODE);
+      symbols.trimToSize();
+      if (prefixFingerprints != null) {
+        int n = getLength();
+        prefixFingerprints = Arrays.copyOf(prefixFingerprints, n + 1);
+        prefixFingerprints[n] = Fingerprints.extend(prefixFingerprints[n - 1],
+            Alphabet.END_CODE);
+      }
+    }
+    return this;
+  }
+
+  /*
+   * Adds the symbols of other to the end of this text, for a text that is
+   * indexed while it grows (see AppendableSuffixTree). Fingerprints are
+   * extended if they have been computed. Anything holding a view of a range
+   * of this text still sees the same symbols there.
+   */
+  public Text append(Text other) {
+    int m = other.getLength();
+    for (int i = 0; i < m; i++) {
+      append(other.codeAt(i));
+    }
+    return this;
+  }
+
+  // Adds one symbol to the end of this text; see append(Text).
+  public Text append(int code) {
+    int n = getLength();
+    symbols.append(code);
+    if (prefixFingerprints != null) {
+      if (prefixFingerprints.length < n + 2)
+        prefixFingerprints = Arrays.copyOf(prefixFingerprints,
+            Math.max(n + 2, 2 * prefixFingerprints.length));
+      prefixFingerprints[n + 1] = Fingerprints.extend(prefixFingerprints[n],
+          code);
+    }
+    wildcardMask = null;
     return this;
   }
-  
+
   public boolean equalsIgnoreWildcards(Text o) {
     if (getLength() != o.getLength())
       return false;
-    
+
     for (int i = 0; i < getLength(); i++) {
-      if (getCharAtIndex(i).equals(AlphabetCharacter.WILDCARD) ||
-          o.getCharAtIndex(i).equals(AlphabetCharacter.WILDCARD))
+      int c = codeAt(i);
+      int oc = o.codeAt(i);
+      if (c == Alphabet.WILDCARD_CODE || oc == Alphabet.WILDCARD_CODE)
         continue;
-      if (!getCharAtIndex(i).equals(o.getCharAtIndex(i)))
+      if (c != oc)
         return false;
     }
-    
+
     return true;
   }
-  
+
   public boolean equals(Object obj) {
-    if (obj instanceof Text)
-      return ((Text)obj).text.equals(text);
-    else
+    if (obj instanceof Text) {
+      Text o = (Text) obj;
+      return getLength() == o.getLength() &&
+          commonPrefixLength(0, o, 0, getLength()) == getLength();
+    } else {
       return false;
+    }
   }
-  
+
   public int hashCode() {
-    return text.hashCode();
+    int hash = 1;
+    for (int i = 0; i < getLength(); i++) {
+      hash = 31 * hash + codeAt(i);
+    }
+    return hash;
   }
-  
+
   public String toString() {
-    StringBuilder sb = new StringBuilder();
-    for (AlphabetCharacter ac : text) {
-      sb.append(ac.toString());
+    StringBuilder sb = new StringBuilder(getLength());
+    for (int i = 0; i < getLength(); i++) {
+      Alphabet.appendSymbol(sb, codeAt(i));
     }
     return sb.toString();
   }
-  
+
   public int getSize() {
-	  return text.size();
+	  return getLength();
   }
-  
+
   public static class Builder {
-    private List<AlphabetCharacter> text;
-    
+    private SymbolStore symbols;
+
     public Builder() {
-      text = new ArrayList<AlphabetCharacter>();
+      this(Encoding.CHARACTERS);
     }
-    
+
+    public Builder(Encoding encoding) {
+      symbols = SymbolStore.create(encoding, 16);
+    }
+
     public Builder addAlphabetCharacter(AlphabetCharacter ac) {
-      text.add(ac);
+      symbols.append(ac.getCode());
       return this;
     }
-    
+
     public Builder addAlphabetCharacters(List<AlphabetCharacter> acs) {
-      text.addAll(acs);
+      for (AlphabetCharacter ac : acs) {
+        symbols.append(ac.getCode());
+      }
       return this;
     }
-    
-    public Builder addString(String s) {
-      List<AlphabetCharacter> l = new ArrayList<AlphabetCharacter>();
-      for (Character c : s.toCharArray()) {
-        l.add(new AlphabetCharacter(c));
+
+    public Builder addCode(int code) {
+      symbols.append(code);
+      return this;
+    }
+
+    // Copies the symbols of substring without going through chars, so this
+    // works for any alphabet.
+    public Builder addTextSubstring(TextSubstring substring) {
+      for (int i = 0; i < substring.length; i++) {
+        symbols.append(substring.codeAt(i));
       }
-      return addAlphabetCharacters(l);
+      return this;
+    }
+
+    public Builder addString(String s) {
+      symbols.append(s);
+      return this;
     }
-    
+
     public int getCurrentSize() {
-      return text.size();
+      return symbols.length();
     }
-    
+
     public void cutToSize(int n) {
-      text = text.subList(0, Math.min(n, text.size()));
+      symbols.truncate(n);
     }
-    
+
     public Text build() {
       return new Text(this);
     }
-    
+
   }
-  
+
   public int compareTo(Text other) {
-    return this.toString().compareTo(other.toString());
+    int minLength = Math.min(getLength(), other.getLength());
+    int common = commonPrefixLength(0, other, 0, minLength);
+    if (common < minLength)
+      return codeAt(common) - other.codeAt(common);
+    return getLength() - other.getLength();
   }
-  
+
 }
@@ -1,5 +1,12 @@
 package stringmatch.ds.text;
 
+import java.util.AbstractList;
+import java.util.List;
+
+/*
+ * A view of text[start, start + length). Reading from it (charAt, codeAt,
+ * regionMatches, mismatchIndex, ...) never copies or allocates.
+ */
 public class TextSubstring implements Comparable<TextSubstring> {
 
   public static final TextSubstring END_CHAR = new TextSubstring(
@@ -28,14 +35,36 @@ public class TextSubstring implements Comparable<TextSubstring> {
     if (length == 0) {
       return "";
     } else {
-      return getSubstringAsText().toString();
+      StringBuilder sb = new StringBuilder(length);
+      for (int i = 0; i < length; i++) {
+        Alphabet.appendSymbol(sb, codeAt(i));
+      }
+      return sb.toString();
     }
   }
   
+  // Makes a copy. Use the view methods below where possible.
   public Text getSubstringAsText() {
     return text.extractSubstring(start, start + length);
   }
   
+  // Read-only view of the characters, without copying.
+  public List<AlphabetCharacter> asList() {
+    return new AbstractList<AlphabetCharacter>() {
+      @Override
+      public AlphabetCharacter get(int index) {
+        if (index < 0 || index >= length)
+          throw new IndexOutOfBoundsException();
+        return getIthChar(index);
+      }
+      
+      @Override
+      public int size() {
+        return length;
+      }
+    };
+  }
+  
   public AlphabetCharacter getFirstChar() {
     return text.getCharAtIndex(start);
   }
@@ -49,6 +78,35 @@ public class TextSubstring implements Comparable<TextSubstring> {
     return text.getCharAtIndex(start + i);
   }
   
+  // Same as getIthChar(i), but returns the primitive symbol code.
+  public int codeAt(int i) {
+    return text.codeAt(start + i);
+  }
+  
+  // A view of [from, to) of this substring, without copying.
+  public TextSubstring substring(int from, int to) {
+    if (from < 0 || to > length || from > to)
+      throw new IndexOutOfBoundsException();
+    return new TextSubstring(text, start + from, to - from);
+  }
+  
+  /*
+   * Returns true if the first len characters of this substring equal
+   * pattern[pStart, pStart + len). len must be at most getLength().
+   */
+  public boolean regionMatches(Text pattern, int pStart, int len) {
+    return text.commonPrefixLength(start, pattern, pStart, len) == len;
+  }
+  
+  /*
+   * Returns the first index i < len at which this substring differs from
+   * pattern[pStart + i], or -1 if the first len characters all match.
+   */
+  public int mismatchIndex(Text pattern, int pStart, int len) {
+    int matched = text.commonPrefixLength(start, pattern, pStart, len);
+    return matched == len ? -1 : matched;
+  }
+  
   public int getStartIndex() {
     return start;
   }
@@ -93,15 +151,8 @@ public class TextSubstring implements Comparable<TextSubstring> {
   }
   
   public int commonPrefixLength(TextSubstring o) {
-    int prefixLength = 0;
     int minLength = length < o.length ? length : o.length;
-    for (int i = 0; i < minLength; i++) {
-      if (getIthChar(i).equals(o.getIthChar(i)))
-        prefixLength++;
-      else
-        break;
-    }
-    return prefixLength;
+    return text.commonPrefixLength(start, o.text, o.start, minLength);
   }
   
   public int hashCode() {
@@ -112,11 +163,9 @@ public class TextSubstring implements Comparable<TextSubstring> {
   @Override
   public int compareTo(TextSubstring o) {
     int minLength = length < o.length ? length : o.length; 
-    for (int i = 0; i < minLength; i++) {
-      int c = getIthChar(i).compareTo(o.getIthChar(i));
-      if (c != 0)
-        return c;
-    }
+    int common = text.commonPrefixLength(start, o.text, o.start, minLength);
+    if (common < minLength)
+      return codeAt(common) - o.codeAt(common);
     if (length < o.length)
       return -1;
     else if (length > o.length)
@@ -0,0 +1,95 @@
+package stringmatch.ds.text;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Assigns each distinct word a token code, Alphabet.TOKEN_BASE + id, where
+ * ids are handed out in order of first appearance. Indexing a text of tokens
+ * instead of characters makes the text (and so the tree) shorter by the
+ * average word length, and a wildcard then stands for any single word.
+ */
+public class Vocabulary {
+
+  // The word that stands for a wildcard in tokenized queries.
+  public static final String WILDCARD_WORD = "*";
+
+  private final Map<String, Integer> codes;
+  private final List<String> words;
+
+  public Vocabulary() {
+    codes = new HashMap<String, Integer>();
+    words = new ArrayList<String>();
+  }
+
+  public int size() {
+    return words.size();
+  }
+
+  /*
+   * Returns the token code of word, adding it to the vocabulary if needed.
+   */
+  public int getCode(String word) {
+    if (word.equals(WILDCARD_WORD))
+      return Alphabet.WILDCARD_CODE;
+    Integer code = codes.get(word);
+    if (code == null) {
+      code = Alphabet.TOKEN_BASE + words.size();
+      codes.put(word, code);
+      words.add(word);
+    }
+    return code;
+  }
+
+  /*
+   * Returns the token code of word, or -1 if it isn't in the vocabulary.
+   */
+  public int lookup(String word) {
+    if (word.equals(WILDCARD_WORD))
+      return Alphabet.WILDCARD_CODE;
+    Integer code = codes.get(word);
+    return code == null ? -1 : code;
+  }
+
+  public String getWord(int code) {
+    if (code == Alphabet.WILDCARD_CODE)
+      return WILDCARD_WORD;
+    if (code == Alphabet.END_CODE)
+      return AlphabetCharacter.END_CHAR.toString();
+    if (!Alphabet.isToken(code) || code - Alphabet.TOKEN_BASE >= words.size())
+      throw new IllegalArgumentException("Not a word in this vocabulary: " + code);
+    return words.get(code - Alphabet.TOKEN_BASE);
+  }
+
+  /*
+   * Turns whitespace-separated words into a Text of tokens (with encoding
+   * INTS). A "*" word becomes a wildcard. Words that haven't been seen are
+   * added to the vocabulary.
+   */
+  public Text tokenize(String s, boolean endChar) {
+    Text.Builder tb = new Text.Builder(Text.Encoding.INTS);
+    for (String word : s.trim().split("\\s+")) {
+      if (word.length() > 0)
+        tb.addCode(getCode(word));
+    }
+    if (endChar)
+      tb.addAlphabetCharacter(AlphabetCharacter.END_CHAR);
+    return tb.build();
+  }
+
+  /*
+   * Turns a Text of tokens back into space-separated words.
+   */
+  public String toWords(Text t) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < t.getLength(); i++) {
+      if (i > 0)
+        sb.append(' ');
+      sb.append(getWord(t.codeAt(i)));
+    }
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,495 @@
+package stringmatch.ds.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * An immutable set of text offsets, such as the occurrences of a pattern,
+ * kept in whichever of three forms is smallest:
+ *   ARRAY:  the offsets, sorted (32 bits each),
+ *   RUNS:   the runs of consecutive offsets, as [start, end) pairs (64 bits
+ *           a run), for periodic text, where matches come in runs,
+ *   BITMAP: one bit per offset between the smallest and the largest (one
+ *           bit per position), for patterns that match almost everywhere.
+ * Offsets are never boxed: a Builder takes them one at a time or straight
+ * from an int[], a Cursor hands them back in increasing (text) order, and
+ * union() and intersect() combine sets without going through Integers.
+ */
+public abstract class MatchSet {
+
+  public static final int NONE = -1;
+
+  public enum Representation {
+    ARRAY, RUNS, BITMAP
+  }
+
+  /*
+   * Goes through a set in increasing order. next() returns NONE once there
+   * is nothing left.
+   */
+  public interface Cursor {
+    int next();
+  }
+
+  private static final MatchSet EMPTY = new ArrayMatchSet(new int[0]);
+
+  public abstract int size();
+
+  public abstract boolean contains(int offset);
+
+  public abstract Cursor cursor();
+
+  public abstract Representation getRepresentation();
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  public int[] toArray() {
+    int[] offsets = new int[size()];
+    Cursor cursor = cursor();
+    for (int i = 0; i < offsets.length; i++) {
+      offsets[i] = cursor.next();
+    }
+    return offsets;
+  }
+
+  // The offsets as a list, in increasing order, for the callers that want
+  // one.
+  public List<Integer> toList() {
+    List<Integer> offsets = new ArrayList<Integer>(size());
+    Cursor cursor = cursor();
+    for (int offset = cursor.next(); offset != NONE; offset = cursor.next()) {
+      offsets.add(offset);
+    }
+    return offsets;
+  }
+
+  /*
+   * The offsets in this set or other (e.g., the matches down two branches
+   * of a wildcard), by a merge of the two, or by or-ing the words of two
+   * bitmaps.
+   */
+  public MatchSet union(MatchSet other) {
+    if (other.isEmpty())
+      return this;
+    if (isEmpty())
+      return other;
+    if (this instanceof BitmapMatchSet && other instanceof BitmapMatchSet)
+      return ((BitmapMatchSet) this).combine((BitmapMatchSet) other, true);
+    return merge(other);
+  }
+
+  // The union of two non-empty sets, by a merge of their cursors.
+  MatchSet merge(MatchSet other) {
+    int[] merged = new int[size() + other.size()];
+    int n = 0;
+    Cursor a = cursor();
+    Cursor b = other.cursor();
+    int x = a.next();
+    int y = b.next();
+    while (x != NONE || y != NONE) {
+      if (y == NONE || (x != NONE && x < y)) {
+        merged[n++] = x;
+        x = a.next();
+      } else {
+        if (x == y)
+          x = a.next();
+        merged[n++] = y;
+        y = b.next();
+      }
+    }
+    return fromSorted(merged, n);
+  }
+
+  /*
+   * The offsets in both this set and other. Goes through the smaller set
+   * and looks each offset up in the larger one.
+   */
+  public MatchSet intersect(MatchSet other) {
+    if (this instanceof BitmapMatchSet && other instanceof BitmapMatchSet)
+      return ((BitmapMatchSet) this).combine((BitmapMatchSet) other, false);
+    MatchSet small = size() <= other.size() ? this : other;
+    MatchSet large = small == this ? other : this;
+    int[] common = new int[small.size()];
+    int n = 0;
+    Cursor cursor = small.cursor();
+    for (int offset = cursor.next(); offset != NONE; offset = cursor.next()) {
+      if (large.contains(offset))
+        common[n++] = offset;
+    }
+    return fromSorted(common, n);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof MatchSet))
+      return false;
+    MatchSet other = (MatchSet) obj;
+    if (size() != other.size())
+      return false;
+    Cursor a = cursor();
+    Cursor b = other.cursor();
+    for (int x = a.next(); x != NONE; x = a.next()) {
+      if (x != b.next())
+        return false;
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int hash = 1;
+    Cursor cursor = cursor();
+    for (int offset = cursor.next(); offset != NONE; offset = cursor.next()) {
+      hash = 31 * hash + offset;
+    }
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    return toList().toString();
+  }
+
+  public static MatchSet empty() {
+    return EMPTY;
+  }
+
+  public static MatchSet of(int... offsets) {
+    return new Builder().add(offsets, 0, offsets.length).build();
+  }
+
+  // The offsets [from, to).
+  public static MatchSet range(int from, int to) {
+    if (from >= to)
+      return EMPTY;
+    return new RunMatchSet(new int[] { from }, new int[] { to - 1 }, to - from);
+  }
+
+  /*
+   * Makes a set from the first n of offsets, which are sorted and distinct,
+   * in the smallest of the three forms.
+   */
+  static MatchSet fromSorted(int[] offsets, int n) {
+    if (n == 0)
+      return EMPTY;
+    int runs = 1;
+    for (int i = 1; i < n; i++) {
+      if (offsets[i] != offsets[i - 1] + 1)
+        runs++;
+    }
+    long span = (long) offsets[n - 1] - (offsets[0] & ~63) + 1;
+    long bitmapInts = 2 * ((span + 63) / 64);
+    if (n <= 2 * runs && n <= bitmapInts)
+      return new ArrayMatchSet(Arrays.copyOf(offsets, n));
+    if (2 * runs <= bitmapInts) {
+      int[] starts = new int[runs];
+      int[] lasts = new int[runs];
+      int r = 0;
+      starts[0] = offsets[0];
+      for (int i = 1; i < n; i++) {
+        if (offsets[i] != offsets[i - 1] + 1) {
+          lasts[r++] = offsets[i - 1];
+          starts[r] = offsets[i];
+        }
+      }
+      lasts[r] = offsets[n - 1];
+      return new RunMatchSet(starts, lasts, n);
+    }
+    int base = offsets[0] & ~63;
+    long[] words = new long[(int) ((span + 63) / 64)];
+    for (int i = 0; i < n; i++) {
+      int bit = offsets[i] - base;
+      words[bit >>> 6] |= 1L << bit;
+    }
+    return new BitmapMatchSet(base, words, n);
+  }
+
+  /*
+   * Makes a set from a bitmap of offsets base + i, which may have empty
+   * words at either end, in the smallest of the three forms.
+   */
+  static MatchSet fromBitmap(int base, long[] words) {
+    int first = 0;
+    while (first < words.length && words[first] == 0) {
+      first++;
+    }
+    if (first == words.length)
+      return EMPTY;
+    int last = words.length - 1;
+    while (words[last] == 0) {
+      last--;
+    }
+    int n = 0;
+    int runs = 0;
+    long carry = 0;
+    for (int w = first; w <= last; w++) {
+      n += Long.bitCount(words[w]);
+      // A run starts at each set bit whose lower neighbor isn't set.
+      runs += Long.bitCount(words[w] & ~(words[w] << 1 | carry));
+      carry = words[w] >>> 63;
+    }
+    long bitmapInts = 2L * (last - first + 1);
+    if (n <= bitmapInts || 2L * runs <= bitmapInts) {
+      int[] offsets = new int[n];
+      int i = 0;
+      for (int w = first; w <= last; w++) {
+        for (long bits = words[w]; bits != 0; bits &= bits - 1) {
+          offsets[i++] = base + 64 * w + Long.numberOfTrailingZeros(bits);
+        }
+      }
+      return fromSorted(offsets, n);
+    }
+    return new BitmapMatchSet(base + 64 * first,
+        Arrays.copyOfRange(words, first, last + 1), n);
+  }
+
+  /*
+   * Collects offsets in any order, with repeats, and builds the set. When
+   * the offsets cover much of their span they are set in a bitmap instead
+   * of being sorted.
+   */
+  public static class Builder {
+    private int[] offsets = new int[16];
+    private int size = 0;
+    private int min = Integer.MAX_VALUE;
+    private int max = -1;
+
+    public Builder add(int offset) {
+      if (offset < 0)
+        throw new IllegalArgumentException("Offsets can't be negative.");
+      if (size == offsets.length)
+        offsets = Arrays.copyOf(offsets, 2 * size);
+      offsets[size++] = offset;
+      min = Math.min(min, offset);
+      max = Math.max(max, offset);
+      return this;
+    }
+
+    // Adds offsets[from, to).
+    public Builder add(int[] offsets, int from, int to) {
+      if (size + to - from > this.offsets.length)
+        this.offsets = Arrays.copyOf(this.offsets,
+            Math.max(2 * this.offsets.length, size + to - from));
+      for (int i = from; i < to; i++) {
+        int offset = offsets[i];
+        if (offset < 0)
+          throw new IllegalArgumentException("Offsets can't be negative.");
+        this.offsets[size++] = offset;
+        min = Math.min(min, offset);
+        max = Math.max(max, offset);
+      }
+      return this;
+    }
+
+    public int getCurrentSize() {
+      return size;
+    }
+
+    public MatchSet build() {
+      if (size == 0)
+        return EMPTY;
+      long span = (long) max - min + 1;
+      if (size >= span / 32) {
+        int base = min & ~63;
+        long[] words = new long[(max - base) / 64 + 1];
+        for (int i = 0; i < size; i++) {
+          int bit = offsets[i] - base;
+          words[bit >>> 6] |= 1L << bit;
+        }
+        return fromBitmap(base, words);
+      }
+      int[] sorted = Arrays.copyOf(offsets, size);
+      Arrays.sort(sorted);
+      int n = 1;
+      for (int i = 1; i < size; i++) {
+        if (sorted[i] != sorted[n - 1])
+          sorted[n++] = sorted[i];
+      }
+      return fromSorted(sorted, n);
+    }
+  }
+
+  private static final class ArrayMatchSet extends MatchSet {
+    private final int[] offsets;
+
+    private ArrayMatchSet(int[] offsets) {
+      this.offsets = offsets;
+    }
+
+    @Override
+    public int size() {
+      return offsets.length;
+    }
+
+    @Override
+    public boolean contains(int offset) {
+      return Arrays.binarySearch(offsets, offset) >= 0;
+    }
+
+    @Override
+    public Cursor cursor() {
+      return new Cursor() {
+        private int i = 0;
+
+        @Override
+        public int next() {
+          return i < offsets.length ? offsets[i++] : NONE;
+        }
+      };
+    }
+
+    @Override
+    public Representation getRepresentation() {
+      return Representation.ARRAY;
+    }
+
+    @Override
+    public int[] toArray() {
+      return offsets.clone();
+    }
+  }
+
+  private static final class RunMatchSet extends MatchSet {
+    // Run i is [starts[i], lasts[i]]. The last offset is kept rather than one
+    // past it, which would overflow for a run that ends at MAX_VALUE.
+    private final int[] starts;
+    private final int[] lasts;
+    private final int size;
+
+    private RunMatchSet(int[] starts, int[] lasts, int size) {
+      this.starts = starts;
+      this.lasts = lasts;
+      this.size = size;
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public boolean contains(int offset) {
+      int i = Arrays.binarySearch(starts, offset);
+      if (i >= 0)
+        return true;
+      i = -i - 2;
+      return i >= 0 && offset <= lasts[i];
+    }
+
+    @Override
+    public Cursor cursor() {
+      return new Cursor() {
+        private int run = 0;
+        private int next = starts[0];
+
+        @Override
+        public int next() {
+          if (run == starts.length)
+            return NONE;
+          int offset = next;
+          if (offset != lasts[run])
+            next++;
+          else if (++run < starts.length)
+            next = starts[run];
+          return offset;
+        }
+      };
+    }
+
+    @Override
+    public Representation getRepresentation() {
+      return Representation.RUNS;
+    }
+  }
+
+  private static final class BitmapMatchSet extends MatchSet {
+    // Bit i of words[w] is offset base + 64 * w + i. base is a multiple of
+    // 64, so that two bitmaps line up word for word.
+    private final int base;
+    private final long[] words;
+    private final int size;
+
+    private BitmapMatchSet(int base, long[] words, int size) {
+      this.base = base;
+      this.words = words;
+      this.size = size;
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public boolean contains(int offset) {
+      long bit = (long) offset - base;
+      if (bit < 0 || bit >= 64L * words.length)
+        return false;
+      return (words[(int) (bit >>> 6)] & (1L << bit)) != 0;
+    }
+
+    @Override
+    public Cursor cursor() {
+      return new Cursor() {
+        private int w = 0;
+        private long bits = words[0];
+
+        @Override
+        public int next() {
+          while (bits == 0) {
+            if (++w == words.length)
+              return NONE;
+            bits = words[w];
+          }
+          int offset = base + 64 * w + Long.numberOfTrailingZeros(bits);
+          bits &= bits - 1;
+          return offset;
+        }
+      };
+    }
+
+    @Override
+    public Representation getRepresentation() {
+      return Representation.BITMAP;
+    }
+
+    /*
+     * Ors (or ands) the words of the two bitmaps. The ends are longs, as the
+     * last word of a bitmap can end past Integer.MAX_VALUE. Two bitmaps far
+     * apart are merged instead, so the union doesn't allocate the gap.
+     */
+    private MatchSet combine(BitmapMatchSet other, boolean or) {
+      long from = or ? Math.min(base, other.base) : Math.max(base, other.base);
+      long to = or ? Math.max(end(), other.end()) : Math.min(end(),
+          other.end());
+      if (from >= to)
+        return EMPTY;
+      long numWords = (to - from) / 64;
+      if (or && numWords > size + other.size)
+        return merge(other);
+      long[] combined = new long[(int) numWords];
+      for (int w = 0; w < combined.length; w++) {
+        long a = word(from + 64L * w);
+        long b = other.word(from + 64L * w);
+        combined[w] = or ? a | b : a & b;
+      }
+      return fromBitmap((int) from, combined);
+    }
+
+    // One past the last offset that words can hold.
+    private long end() {
+      return base + 64L * words.length;
+    }
+
+    // The word for offsets [start, start + 64), where start - base is a
+    // multiple of 64.
+    private long word(long start) {
+      long w = (start - base) >> 6;
+      return w >= 0 && w < words.length ? words[(int) w] : 0;
+    }
+  }
+
+}
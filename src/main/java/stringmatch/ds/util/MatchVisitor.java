@@ -0,0 +1,13 @@
+package stringmatch.ds.util;
+
+/*
+ * Gets the offsets of the matches of a query one at a time, as the query
+ * finds them, so that a pattern with millions of matches can be gone
+ * through without a list of them all. Matches come in no particular order.
+ */
+public interface MatchVisitor {
+
+  // Returns false to stop the query.
+  boolean visit(int offset);
+
+}
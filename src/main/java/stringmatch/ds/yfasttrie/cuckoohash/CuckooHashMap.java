@@ -690,7 +690,7 @@ public final class CuckooHashMap<K, V> extends AbstractMap<K, V> {
      * @return A Set containing an Entry for every key/value pair in the map.
      */
     @Override
-    public EntrySet entrySet() {
+    public Set<Entry<K, V>> entrySet() {
         return new EntrySet();
     }
 }
\ No newline at end of file
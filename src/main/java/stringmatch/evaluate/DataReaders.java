@@ -1,27 +1,45 @@
 package stringmatch.evaluate;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
+import stringmatch.ds.suffixtree.GeneralizedSuffixTree;
+import stringmatch.ds.text.Alphabet;
 import stringmatch.ds.text.AlphabetCharacter;
 import stringmatch.ds.text.Text;
 import stringmatch.ds.text.Text.Builder;
+import stringmatch.ds.text.Vocabulary;
 
 public class DataReaders {
 
   // fn is filename.
   // n is max number of characters to read.
+  // Only letters are kept, so the text is stored one byte per symbol, which
+  // also lets edges be matched 8 symbols at a time.
   public static Text readFile(String fn, int n) {
-    Text.Builder tb = new Text.Builder();
+    return readFile(fn, n, Text.Encoding.BYTES);
+  }
+  
+  // Same as readFile(fn, n), but stores the text with the given encoding
+  // (e.g., Text.Encoding.PACKED_DNA for genomes).
+  public static Text readFile(String fn, int n, Text.Encoding encoding) {
+    Text.Builder tb = new Text.Builder(encoding);
     
     try {
       BufferedReader br = new BufferedReader(new FileReader(fn));
-      String line = br.readLine();
       
       // Skip line 1 (it just says the chr number in the genome, but
       // skip it for any other files too).
       br.readLine();
+      String line = br.readLine();
       
       while (line != null) {
         line = cleanString(line);
@@ -46,16 +64,156 @@ public class DataReaders {
     return tb.build();
   }
   
+  /*
+   * Reads fn as a sequence of words rather than characters: every maximal
+   * run of letters (uppercased, as in cleanString) becomes one token from
+   * vocabulary. n is the max number of tokens to read, including the final
+   * END_CHAR. As with readFile, the first line is skipped.
+   */
+  public static Text readTokens(String fn, int n, Vocabulary vocabulary) {
+    Text.Builder tb = new Text.Builder(Text.Encoding.INTS);
+    
+    try {
+      BufferedReader br = new BufferedReader(new FileReader(fn));
+      br.readLine();
+      String line = br.readLine();
+      
+      while (line != null && tb.getCurrentSize() < n) {
+        for (String word : line.split("[^a-zA-Z]+")) {
+          if (word.length() > 0)
+            tb.addCode(vocabulary.getCode(word.toUpperCase()));
+        }
+        line = br.readLine();
+      }
+      
+      br.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    
+    tb.cutToSize(n-1);
+    tb.addAlphabetCharacter(AlphabetCharacter.END_CHAR);
+    
+    return tb.build();
+  }
+  
+  /*
+   * Streams the records of a FASTA, FASTQ or line-per-record file (see
+   * SequenceRecordReader) into a generalized suffix tree, so occurrences
+   * come back as (record, offset) and never span two records.
+   */
+  public static GeneralizedSuffixTree indexRecords(String fn,
+      Text.Encoding encoding) throws IOException {
+    GeneralizedSuffixTree.Builder gstb = new GeneralizedSuffixTree.Builder(encoding);
+    SequenceRecordReader reader = new SequenceRecordReader(fn);
+    try {
+      SequenceRecordReader.Record record;
+      while ((record = reader.next()) != null) {
+        gstb.addRecord(record.getName(), record.getSequence());
+      }
+    } finally {
+      reader.close();
+    }
+    return gstb.build();
+  }
+  
+  /*
+   * Memory-maps the normalized symbols of file fn, normalizing it first if
+   * needed. The normalized symbols (followed by '$') are cached in
+   * fn + ".symbols", so later runs map that file directly instead of
+   * re-parsing the corpus. The returned Text lives in the mapped file rather
+   * than on the heap. As with readFile, the first line is skipped, so both
+   * give the same text for the same file.
+   *
+   * The cache is written to a temporary file that is renamed into place
+   * once it is complete, and it is only used if it ends in the END_CHAR,
+   * so a run that dies halfway through never leaves a truncated corpus
+   * behind for the next one.
+   */
+  public static Text mapFile(String fn) throws IOException {
+    return mapFile(fn, fn + ".symbols");
+  }
+  
+  public static Text mapFile(String fn, String cacheFn) throws IOException {
+    File input = new File(fn);
+    File cache = new File(cacheFn);
+    if (!isComplete(cache) || cache.lastModified() < input.lastModified()) {
+      File partial = File.createTempFile(cache.getName(), ".partial",
+          cache.getAbsoluteFile().getParentFile());
+      try {
+        normalizeFile(input, partial);
+        moveIntoPlace(partial, cache);
+      } finally {
+        partial.delete();
+      }
+    }
+    
+    RandomAccessFile raf = new RandomAccessFile(cache, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      if (channel.size() > Integer.MAX_VALUE)
+        throw new IOException("Too many symbols in " + fn + " to index.");
+      MappedByteBuffer symbols = channel.map(FileChannel.MapMode.READ_ONLY,
+          0, channel.size());
+      return Text.wrap(symbols);
+    } finally {
+      // The mapping stays valid after the channel is closed.
+      raf.close();
+    }
+  }
+  
+  // True if cache exists and ends in the END_CHAR that normalizeFile writes
+  // last.
+  private static boolean isComplete(File cache) throws IOException {
+    if (!cache.exists() || cache.length() == 0)
+      return false;
+    RandomAccessFile raf = new RandomAccessFile(cache, "r");
+    try {
+      raf.seek(raf.length() - 1);
+      return raf.read() == Alphabet.END_CODE;
+    } finally {
+      raf.close();
+    }
+  }
+  
+  private static void moveIntoPlace(File from, File to) throws IOException {
+    try {
+      Files.move(from.toPath(), to.toPath(),
+          StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(from.toPath(), to.toPath(),
+          StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+  
+  /*
+   * Normalizes input into output with Normalizer.LETTERS, the same rules as
+   * readFile, writing straight into the file rather than the heap so that
+   * the corpus only has to fit on disk.
+   */
+  protected static void normalizeFile(File input, File output)
+      throws IOException {
+    RandomAccessFile out = new RandomAccessFile(output, "rw");
+    try {
+      Normalizer.LETTERS.normalizeFile(input.getPath(), out.getChannel());
+    } finally {
+      out.close();
+    }
+  }
+  
   protected static String cleanString(String s) {
-    s = s.replaceAll("[^a-zA-Z]", ""); // Delete all non-alphabet characters.
-    s = s.toUpperCase(); // Make all uppercase.
-    /*
-    s = s.replaceAll("\\$", ""); // Delete '$'.
-    s = s.replaceAll("\\*", ""); // Delete '*'.
-    s = s.trim(); // Remove leading and trailing whitespace.
-    s = s.replaceAll(" +", " "); // Replace multiple spaces with one.
-    */
-    return s;
+    // Delete all non-alphabet characters and make the rest uppercase.
+    return Normalizer.LETTERS.normalize(s);
+  }
+  
+  /*
+   * Reads all of fn with the given normalization rules, scanning chunks of
+   * the file on several threads. Unlike readFile, the symbols are written
+   * straight into one preallocated buffer rather than going line by line.
+   */
+  public static Text readFile(String fn, Normalizer normalizer)
+      throws IOException {
+    return normalizer.normalizeFile(fn);
   }
   
 }
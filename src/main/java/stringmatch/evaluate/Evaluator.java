@@ -1,6 +1,7 @@
 package stringmatch.evaluate;
 
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -16,6 +17,7 @@ import org.github.jamm.MemoryMeter;
 import stringmatch.ds.suffixtree.SuffixTree;
 import stringmatch.ds.suffixtree.SuffixTreeNaiveBigSpace;
 import stringmatch.ds.suffixtree.SuffixTreeWithCPD;
+import stringmatch.ds.text.Alphabet;
 import stringmatch.ds.text.Text;
 import stringmatch.ds.util.Pair;
 
@@ -29,6 +31,10 @@ public class Evaluator {
   
   public static final boolean USE_SAME_PARAMS = false;
   
+  // Inputs end in their only END_CHAR, so the faster construction applies.
+  public static final SuffixTree.Construction CONSTRUCTION =
+      SuffixTree.Construction.SUFFIX_ARRAY;
+  
   public static void evaluateSlowQuery(Text inputText,
       String runtimeOutputFilename, String spaceOutputFilename)
       throws FileNotFoundException {
@@ -73,11 +79,11 @@ public class Evaluator {
       
       long totalTime = 0;
       for (int t = 0; t < NUM_TRIALS; t++) {
-        int offset = random.nextInt(AMOUNT_INPUT_EXTRACTED - n - 1);
+        int offset = random.nextInt(inputText.getLength() - n - 1);
         Text inputTextPortion = inputText.extractSubstring(offset, offset + n).addEndCharIfNeeded();
         List<Text> queries = makeQueries(inputTextPortion, NUM_QUERIES/NUM_TRIALS, p, k);
         
-        SuffixTree.Builder stb = new SuffixTree.Builder(inputTextPortion);
+        SuffixTree.Builder stb = new SuffixTree.Builder(inputTextPortion, CONSTRUCTION);
         SuffixTree st = stb.build();
         if (t == 0)
           space.put(new Pair<Integer, Integer>(n, k), meter.measureDeep(st));
@@ -150,11 +156,11 @@ public class Evaluator {
       
       long totalTime = 0;
       for (int t = 0; t < NUM_TRIALS; t++) {
-        int offset = random.nextInt(AMOUNT_INPUT_EXTRACTED - n - 1);
+        int offset = random.nextInt(inputText.getLength() - n - 1);
         Text inputTextPortion = inputText.extractSubstring(offset, offset + n).addEndCharIfNeeded();
         List<Text> queries = makeQueries(inputTextPortion, NUM_QUERIES/NUM_TRIALS, p, k);
         
-        SuffixTreeNaiveBigSpace.Builder stb = new SuffixTreeNaiveBigSpace.Builder(inputTextPortion, k);
+        SuffixTreeNaiveBigSpace.Builder stb = new SuffixTreeNaiveBigSpace.Builder(inputTextPortion, k, CONSTRUCTION);
         SuffixTreeNaiveBigSpace st = stb.build();
         if (t == 0)
           space.put(new Pair<Integer, Integer>(n, k), meter.measureDeep(st));
@@ -227,11 +233,11 @@ public class Evaluator {
       
       long totalTime = 0;
       for (int t = 0; t < NUM_TRIALS; t++) {
-        int offset = random.nextInt(AMOUNT_INPUT_EXTRACTED - n - 1);
+        int offset = random.nextInt(inputText.getLength() - n - 1);
         Text inputTextPortion = inputText.extractSubstring(offset, offset + n).addEndCharIfNeeded();
         List<Text> queries = makeQueries(inputTextPortion, NUM_QUERIES/NUM_TRIALS, p, k);
 
-        SuffixTreeWithCPD.Builder stb = new SuffixTreeWithCPD.Builder(inputTextPortion, k);
+        SuffixTreeWithCPD.Builder stb = new SuffixTreeWithCPD.Builder(inputTextPortion, k, CONSTRUCTION);
         SuffixTreeWithCPD st = stb.build(true);
         if (t == 0)
           space.put(new Pair<Integer, Integer>(n, k), meter.measureDeep(st));
@@ -303,11 +309,11 @@ public class Evaluator {
       
       long totalTime = 0;
       for (int t = 0; t < NUM_TRIALS; t++) {
-        int offset = random.nextInt(AMOUNT_INPUT_EXTRACTED - n - 1);
+        int offset = random.nextInt(inputText.getLength() - n - 1);
         Text inputTextPortion = inputText.extractSubstring(offset, offset + n).addEndCharIfNeeded();
         List<Text> queries = makeQueries(inputTextPortion, NUM_QUERIES/NUM_TRIALS, p, k);  
 
-        SuffixTreeWithCPD.Builder stb = new SuffixTreeWithCPD.Builder(inputTextPortion, k);
+        SuffixTreeWithCPD.Builder stb = new SuffixTreeWithCPD.Builder(inputTextPortion, k, CONSTRUCTION);
         SuffixTreeWithCPD st = stb.build();
       
         if (t == 0)
@@ -402,29 +408,31 @@ public class Evaluator {
     List<Text> queries = new ArrayList<Text>();
     for (int i = 0; i < numQueries; i++) {
       int startIndex = random.nextInt(inputText.getLength() - queryLength);
-      Text queryBasic = inputText.extractSubstring(startIndex, startIndex + queryLength);
-      StringBuilder queryBasicStr = new StringBuilder(queryBasic.toString());
       List<Integer> pos = new ArrayList<Integer>();
       for (int j = 0; j < queryLength; j++) {
         pos.add(j);
       }
       Collections.shuffle(pos);
-      for (int j = 0; j < numWildcards; j++) {
-        int wildcardPos = pos.get(j);
-        queryBasicStr.replace(wildcardPos, wildcardPos+1, "*");
+      Set<Integer> wildcardPositions = new HashSet<Integer>(pos.subList(0, numWildcards));
+      // Built from codes rather than a String so that token texts work too.
+      Text.Builder query = new Text.Builder(inputText.getEncoding());
+      for (int j = 0; j < queryLength; j++) {
+        query.addCode(wildcardPositions.contains(j) ? Alphabet.WILDCARD_CODE
+            : inputText.codeAt(startIndex + j));
       }
-      Text query = new Text(queryBasicStr.toString(), false);
-      queries.add(query);
+      queries.add(query.build());
     }
     return queries;
   }
   
-  public static void main(String[] args) throws FileNotFoundException {
+  public static void main(String[] args) throws IOException {
     //String chr1Filename = args[0];
     String englishCorpusFilename = args[0];
     
-    //Text chr = DataReaders.readFile(chr1Filename, AMOUNT_INPUT_EXTRACTED);
+    //Text chr = DataReaders.readFile(chr1Filename, AMOUNT_INPUT_EXTRACTED, Text.Encoding.PACKED_DNA);
     Text eng = DataReaders.readFile(englishCorpusFilename, AMOUNT_INPUT_EXTRACTED);
+    // To index the whole corpus without reading it onto the heap:
+    //Text eng = DataReaders.mapFile(englishCorpusFilename);
     
     String outputPath = args[1];
     
@@ -0,0 +1,403 @@
+package stringmatch.evaluate;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import stringmatch.ds.text.Alphabet;
+import stringmatch.ds.text.Text;
+
+/*
+ * Turns raw input bytes into the symbols that get indexed. Everything is
+ * decided by a 256-entry table built once by the Builder (case folding,
+ * which symbols are allowed, which bytes become record separators), plus a
+ * set of symbols whose runs are collapsed to a single symbol.
+ *
+ * normalizeFile() maps the file, splits it into chunks and scans them on
+ * several threads. The first pass counts the symbols each chunk produces,
+ * so that the second pass can write every chunk straight into its place in
+ * one preallocated buffer, on the heap or mapped from an output file. The
+ * second pass reads the file from the page cache, so the cost is about one
+ * read of the file plus one of the output. A file that fits in one chunk
+ * (always the case with one thread, up to MAX_CHUNK) is scanned once, on
+ * the calling thread, into a buffer with room for every byte.
+ */
+public class Normalizer {
+
+  // The same rules as the original DataReaders.cleanString(): letters only,
+  // uppercased. Like DataReaders.readFile, it skips the first line of a
+  // file.
+  public static final Normalizer LETTERS = new Normalizer.Builder()
+      .foldCase().allowLetters().skipFirstLine().build();
+
+  // Upper bound on the size of a chunk, so each one can be mapped at once.
+  private static final int MAX_CHUNK = 1 << 28;
+
+  // Shared by all normalizers and created on first use. Its threads are
+  // daemons and die off when idle, so it never keeps the JVM alive.
+  private static ExecutorService executor;
+
+  // table[b] is the symbol that byte b becomes, or 0 to drop it.
+  private final byte[] table;
+  // collapsible[s] is set if a run of symbol s is kept as a single s.
+  private final boolean[] collapsible;
+  private final boolean hasSeparators;
+  private final boolean skipFirstLine;
+  private final int threads;
+
+  private Normalizer(Builder builder) {
+    table = builder.table.clone();
+    collapsible = builder.collapsible.clone();
+    hasSeparators = builder.hasSeparators;
+    skipFirstLine = builder.skipFirstLine;
+    threads = builder.threads;
+  }
+
+  // Returns the symbol that byte b becomes, or 0 if it is dropped.
+  int symbolOf(int b) {
+    return table[b & 0xFF] & 0xFF;
+  }
+
+  /*
+   * Normalizes a single line (or any other string). Ignores skipFirstLine.
+   */
+  public String normalize(CharSequence s) {
+    StringBuilder sb = new StringBuilder(s.length());
+    int prev = hasSeparators ? Alphabet.SEPARATOR_CODE : 0;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c > 0xFF)
+        continue;
+      int symbol = table[c] & 0xFF;
+      if (symbol == 0 || (symbol == prev && collapsible[symbol]))
+        continue;
+      sb.append((char) symbol);
+      prev = symbol;
+    }
+    return sb.toString();
+  }
+
+  /*
+   * Normalizes all of file fn into a Text (with encoding BYTES) that ends in
+   * END_CHAR.
+   */
+  public Text normalizeFile(String fn) throws IOException {
+    return Text.wrap(normalize(fn, null));
+  }
+
+  /*
+   * Same as normalizeFile(fn), but writes the symbols to output, which is
+   * truncated first, through a memory mapping rather than the heap. Returns
+   * the number of symbols written, END_CHAR included. The symbols are on
+   * disk by the time it returns.
+   */
+  public int normalizeFile(String fn, FileChannel output) throws IOException {
+    output.truncate(0);
+    MappedByteBuffer symbols = (MappedByteBuffer) normalize(fn, output);
+    symbols.force();
+    // If fewer symbols came out than were mapped room for.
+    if (output.size() > symbols.limit())
+      output.truncate(symbols.limit());
+    return symbols.limit();
+  }
+
+  /*
+   * Returns the symbols of fn, up to and including the END_CHAR, in a new
+   * buffer, or in one mapped from output if it isn't null.
+   */
+  private ByteBuffer normalize(String fn, FileChannel output)
+      throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(fn, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      long size = channel.size();
+      long start = skipFirstLine ? endOfFirstLine(channel, size) : 0;
+
+      List<Chunk> chunks = new ArrayList<Chunk>();
+      long chunkSize = Math.min(MAX_CHUNK,
+          Math.max(1 << 16, (size - start + threads - 1) / threads));
+      for (long from = start; from < size; from += chunkSize) {
+        chunks.add(new Chunk(channel, from, Math.min(chunkSize, size - from)));
+      }
+
+      ByteBuffer symbols;
+      int length;
+      if (chunks.size() == 1) {
+        // No other chunk to make room for, so write as it's read.
+        Chunk chunk = chunks.get(0);
+        chunk.carry = hasSeparators ? Alphabet.SEPARATOR_CODE : 0;
+        chunk.output = allocate(output, chunk.length + 1);
+        chunk.scan(true);
+        symbols = chunk.output;
+        length = chunk.count;
+      } else {
+        // Pass 1: count the symbols each chunk produces on its own.
+        runAll(chunks, false);
+
+        // A run can straddle two chunks, in which case the later chunk drops
+        // its first symbol. Work out where each chunk's output starts.
+        long total = 0;
+        int carry = hasSeparators ? Alphabet.SEPARATOR_CODE : 0;
+        for (Chunk chunk : chunks) {
+          chunk.carry = carry;
+          chunk.offset = total;
+          if (chunk.count > 0) {
+            boolean dropFirst = chunk.first == carry && collapsible[carry];
+            total += chunk.count - (dropFirst ? 1 : 0);
+            carry = chunk.last;
+          }
+        }
+        if (total >= Integer.MAX_VALUE)
+          throw new IOException("Too many symbols in " + fn + " to index.");
+
+        // Pass 2: write each chunk into its place.
+        symbols = allocate(output, total + 1);
+        for (Chunk chunk : chunks) {
+          chunk.output = symbols;
+        }
+        runAll(chunks, true);
+        length = (int) total;
+      }
+
+      // A trailing separator would just sit in front of END_CHAR.
+      if (length > 0 && hasSeparators
+          && symbols.get(length - 1) == (byte) Alphabet.SEPARATOR_CODE)
+        length--;
+      symbols.put(length, (byte) Alphabet.END_CODE);
+      symbols.limit(length + 1);
+      // Don't hold on to a heap buffer that is mostly unused room.
+      int spare = symbols.capacity() - symbols.limit();
+      if (output == null && spare > symbols.capacity() / 8) {
+        ByteBuffer trimmed = ByteBuffer.allocate(symbols.limit());
+        trimmed.put(symbols);
+        trimmed.flip();
+        symbols = trimmed;
+      }
+      return symbols;
+    } finally {
+      raf.close();
+    }
+  }
+
+  // A new heap buffer, or the start of output mapped, of the given size.
+  private static ByteBuffer allocate(FileChannel output, long size)
+      throws IOException {
+    return output == null ? ByteBuffer.allocate((int) size)
+        : output.map(FileChannel.MapMode.READ_WRITE, 0, size);
+  }
+
+  private static long endOfFirstLine(FileChannel channel, long size)
+      throws IOException {
+    for (long offset = 0; offset < size; offset += MAX_CHUNK) {
+      MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY,
+          offset, Math.min(MAX_CHUNK, size - offset));
+      while (window.hasRemaining()) {
+        if (window.get() == '\n')
+          return offset + window.position();
+      }
+    }
+    return size;
+  }
+
+  /*
+   * Scans every chunk, on up to threads threads of the shared executor, or
+   * on the calling thread if there's just one to use.
+   */
+  private void runAll(final List<Chunk> chunks, final boolean write)
+      throws IOException {
+    int workers = Math.min(threads, chunks.size());
+    if (workers <= 1) {
+      for (Chunk chunk : chunks) {
+        chunk.scan(write);
+      }
+      return;
+    }
+    final AtomicInteger next = new AtomicInteger();
+    List<Future<Void>> futures = new ArrayList<Future<Void>>();
+    for (int i = 0; i < workers; i++) {
+      futures.add(executor().submit(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          for (int c = next.getAndIncrement(); c < chunks.size();
+              c = next.getAndIncrement()) {
+            chunks.get(c).scan(write);
+          }
+          return null;
+        }
+      }));
+    }
+    try {
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while normalizing.", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException)
+        throw (IOException) e.getCause();
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  private static synchronized ExecutorService executor() {
+    if (executor == null) {
+      executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "normalizer");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return executor;
+  }
+
+  private class Chunk {
+    private final FileChannel channel;
+    private final long from;
+    private final long length;
+
+    // What the last scan produced.
+    int count;
+    int first;
+    int last;
+
+    // Filled in before the second pass.
+    int carry;
+    long offset;
+    // Shared by all chunks, which only write to their own part of it.
+    ByteBuffer output;
+
+    Chunk(FileChannel channel, long from, long length) {
+      this.channel = channel;
+      this.from = from;
+      this.length = length;
+    }
+
+    void scan(boolean write) throws IOException {
+      MappedByteBuffer input = channel.map(FileChannel.MapMode.READ_ONLY,
+          from, length);
+      byte[] table = Normalizer.this.table;
+      boolean[] collapsible = Normalizer.this.collapsible;
+      int prev = write ? carry : 0;
+      int n = 0;
+      int pos = (int) offset;
+      int first = 0;
+      for (int i = 0; i < length; i++) {
+        int symbol = table[input.get(i) & 0xFF] & 0xFF;
+        if (symbol == 0 || (symbol == prev && collapsible[symbol]))
+          continue;
+        if (write)
+          output.put(pos++, (byte) symbol);
+        if (n == 0)
+          first = symbol;
+        prev = symbol;
+        n++;
+      }
+      this.count = n;
+      this.first = first;
+      this.last = prev;
+    }
+  }
+
+  public static class Builder {
+    private boolean[] allowed;
+    private boolean[] separators;
+    private boolean[] collapsible;
+    private boolean foldCase;
+    private boolean hasSeparators;
+    private boolean skipFirstLine;
+    private int threads;
+    private byte[] table;
+
+    public Builder() {
+      allowed = new boolean[256];
+      separators = new boolean[256];
+      collapsible = new boolean[256];
+      foldCase = false;
+      hasSeparators = false;
+      skipFirstLine = false;
+      threads = Runtime.getRuntime().availableProcessors();
+    }
+
+    // Lowercase letters are treated as their uppercase versions.
+    public Builder foldCase() {
+      foldCase = true;
+      return this;
+    }
+
+    // Keeps the given symbols (after case folding). END_CHAR, WILDCARD and
+    // SEPARATOR are reserved and can't be allowed.
+    public Builder allow(String symbols) {
+      for (int i = 0; i < symbols.length(); i++) {
+        char c = symbols.charAt(i);
+        if (c < 256 && !Alphabet.isTerminator(c) && c != Alphabet.WILDCARD_CODE)
+          allowed[c] = true;
+      }
+      return this;
+    }
+
+    public Builder allowLetters() {
+      return allow("ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz");
+    }
+
+    // Runs of any of these symbols (e.g., "N" in genomes) become a single one.
+    public Builder collapseRuns(String symbols) {
+      for (int i = 0; i < symbols.length(); i++) {
+        if (symbols.charAt(i) < 256)
+          collapsible[symbols.charAt(i)] = true;
+      }
+      return this;
+    }
+
+    // Each of these bytes (e.g., "\n" for one record per line) becomes
+    // Alphabet.SEPARATOR_CODE. Runs of separators are always collapsed.
+    public Builder separateAt(String bytes) {
+      for (int i = 0; i < bytes.length(); i++) {
+        if (bytes.charAt(i) < 256)
+          separators[bytes.charAt(i)] = true;
+      }
+      collapsible[Alphabet.SEPARATOR_CODE] = true;
+      hasSeparators = true;
+      return this;
+    }
+
+    public Builder skipFirstLine() {
+      skipFirstLine = true;
+      return this;
+    }
+
+    public Builder threads(int threads) {
+      if (threads < 1)
+        throw new IllegalArgumentException();
+      this.threads = threads;
+      return this;
+    }
+
+    public Normalizer build() {
+      table = new byte[256];
+      for (int b = 0; b < 256; b++) {
+        int c = foldCase ? Character.toUpperCase((char) b) : b;
+        if (separators[b])
+          table[b] = (byte) Alphabet.SEPARATOR_CODE;
+        else if (c < 256 && allowed[c])
+          table[b] = (byte) c;
+      }
+      return new Normalizer(this);
+    }
+  }
+
+}
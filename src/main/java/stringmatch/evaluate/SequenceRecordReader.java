@@ -0,0 +1,172 @@
+package stringmatch.evaluate;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/*
+ * Reads a file of records one at a time, so that inputs with many records
+ * (multi-chromosome genomes, reads, logs) never have to be held in memory as
+ * a whole. The format is detected from the first non-empty line:
+ *   - FASTA: '>' header lines, each followed by any number of sequence lines.
+ *   - FASTQ: '@' header, sequence lines, '+' line, then as many quality
+ *     characters as there were sequence characters.
+ *   - LINES: anything else; each non-empty line is its own record.
+ * Sequences are normalized the same way as DataReaders.readFile (letters
+ * only, uppercased).
+ */
+public class SequenceRecordReader {
+
+  public enum Format {
+    FASTA,
+    FASTQ,
+    LINES
+  }
+
+  public static class Record {
+    private final String name;
+    private final String sequence;
+
+    public Record(String name, String sequence) {
+      this.name = name;
+      this.sequence = sequence;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public String getSequence() {
+      return sequence;
+    }
+
+    public String toString() {
+      return name + ": " + sequence;
+    }
+  }
+
+  private final BufferedReader reader;
+  private Format format;
+  // The line after the current record, if it has already been read.
+  private String pendingLine;
+  private int lineNumber;
+
+  public SequenceRecordReader(String fn) throws IOException {
+    this(new FileReader(fn));
+  }
+
+  public SequenceRecordReader(Reader reader) throws IOException {
+    this.reader = new BufferedReader(reader);
+    lineNumber = 0;
+    pendingLine = nextNonEmptyLine();
+    if (pendingLine == null || pendingLine.startsWith(">"))
+      format = Format.FASTA;
+    else if (pendingLine.startsWith("@"))
+      format = Format.FASTQ;
+    else
+      format = Format.LINES;
+  }
+
+  public Format getFormat() {
+    return format;
+  }
+
+  /*
+   * Returns the next record, or null once the input is exhausted.
+   */
+  public Record next() throws IOException {
+    switch (format) {
+    case FASTA:
+      return nextFasta();
+    case FASTQ:
+      return nextFastq();
+    case LINES:
+    default:
+      return nextLine();
+    }
+  }
+
+  public void close() throws IOException {
+    reader.close();
+  }
+
+  private Record nextFasta() throws IOException {
+    String header = pendingLine != null ? pendingLine : nextNonEmptyLine();
+    pendingLine = null;
+    if (header == null)
+      return null;
+    if (!header.startsWith(">"))
+      throw new IOException("Expected a FASTA header on line " + lineNumber);
+
+    StringBuilder sequence = new StringBuilder();
+    String line;
+    while ((line = nextNonEmptyLine()) != null) {
+      if (line.startsWith(">")) {
+        pendingLine = line;
+        break;
+      }
+      sequence.append(DataReaders.cleanString(line));
+    }
+    return new Record(nameOf(header), sequence.toString());
+  }
+
+  private Record nextFastq() throws IOException {
+    String header = pendingLine != null ? pendingLine : nextNonEmptyLine();
+    pendingLine = null;
+    if (header == null)
+      return null;
+    if (!header.startsWith("@"))
+      throw new IOException("Expected a FASTQ header on line " + lineNumber);
+
+    // Sequence lines run up to the '+' separator. Quality lines can start
+    // with '@', so they're skipped by length rather than by looking for the
+    // next header.
+    StringBuilder sequence = new StringBuilder();
+    int rawLength = 0;
+    String line;
+    while ((line = reader.readLine()) != null) {
+      lineNumber++;
+      if (line.startsWith("+"))
+        break;
+      rawLength += line.trim().length();
+      sequence.append(DataReaders.cleanString(line));
+    }
+    if (line == null)
+      throw new IOException("Truncated FASTQ record " + header);
+
+    int qualityLength = 0;
+    while (qualityLength < rawLength && (line = reader.readLine()) != null) {
+      lineNumber++;
+      qualityLength += line.trim().length();
+    }
+    if (qualityLength < rawLength)
+      throw new IOException("Truncated FASTQ record " + header);
+
+    return new Record(nameOf(header), sequence.toString());
+  }
+
+  private Record nextLine() throws IOException {
+    String line = pendingLine != null ? pendingLine : nextNonEmptyLine();
+    pendingLine = null;
+    if (line == null)
+      return null;
+    return new Record(String.valueOf(lineNumber), DataReaders.cleanString(line));
+  }
+
+  private String nextNonEmptyLine() throws IOException {
+    String line;
+    while ((line = reader.readLine()) != null) {
+      lineNumber++;
+      if (line.trim().length() > 0)
+        return line;
+    }
+    return null;
+  }
+
+  // The name of a record is the first word of its header.
+  private static String nameOf(String header) {
+    return header.substring(1).trim().split("\\s+")[0];
+  }
+
+}
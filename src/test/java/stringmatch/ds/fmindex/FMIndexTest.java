@@ -0,0 +1,100 @@
+package stringmatch.ds.fmindex;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import stringmatch.ds.suffixarray.SuffixArrays;
+import stringmatch.ds.suffixtree.SuffixTree;
+import stringmatch.ds.text.Text;
+import stringmatch.ds.text.Vocabulary;
+import stringmatch.ds.util.MatchVisitor;
+
+public class FMIndexTest {
+
+  @Test
+  public void testWaveletMatrixRank() {
+    Random rand = new Random(3);
+    for (int sigma : new int[] { 1, 2, 5, 64, 1000 }) {
+      int[] symbols = new int[1500];
+      for (int i = 0; i < symbols.length; i++) {
+        symbols[i] = rand.nextInt(Math.min(sigma, 7)) * (sigma / 7 + 1) % sigma;
+      }
+      WaveletMatrix wm = new WaveletMatrix(symbols, sigma);
+      int[] seen = new int[sigma];
+      for (int i = 0; i < symbols.length; i++) {
+        assertEquals(symbols[i], wm.access(i));
+        assertEquals(seen[symbols[i]], wm.rank(symbols[i], i));
+        seen[symbols[i]]++;
+      }
+      for (int c = 0; c < sigma; c++) {
+        assertEquals(seen[c], wm.rank(c, symbols.length));
+      }
+    }
+  }
+
+  @Test
+  public void testSameMatchesAsSuffixTree() {
+    Random rand = new Random(23);
+    for (int trial = 0; trial < 20; trial++) {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < 300; i++) {
+        sb.append("ABC".charAt(rand.nextInt(3)));
+      }
+      Text t = new Text(sb.toString(), true);
+      SuffixTree st = new SuffixTree.Builder(t).build();
+      FMIndex fm = new FMIndex(t, 1 + trial % 8);
+
+      for (String p : new String[] { "AB", "A*C", "**B", "CAB*", "*$", "$",
+          "B$A", "BBBBBBBBBB", "*", "" }) {
+        Text pattern = new Text(p, false);
+        List<Integer> expected = st.naiveWildcardQueryIndices(pattern);
+        List<Integer> actual = fm.queryIndices(pattern);
+        Collections.sort(expected);
+        Collections.sort(actual);
+        assertEquals(p, expected, actual);
+        assertEquals(p, expected, fm.queryMatches(pattern).toList());
+        final List<Integer> visited = new ArrayList<Integer>();
+        assertTrue(fm.queryIndices(pattern, new MatchVisitor() {
+          @Override
+          public boolean visit(int offset) {
+            visited.add(offset);
+            return visited.size() < 3;
+          }
+        }) == expected.size() < 3);
+        assertEquals(Math.min(3, expected.size()), visited.size());
+        assertTrue(expected.containsAll(visited));
+        assertEquals(expected.size(), fm.count(pattern));
+        if (p.indexOf('*') < 0)
+          assertEquals(expected.isEmpty(), fm.query(pattern) == null);
+      }
+    }
+  }
+
+  @Test
+  public void testRowsAreSuffixArrayOrder() {
+    Vocabulary v = new Vocabulary();
+    Random rand = new Random(29);
+    StringBuilder words = new StringBuilder();
+    for (int i = 0; i < 500; i++) {
+      words.append("w").append(rand.nextInt(40) * 97).append(' ');
+    }
+    Text t = v.tokenize(words.toString(), true);
+    int[] sa = SuffixArrays.suffixArray(t);
+    FMIndex fm = new FMIndex(t, 5);
+    for (int row = 0; row < sa.length; row++) {
+      assertEquals(sa[row], fm.locate(row));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTextMustEndInEndChar() {
+    new FMIndex(new Text("ABC", false));
+  }
+
+}
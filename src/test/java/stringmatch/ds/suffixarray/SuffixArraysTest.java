@@ -0,0 +1,108 @@
+package stringmatch.ds.suffixarray;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import stringmatch.ds.text.Text;
+import stringmatch.ds.text.Vocabulary;
+
+public class SuffixArraysTest {
+
+  private static int[] naiveSuffixArray(final Text t) {
+    List<Integer> offsets = new ArrayList<Integer>();
+    for (int i = 0; i < t.getLength(); i++) {
+      offsets.add(i);
+    }
+    Collections.sort(offsets, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        int n = t.getLength();
+        for (int i = a, j = b; i < n && j < n; i++, j++) {
+          if (t.codeAt(i) != t.codeAt(j))
+            return t.codeAt(i) < t.codeAt(j) ? -1 : 1;
+        }
+        return b - a;
+      }
+    });
+    int[] sa = new int[offsets.size()];
+    for (int i = 0; i < sa.length; i++) {
+      sa[i] = offsets.get(i);
+    }
+    return sa;
+  }
+  
+  private static void check(Text t) {
+    int[] sa = SuffixArrays.suffixArray(t);
+    assertArrayEquals(naiveSuffixArray(t), sa);
+    int[] lcp = SuffixArrays.lcpArray(t, sa);
+    assertEquals(0, lcp[0]);
+    for (int i = 1; i < sa.length; i++) {
+      int h = 0;
+      while (sa[i] + h < t.getLength() && sa[i - 1] + h < t.getLength()
+          && t.codeAt(sa[i] + h) == t.codeAt(sa[i - 1] + h))
+        h++;
+      assertEquals(h, lcp[i]);
+    }
+  }
+  
+  @Test
+  public void testSmall() {
+    check(new Text("BANANA", true));
+    check(new Text("BANANA", false));
+    check(new Text("AAAAAAAA", false));
+    check(new Text("MISSISSIPPI", true));
+    check(new Text("A", false));
+  }
+  
+  @Test
+  public void testRandom() {
+    Random rand = new Random(3);
+    for (int trial = 0; trial < 50; trial++) {
+      StringBuilder sb = new StringBuilder();
+      int sigma = 1 + rand.nextInt(4);
+      int n = 1 + rand.nextInt(500);
+      for (int i = 0; i < n; i++) {
+        sb.append((char) ('A' + rand.nextInt(sigma)));
+      }
+      check(new Text(sb.toString(), trial % 2 == 0));
+      check(new Text(sb.toString(), true, Text.Encoding.PACKED_DNA));
+    }
+  }
+  
+  @Test
+  public void testTokens() {
+    Random rand = new Random(4);
+    Vocabulary v = new Vocabulary();
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 400; i++) {
+      sb.append("w").append(rand.nextInt(6)).append(' ');
+    }
+    check(v.tokenize(sb.toString(), true));
+  }
+  
+  @Test
+  public void testParallelLcpArray() {
+    Random rand = new Random(5);
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 300000; i++) {
+      sb.append("AB".charAt(rand.nextInt(2)));
+    }
+    Text t = new Text(sb.toString(), true);
+    int[] sa = SuffixArrays.suffixArray(t);
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      assertArrayEquals(SuffixArrays.lcpArray(t, sa), SuffixArrays.lcpArray(t, sa, pool));
+    } finally {
+      pool.shutdown();
+    }
+  }
+  
+}
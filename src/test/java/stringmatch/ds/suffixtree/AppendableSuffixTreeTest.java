@@ -0,0 +1,96 @@
+package stringmatch.ds.suffixtree;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import stringmatch.ds.text.Text;
+
+public class AppendableSuffixTreeTest {
+
+  private static List<Integer> naiveIndices(String text, String p) {
+    List<Integer> indices = new ArrayList<Integer>();
+    for (int i = text.indexOf(p); i >= 0; i = text.indexOf(p, i + 1)) {
+      indices.add(i);
+    }
+    return indices;
+  }
+
+  @Test
+  public void testQueriesBetweenAppends() {
+    AppendableSuffixTree ast = new AppendableSuffixTree();
+    ast.append("BANAN");
+    assertEquals(Arrays.asList(1, 3), ast.queryIndices(new Text("AN", false)));
+    // The suffixes "AN" and "N" don't have leaves yet.
+    assertEquals(2, ast.getNumImplicitSuffixes());
+    assertEquals(Arrays.asList(2, 4), ast.queryIndices(new Text("N", false)));
+    assertEquals(Arrays.asList(1), ast.queryIndices(new Text("ANA", false)));
+    ast.append("ABANANA");
+    assertEquals(Arrays.asList(1, 3, 7, 9),
+        ast.queryIndices(new Text("ANA", false)));
+    assertTrue(ast.queryIndices(new Text("ANANAN", false)).isEmpty());
+    assertEquals(Arrays.asList(5), ast.queryIndices(new Text("AB", false)));
+  }
+
+  @Test
+  public void testRandomBatchesAgainstNaive() {
+    Random rand = new Random(11);
+    AppendableSuffixTree ast = new AppendableSuffixTree();
+    StringBuilder sb = new StringBuilder();
+    for (int batch = 0; batch < 60; batch++) {
+      StringBuilder symbols = new StringBuilder();
+      int length = rand.nextInt(20);
+      for (int i = 0; i < length; i++) {
+        symbols.append("AB".charAt(rand.nextInt(2)));
+      }
+      ast.append(symbols.toString());
+      sb.append(symbols);
+      String text = sb.toString();
+      assertEquals(text.length(), ast.getLength());
+
+      List<Integer> leaves = ast.getOffsetIndicesOfLeaves();
+      Collections.sort(leaves);
+      assertEquals(text.length() - ast.getNumImplicitSuffixes(), leaves.size());
+      for (int i = 0; i < leaves.size(); i++) {
+        assertEquals(i, (int) leaves.get(i));
+      }
+
+      for (int q = 0; q < 10; q++) {
+        StringBuilder p = new StringBuilder();
+        int m = 1 + rand.nextInt(6);
+        for (int i = 0; i < m; i++) {
+          p.append("AB".charAt(rand.nextInt(2)));
+        }
+        assertEquals(naiveIndices(text, p.toString()),
+            ast.queryIndices(new Text(p.toString(), false)));
+      }
+    }
+
+    Text whole = new Text(sb.toString(), true);
+    SuffixTree st = ast.finish();
+    assertEquals(new SuffixTree.Builder(whole).build().getAllSuffixesAsStrings(),
+        st.getAllSuffixesAsStrings());
+    assertEquals(new SuffixTree.Builder(whole).build().getRoot().getOffsetIndicesOfLeaves(),
+        st.getRoot().getOffsetIndicesOfLeaves());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testEndCharOnlyFromFinish() {
+    new AppendableSuffixTree().append(new Text("AB", true));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testNoAppendsAfterFinish() {
+    AppendableSuffixTree ast = new AppendableSuffixTree();
+    ast.append("AB");
+    ast.finish();
+    ast.append("C");
+  }
+
+}
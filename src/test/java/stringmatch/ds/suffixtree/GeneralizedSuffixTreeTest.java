@@ -0,0 +1,132 @@
+package stringmatch.ds.suffixtree;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import stringmatch.ds.text.Text;
+import stringmatch.ds.util.Pair;
+
+public class GeneralizedSuffixTreeTest {
+
+  private static Pair<Integer, Integer> loc(int recordId, int offset) {
+    return new Pair<Integer, Integer>(recordId, offset);
+  }
+  
+  @Test
+  public void testLocations() {
+    GeneralizedSuffixTree gst = new GeneralizedSuffixTree.Builder()
+        .addRecord("a", "BANANA")
+        .addRecord("b", "NAB")
+        .addRecord("c", "ANANAS")
+        .build();
+    assertEquals(3, gst.getNumRecords());
+    assertEquals("b", gst.getRecordName(1));
+    assertEquals(3, gst.getRecordLength(1));
+    assertEquals(6, gst.getRecordLength(2));
+    assertEquals(loc(1, 2), gst.locate(9));
+    
+    List<Pair<Integer, Integer>> expected = new ArrayList<Pair<Integer, Integer>>();
+    expected.add(loc(0, 1));
+    expected.add(loc(0, 3));
+    expected.add(loc(2, 0));
+    expected.add(loc(2, 2));
+    assertEquals(expected, gst.queryLocations(new Text("ANA", false)));
+  }
+  
+  @Test
+  public void testMatchesDoNotSpanRecords() {
+    GeneralizedSuffixTree gst = new GeneralizedSuffixTree.Builder()
+        .addRecord("a", "ABC")
+        .addRecord("b", "DEF")
+        .build();
+    // "CD" and "C*E" only occur across the boundary between the records.
+    assertTrue(gst.queryLocations(new Text("CD", false)).isEmpty());
+    assertTrue(gst.queryLocations(new Text("C*E", false)).isEmpty());
+    assertTrue(gst.queryLocations(new Text("EF*", false)).isEmpty());
+    assertEquals(1, gst.queryLocations(new Text("B*", false)).size());
+    assertEquals(6, gst.queryLocations(new Text("*", false)).size());
+  }
+  
+  @Test
+  public void testRandomAgainstNaive() {
+    Random rand = new Random(7);
+    GeneralizedSuffixTree.Builder gstb = new GeneralizedSuffixTree.Builder();
+    List<String> records = new ArrayList<String>();
+    for (int r = 0; r < 20; r++) {
+      StringBuilder sb = new StringBuilder();
+      int length = rand.nextInt(30);
+      for (int i = 0; i < length; i++) {
+        sb.append("ACGT".charAt(rand.nextInt(4)));
+      }
+      records.add(sb.toString());
+      gstb.addRecord(String.valueOf(r), sb.toString());
+    }
+    GeneralizedSuffixTree gst = gstb.build();
+    
+    for (String p : new String[] { "A", "CG", "A*T", "*C*", "GATT", "T**A" }) {
+      List<Pair<Integer, Integer>> expected = new ArrayList<Pair<Integer, Integer>>();
+      for (int r = 0; r < records.size(); r++) {
+        String s = records.get(r);
+        for (int i = 0; i + p.length() <= s.length(); i++) {
+          boolean match = true;
+          for (int j = 0; j < p.length() && match; j++) {
+            match = p.charAt(j) == '*' || p.charAt(j) == s.charAt(i + j);
+          }
+          if (match)
+            expected.add(loc(r, i));
+        }
+      }
+      assertEquals(p, expected, gst.queryLocations(new Text(p, false)));
+    }
+  }
+  
+  @Test
+  public void testRecordsAgainstLocations() {
+    Random rand = new Random(11);
+    GeneralizedSuffixTree.Builder gstb = new GeneralizedSuffixTree.Builder();
+    for (int r = 0; r < 60; r++) {
+      StringBuilder sb = new StringBuilder();
+      int length = rand.nextInt(25);
+      for (int i = 0; i < length; i++) {
+        sb.append("ACG".charAt(rand.nextInt(3)));
+      }
+      gstb.addRecord(String.valueOf(r), sb.toString());
+    }
+    GeneralizedSuffixTree gst = gstb.build();
+    
+    for (String p : new String[] { "A", "CG", "A*G", "*C*", "GAGA", "G**A", "", "AAAAAAAAAAAA" }) {
+      Text pattern = new Text(p, false);
+      List<Integer> expected = new ArrayList<Integer>();
+      for (Pair<Integer, Integer> location : gst.queryLocations(pattern)) {
+        if (!expected.contains(location.getLeft()))
+          expected.add(location.getLeft());
+      }
+      assertEquals(p, expected, gst.queryRecords(pattern));
+      assertEquals(p, expected.size(), gst.countRecords(pattern));
+    }
+    
+    // Every node's count is the number of distinct records of its leaves.
+    List<Node> stack = new ArrayList<Node>();
+    stack.add(gst.getRoot());
+    while (!stack.isEmpty()) {
+      Node node = stack.remove(stack.size() - 1);
+      Set<Integer> records = new HashSet<Integer>();
+      for (int offset : node.getOffsetIndicesOfLeaves()) {
+        records.add(gst.recordOf(offset));
+      }
+      assertEquals(records.size(), gst.getNumRecords(node));
+      for (Edge edge : node.getOutgoingEdges()) {
+        stack.add(edge.getToNode());
+      }
+    }
+    assertEquals(60, gst.getNumRecords(gst.getRoot()));
+  }
+  
+}
@@ -0,0 +1,121 @@
+package stringmatch.ds.suffixtree;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import stringmatch.ds.text.Text;
+
+public class SlidingWindowSuffixTreeTest {
+
+  private static List<Integer> naiveIndices(String text, String p) {
+    List<Integer> indices = new ArrayList<Integer>();
+    for (int i = 0; i + p.length() <= text.length(); i++) {
+      boolean match = true;
+      for (int j = 0; j < p.length() && match; j++) {
+        char c = p.charAt(j);
+        match = c == text.charAt(i + j) || c == '*';
+      }
+      if (match)
+        indices.add(i);
+    }
+    return indices;
+  }
+
+  // Streams stream through a window of size w, checking the labels after
+  // every symbol and some queries after every few.
+  private static void checkStream(String stream, int w, int maxPosition,
+      Random rand) {
+    SlidingWindowSuffixTree swst = new SlidingWindowSuffixTree(w, maxPosition);
+    String alphabet = "AB*";
+    for (int i = 0; i < stream.length(); i++) {
+      swst.append(stream.charAt(i));
+      swst.checkLabels();
+      int from = Math.max(0, i + 1 - w);
+      String window = stream.substring(from, i + 1);
+      assertEquals(window.length(), swst.getLength());
+      assertEquals(from, swst.getWindowStart());
+      if (i % 7 != 0)
+        continue;
+      for (int q = 0; q < 5; q++) {
+        StringBuilder p = new StringBuilder();
+        int m = 1 + rand.nextInt(Math.min(w, 6));
+        if (rand.nextBoolean()) {
+          int s = rand.nextInt(window.length() - Math.min(m, window.length()) + 1);
+          p.append(window, s, Math.min(s + m, window.length()));
+        } else {
+          for (int j = 0; j < m; j++) {
+            p.append(alphabet.charAt(rand.nextInt(alphabet.length())));
+          }
+        }
+        String pattern = p.toString();
+        List<Integer> expected = naiveIndices(window, pattern);
+        assertEquals(stream + " / " + w + " / " + pattern, expected,
+            swst.naiveWildcardQueryIndices(new Text(pattern, false)));
+        if (pattern.indexOf('*') < 0)
+          assertEquals(expected, swst.queryIndices(new Text(pattern, false)));
+      }
+    }
+  }
+
+  @Test
+  public void testBanana() {
+    SlidingWindowSuffixTree swst = new SlidingWindowSuffixTree(6);
+    swst.append("XYZBANANA");
+    assertEquals(3, swst.getWindowStart());
+    assertEquals(Arrays.asList(1, 3), swst.queryIndices(new Text("ANA", false)));
+    assertEquals(Arrays.asList(0), swst.queryIndices(new Text("BAN", false)));
+    assertTrue(swst.queryIndices(new Text("ZB", false)).isEmpty());
+    assertEquals(Arrays.asList(0, 2, 4),
+        swst.naiveWildcardQueryIndices(new Text("*A", false)));
+  }
+
+  @Test
+  public void testRandomStreams() {
+    Random rand = new Random(17);
+    for (int w : new int[] { 1, 2, 3, 5, 8, 13, 40 }) {
+      for (String alphabet : new String[] { "AB", "ABCD" }) {
+        StringBuilder stream = new StringBuilder();
+        for (int i = 0; i < 30 * w + 100; i++) {
+          stream.append(alphabet.charAt(rand.nextInt(alphabet.length())));
+        }
+        checkStream(stream.toString(), w, 1 << 30, rand);
+      }
+    }
+  }
+
+  @Test
+  public void testRepetitiveStreams() {
+    Random rand = new Random(19);
+    for (int w : new int[] { 1, 2, 4, 7, 16, 33 }) {
+      for (String period : new String[] { "A", "AB", "AAB", "ABAABAAAB" }) {
+        StringBuilder stream = new StringBuilder();
+        while (stream.length() < 20 * w + 100) {
+          stream.append(period);
+        }
+        // Break the period now and then.
+        for (int i = 0; i < 3; i++) {
+          stream.setCharAt(rand.nextInt(stream.length()), 'B');
+        }
+        checkStream(stream.toString(), w, 1 << 30, rand);
+      }
+    }
+  }
+
+  @Test
+  public void testPositionsAreRebased() {
+    Random rand = new Random(23);
+    StringBuilder stream = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      stream.append("AB".charAt(rand.nextInt(2)));
+    }
+    checkStream(stream.toString(), 5, 64, rand);
+    checkStream(stream.toString(), 30, 200, rand);
+  }
+
+}
@@ -7,12 +7,15 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.TreeSet;
 
 import org.junit.Test;
 
 import stringmatch.ds.text.AlphabetCharacter;
 import stringmatch.ds.text.Text;
 import stringmatch.ds.text.TextSubstring;
+import stringmatch.ds.text.Vocabulary;
+import stringmatch.ds.util.MatchVisitor;
 
 public class SuffixTreeTest {
 
@@ -144,6 +147,21 @@ public class SuffixTreeTest {
     assertEquals(generateAllSuffixesOfText(t), st.getAllSuffixesAsStrings());
   }
   
+  @Test
+  public void testPackedDnaSuffixes() {
+    StringBuilder sb = new StringBuilder();
+    Random r = new Random(321L);
+    for (int i = 0; i < 1000; i++) {
+      sb.append(i % 97 < 5 ? 'N' : "ACGT".charAt(r.nextInt(4)));
+    }
+    Text t = new Text(sb.toString(), true, Text.Encoding.PACKED_DNA);
+    SuffixTree.Builder suffixTreeBuilder = new SuffixTree.Builder(t);
+    SuffixTree st = suffixTreeBuilder.build();
+    assertEquals(generateAllSuffixesOfText(t), st.getAllSuffixesAsStrings());
+    assertNotNull(st.query(new Text(sb.substring(200, 260), false,
+        Text.Encoding.PACKED_DNA)));
+  }
+  
   // Outputs all suffixes of t, except '$'.
   public static List<String> generateAllSuffixesOfText(Text t) {
     List<String> suffixes = new ArrayList<String>();
@@ -156,4 +174,405 @@ public class SuffixTreeTest {
     return suffixes;
   }
   
+  @Test
+  public void testTokenText() {
+    // Lots of distinct words, so the root has a large fan-out.
+    Random rand = new Random(5);
+    Vocabulary v = new Vocabulary();
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      sb.append("W").append(rand.nextInt(300)).append(' ');
+    }
+    Text t = v.tokenize(sb.toString(), true);
+    SuffixTree st = new SuffixTree.Builder(t).build();
+    assertEquals(t.getLength(), st.getAllSuffixes().size());
+    assertTrue(st.getRoot().numChildren() > 100);
+    
+    for (int trial = 0; trial < 50; trial++) {
+      int start = rand.nextInt(t.getLength() - 4);
+      Text.Builder pb = new Text.Builder(Text.Encoding.INTS);
+      for (int j = 0; j < 3; j++) {
+        pb.addCode(j == 1 && trial % 2 == 0 ? '*' : t.codeAt(start + j));
+      }
+      Text p = pb.build();
+      List<Integer> expected = new ArrayList<Integer>();
+      for (int i = 0; i + 3 < t.getLength(); i++) {
+        if (t.matchLength(i, p, 0, 3) == 3)
+          expected.add(i);
+      }
+      List<Integer> actual = st.naiveWildcardQueryIndices(p);
+      Collections.sort(actual);
+      assertEquals(expected, actual);
+    }
+  }
+  
+  /*
+   * A structure that answers the same queries as SuffixTree, built anew for
+   * each text.
+   */
+  private static abstract class Matcher {
+    abstract void build(Text t);
+    
+    abstract List<Integer> queryIndices(Text p);
+    
+    // True if p, which has no wildcards, occurs.
+    abstract boolean occurs(Text p);
+  }
+  
+  /*
+   * Checks that matcher finds the same offsets as naiveWildcardQueryIndices
+   * on random texts over "ABC".
+   */
+  private static void checkSameMatches(Random rand, Matcher matcher) {
+    for (int trial = 0; trial < 20; trial++) {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < 200; i++) {
+        sb.append("ABC".charAt(rand.nextInt(3)));
+      }
+      Text t = new Text(sb.toString(), true);
+      SuffixTree st = new SuffixTree.Builder(t).build();
+      matcher.build(t);
+      
+      for (String p : new String[] { "AB", "A*C", "**B", "CAB*", "BBBBBBBBBB", "*", "" }) {
+        Text pattern = new Text(p, false);
+        List<Integer> expected = st.naiveWildcardQueryIndices(pattern);
+        List<Integer> actual = matcher.queryIndices(pattern);
+        Collections.sort(expected);
+        Collections.sort(actual);
+        assertEquals(p, expected, actual);
+        if (p.indexOf('*') < 0)
+          assertEquals(p, !expected.isEmpty(), matcher.occurs(pattern));
+      }
+    }
+  }
+  
+  @Test
+  public void testFrozenTreeGivesSameMatches() {
+    checkSameMatches(new Random(11), new Matcher() {
+      private FrozenSuffixTree frozen;
+      
+      @Override
+      void build(Text t) {
+        frozen = new SuffixTree.Builder(t).build().freeze();
+      }
+      
+      @Override
+      List<Integer> queryIndices(Text p) {
+        return frozen.queryIndices(p);
+      }
+      
+      @Override
+      boolean occurs(Text p) {
+        return frozen.query(p) != FrozenSuffixTree.NONE;
+      }
+    });
+  }
+  
+  // Collects offsets until it has limit of them.
+  private static class Collector implements MatchVisitor {
+    private final int limit;
+    private final List<Integer> offsets = new ArrayList<Integer>();
+    
+    private Collector(int limit) {
+      this.limit = limit;
+    }
+    
+    @Override
+    public boolean visit(int offset) {
+      offsets.add(offset);
+      return offsets.size() < limit;
+    }
+  }
+  
+  @Test
+  public void testVisitorGetsSameMatchesAndCanStop() {
+    Random rand = new Random(43);
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      sb.append("ACG".charAt(rand.nextInt(3)));
+    }
+    Text t = new Text(sb.toString(), true);
+    SuffixTree st = new SuffixTree.Builder(t).build();
+    FrozenSuffixTree frozen = st.freeze();
+    SuffixTreeWithCPD cpd = new SuffixTreeWithCPD.Builder(t, 1).build();
+    SuffixTreeNaiveBigSpace nbs = new SuffixTreeNaiveBigSpace.Builder(t, 1).build();
+    
+    for (String p : new String[] { "A", "AC*", "*G", sb.substring(500, 512) }) {
+      Text pattern = new Text(p, false);
+      List<Integer> expected = st.naiveWildcardQueryIndices(pattern);
+      Collections.sort(expected);
+      
+      Collector all = new Collector(Integer.MAX_VALUE);
+      assertTrue(st.naiveWildcardQueryIndices(pattern, all));
+      Collections.sort(all.offsets);
+      assertEquals(expected, all.offsets);
+      all = new Collector(Integer.MAX_VALUE);
+      assertTrue(frozen.queryIndices(pattern, all));
+      assertEquals(frozen.queryIndices(pattern), all.offsets);
+      all = new Collector(Integer.MAX_VALUE);
+      assertTrue(cpd.smartQueryIndices(pattern, all));
+      Collections.sort(all.offsets);
+      assertEquals(expected, all.offsets);
+      all = new Collector(Integer.MAX_VALUE);
+      assertTrue(nbs.queryForIndices(pattern, all));
+      Collections.sort(all.offsets);
+      assertEquals(expected, all.offsets);
+      
+      // Stopping early gets exactly as many as asked for, all of them
+      // matches.
+      if (expected.size() > 5) {
+        Collector five = new Collector(5);
+        assertFalse(st.naiveWildcardQueryIndices(pattern, five));
+        assertEquals(5, five.offsets.size());
+        assertTrue(expected.containsAll(five.offsets));
+        five = new Collector(5);
+        assertFalse(frozen.queryIndices(pattern, five));
+        assertEquals(frozen.queryIndices(pattern).subList(0, 5), five.offsets);
+        five = new Collector(5);
+        assertFalse(cpd.smartQueryIndices(pattern, five));
+        assertEquals(5, five.offsets.size());
+        assertTrue(expected.containsAll(five.offsets));
+        five = new Collector(5);
+        assertFalse(nbs.queryForIndices(pattern, five));
+        assertEquals(5, five.offsets.size());
+        assertTrue(expected.containsAll(five.offsets));
+      }
+    }
+  }
+  
+  @Test
+  public void testLiteralWildcardInTextIsMatchedOnce() {
+    SuffixTree st = new SuffixTree.Builder(new Text("A*BA*C", true)).build();
+    for (String p : new String[] { "*", "A*", "*B", "**" }) {
+      Text pattern = new Text(p, false);
+      List<Integer> list = st.naiveWildcardQueryIndices(pattern);
+      Collections.sort(list);
+      // No offset twice.
+      assertEquals(p, new ArrayList<Integer>(new TreeSet<Integer>(list)), list);
+      assertEquals(p, list.size(), st.naiveWildcardQueryCount(pattern));
+      assertEquals(p, list, st.naiveWildcardQueryMatches(pattern).toList());
+      Collector all = new Collector(Integer.MAX_VALUE);
+      assertTrue(st.naiveWildcardQueryIndices(pattern, all));
+      Collections.sort(all.offsets);
+      assertEquals(p, list, all.offsets);
+    }
+    assertEquals(6, st.naiveWildcardQueryCount(new Text("*", false)));
+  }
+  
+  @Test
+  public void testLazyTreeGivesSameMatches() {
+    checkSameMatches(new Random(13), new Matcher() {
+      private LazySuffixTree lazy;
+      
+      @Override
+      void build(Text t) {
+        lazy = new LazySuffixTree(t);
+        assertEquals(1, lazy.getNumNodes());
+      }
+      
+      @Override
+      List<Integer> queryIndices(Text p) {
+        return lazy.queryIndices(p);
+      }
+      
+      @Override
+      boolean occurs(Text p) {
+        return lazy.query(p) != LazySuffixTree.NONE;
+      }
+    });
+  }
+  
+  @Test
+  public void testLazyTreeOnlyExpandsWhatQueriesReach() {
+    Random rand = new Random(19);
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 5000; i++) {
+      sb.append("ACGT".charAt(rand.nextInt(4)));
+    }
+    Text t = new Text(sb.toString(), true);
+    LazySuffixTree lazy = new LazySuffixTree(t);
+    String p = sb.substring(1000, 1020);
+    assertEquals("[1000]", lazy.queryIndices(new Text(p, false)).toString());
+    int expanded = lazy.getNumNodes();
+    assertTrue(expanded < 100);
+    // Asking again expands nothing more.
+    lazy.queryIndices(new Text(p, false));
+    assertEquals(expanded, lazy.getNumNodes());
+    
+    // Expanding everything gives the whole tree.
+    int leaves = 0;
+    List<Integer> stack = new ArrayList<Integer>();
+    stack.add(lazy.getRoot());
+    while (!stack.isEmpty()) {
+      int v = stack.remove(stack.size() - 1);
+      if (lazy.isLeaf(v))
+        leaves++;
+      for (int c = lazy.firstChild(v); c != LazySuffixTree.NONE; c = lazy.nextSibling(c)) {
+        stack.add(c);
+      }
+    }
+    assertEquals(t.getLength(), leaves);
+    assertEquals(new SuffixTree.Builder(t).build().freeze().getNumNodes(),
+        lazy.getNumNodes());
+  }
+  
+  @Test
+  public void testChildLookupByFanOut() {
+    // Letters (a direct table at the top), sparse token codes (sorted
+    // arrays) and a large vocabulary (hashed at the root).
+    Random rand = new Random(17);
+    StringBuilder letters = new StringBuilder();
+    for (int i = 0; i < 3000; i++) {
+      letters.append((char) ('A' + rand.nextInt(26)));
+    }
+    checkChildLookup(new SuffixTree.Builder(new Text(letters.toString(), true)).build());
+    
+    Vocabulary v = new Vocabulary();
+    for (int i = 0; i < 1000; i++) {
+      v.getCode("filler" + i);
+    }
+    StringBuilder words = new StringBuilder();
+    for (int i = 0; i < 3000; i++) {
+      int w = rand.nextInt(20);
+      words.append("filler").append(i % 3 == 0 ? w : w * 50 + rand.nextInt(2)).append(' ');
+    }
+    checkChildLookup(new SuffixTree.Builder(v.tokenize(words.toString(), true)).build());
+  }
+  
+  // Compares every node's lookups with a scan of its edges.
+  private static void checkChildLookup(SuffixTree st) {
+    List<Node> stack = new ArrayList<Node>();
+    stack.add(st.getRoot());
+    while (!stack.isEmpty()) {
+      Node node = stack.remove(stack.size() - 1);
+      List<Edge> edges = node.getOutgoingEdges();
+      if (edges.isEmpty())
+        continue;
+      Edge left = edges.get(0), right = edges.get(0);
+      for (Edge e : edges) {
+        assertSame(e, node.follow(e.codeAt(0)));
+        if (e.codeAt(0) < left.codeAt(0))
+          left = e;
+        if (e.codeAt(0) > right.codeAt(0))
+          right = e;
+        stack.add(e.getToNode());
+      }
+      assertSame(left, node.followLeft());
+      assertSame(right, node.followRight());
+      assertNull(node.follow(right.codeAt(0) + 1));
+      for (Edge e : edges) {
+        Edge prev = edges.get(0);
+        for (Edge f : edges) {
+          if (f.codeAt(0) < e.codeAt(0) && f.codeAt(0) > prev.codeAt(0))
+            prev = f;
+        }
+        assertSame(prev, node.followPrevious(e.getCharAt(0)));
+      }
+    }
+  }
+  
+  @Test
+  public void testSuffixArrayConstructionGivesSameTree() {
+    Random rand = new Random(19);
+    for (int trial = 0; trial < 30; trial++) {
+      StringBuilder sb = new StringBuilder();
+      int n = 1 + rand.nextInt(300);
+      for (int i = 0; i < n; i++) {
+        sb.append("ABC".charAt(rand.nextInt(trial % 3 + 1)));
+      }
+      Text t = new Text(sb.toString(), true);
+      SuffixTree ukkonen = new SuffixTree.Builder(t).build();
+      SuffixTree fromSuffixArray = new SuffixTree.Builder(t,
+          SuffixTree.Construction.SUFFIX_ARRAY).build();
+      assertSameTree(ukkonen.getRoot(), fromSuffixArray.getRoot());
+      SuffixTree parallel = new SuffixTree.Builder(t,
+          SuffixTree.Construction.PARALLEL).build();
+      assertSameTree(ukkonen.getRoot(), parallel.getRoot());
+    }
+  }
+  
+  @Test
+  public void testParallelConstructionOnLargerText() {
+    Random rand = new Random(29);
+    StringBuilder sb = new StringBuilder();
+    while (sb.length() < 50000) {
+      // Repeats, so that some ranges are much deeper than others.
+      if (rand.nextInt(100) == 0 && sb.length() > 1000) {
+        int start = rand.nextInt(sb.length() - 500);
+        sb.append(sb, start, start + 1 + rand.nextInt(499));
+      } else {
+        sb.append("ACGT".charAt(rand.nextInt(4)));
+      }
+    }
+    Text t = new Text(sb.toString(), true);
+    assertSameTree(new SuffixTree.Builder(t).build().getRoot(),
+        new SuffixTree.Builder(t, SuffixTree.Construction.PARALLEL).build().getRoot());
+  }
+  
+  @Test
+  public void testDeepTreeOnSmallStack() throws Throwable {
+    // A^n$ has a path of n internal nodes, far deeper than a 256K stack
+    // could recurse.
+    final int n = 50000;
+    final Throwable[] failure = new Throwable[1];
+    Thread thread = new Thread(null, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          StringBuilder sb = new StringBuilder();
+          for (int i = 0; i < n; i++) {
+            sb.append('A');
+          }
+          Text t = new Text(sb.toString(), true);
+          SuffixTree st = new SuffixTree.Builder(t).build();
+          assertSameTree(st.getRoot(), new SuffixTree.Builder(t,
+              SuffixTree.Construction.SUFFIX_ARRAY).build().getRoot());
+          assertSameTree(st.getRoot(), st.getRoot().clone());
+          assertEquals(n + 1, st.getRoot().getOffsetIndicesOfLeaves().size());
+
+          Text p = new Text(sb.substring(0, n - 10), false);
+          List<Integer> matches = st.query(p).getLeft().getOffsetIndicesOfLeaves();
+          assertEquals(11, matches.size());
+          assertEquals(11, st.freeze().queryIndices(p).size());
+        } catch (Throwable e) {
+          failure[0] = e;
+        }
+      }
+    }, "small-stack", 256 * 1024);
+    thread.start();
+    thread.join();
+    if (failure[0] != null)
+      throw failure[0];
+  }
+  
+  @Test(expected = IllegalArgumentException.class)
+  public void testSuffixArrayConstructionNeedsEndChar() {
+    new SuffixTree.Builder(new Text("BANANA", false),
+        SuffixTree.Construction.SUFFIX_ARRAY).build();
+  }
+  
+  private static void assertSameTree(Node expectedRoot, Node actualRoot) {
+    // With an explicit stack, so that it works on deep trees.
+    List<Node> stack = new ArrayList<Node>();
+    stack.add(expectedRoot);
+    stack.add(actualRoot);
+    while (!stack.isEmpty()) {
+      Node actual = stack.remove(stack.size() - 1);
+      Node expected = stack.remove(stack.size() - 1);
+      assertEquals(expected.isLeaf(), actual.isLeaf());
+      assertEquals(expected.leafOffsetIndexInS, actual.leafOffsetIndexInS);
+      assertEquals(expected.leafLexicographicIndexInS, actual.leafLexicographicIndexInS);
+      assertEquals(expected.numChildren(), actual.numChildren());
+      for (int i = 0; i < expected.numChildren(); i++) {
+        Edge e = expected.getOutgoingEdges().get(i);
+        Edge a = actual.getOutgoingEdges().get(i);
+        assertEquals(e.toString(), a.toString());
+        assertSame(actual, a.getFromNode());
+        assertSame(a, a.getToNode().incomingEdge);
+        stack.add(e.getToNode());
+        stack.add(a.getToNode());
+      }
+    }
+  }
+  
 }
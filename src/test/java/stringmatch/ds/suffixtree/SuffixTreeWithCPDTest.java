@@ -4,15 +4,20 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.Ignore;
 import org.junit.Test;
 
 import stringmatch.ds.text.AlphabetCharacter;
 import stringmatch.ds.text.Text;
+import stringmatch.ds.text.Vocabulary;
 import stringmatch.ds.util.Pair;
 
 public class SuffixTreeWithCPDTest {
@@ -496,4 +501,153 @@ public class SuffixTreeWithCPDTest {
       
   }
   
+  @Test
+  public void testFingerprintedTextGivesSameMatches() {
+    String s = "THEQUICKBROWNFOXJUMPSOVERTHELAZYDOGTHEQUICKBROWNFOXJUMPSOVERTHELAZYCAT"
+        + "THEQUICKBROWNFOXJUMPSOVERTHELAZYDOG";
+    SuffixTreeWithCPD plain = new SuffixTreeWithCPD.Builder(new Text(s, true), 1).build();
+    Text t = new Text(s, true).computeFingerprints();
+    SuffixTreeWithCPD fingerprinted = new SuffixTreeWithCPD.Builder(t, 1).build();
+    
+    for (String p : new String[] { "QUICKBROWNFOXJUMPSOVER*HELAZY",
+        "BROWNFOXJUMPSOVERTHELAZYD*G", "OVERTHELAZYDOGTHEQUICKBROWN*OX",
+        "QUICKBROWNFOXJUMPSOVERTHELAZYC*X" }) {
+      List<Integer> expected = plain.smartQueryIndices(new Text(p, false));
+      List<Integer> actual = fingerprinted.smartQueryIndices(new Text(p, false));
+      Collections.sort(expected);
+      Collections.sort(actual);
+      assertEquals(p, expected, actual);
+    }
+  }
+  
+  @Test
+  public void testTokenText() {
+    Vocabulary v = new Vocabulary();
+    Text t = v.tokenize("TO BE OR NOT TO BE THAT IS THE QUESTION TO SEE OR NOT TO SEE", true);
+    SuffixTreeWithCPD st = new SuffixTreeWithCPD.Builder(t, 1).build();
+    
+    List<Integer> result = st.smartQueryIndices(v.tokenize("TO * OR", false));
+    Collections.sort(result);
+    assertEquals("[0, 10]", result.toString());
+    result = st.smartQueryIndices(v.tokenize("NOT TO *", false));
+    Collections.sort(result);
+    assertEquals("[3, 13]", result.toString());
+  }
+  
+  @Test
+  public void testSuffixArrayConstructionGivesSameMatches() {
+    Random rand = new Random(23);
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 400; i++) {
+      sb.append("ACGT".charAt(rand.nextInt(4)));
+    }
+    Text t = new Text(sb.toString(), true);
+    SuffixTreeWithCPD ukkonen = new SuffixTreeWithCPD.Builder(t, 2).build();
+    SuffixTreeWithCPD fromSuffixArray = new SuffixTreeWithCPD.Builder(t, 2,
+        SuffixTree.Construction.SUFFIX_ARRAY).build();
+    for (int trial = 0; trial < 100; trial++) {
+      int start = rand.nextInt(390);
+      char[] p = sb.substring(start, start + 8).toCharArray();
+      p[rand.nextInt(8)] = '*';
+      p[rand.nextInt(8)] = '*';
+      Text pattern = new Text(new String(p), false);
+      List<Integer> expected = ukkonen.smartQueryIndices(pattern);
+      List<Integer> actual = fromSuffixArray.smartQueryIndices(pattern);
+      Collections.sort(expected);
+      Collections.sort(actual);
+      assertEquals(expected, actual);
+    }
+  }
+  
+  @Test
+  public void testSaveAndLoadGiveSameMatches() throws IOException {
+    Random rand = new Random(29);
+    for (Text.Encoding encoding : new Text.Encoding[] {
+        Text.Encoding.CHARACTERS, Text.Encoding.BYTES }) {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < 300; i++) {
+        sb.append("ACGT".charAt(rand.nextInt(4)));
+      }
+      Text t = new Text(sb.toString(), true, encoding);
+      SuffixTreeWithCPD built = new SuffixTreeWithCPD.Builder(t, 2).build();
+      File file = File.createTempFile("suffixtree", ".snapshot");
+      file.deleteOnExit();
+      built.save(file);
+      SuffixTreeWithCPD loaded = SuffixTreeWithCPD.load(file);
+      
+      assertEquals(built.getAllSuffixesAsStrings(), loaded.getAllSuffixesAsStrings());
+      for (int trial = 0; trial < 100; trial++) {
+        int start = rand.nextInt(290);
+        char[] p = sb.substring(start, start + 8).toCharArray();
+        p[rand.nextInt(8)] = '*';
+        p[rand.nextInt(8)] = '*';
+        Text pattern = new Text(new String(p), false);
+        List<Integer> expected = built.smartQueryIndices(pattern);
+        List<Integer> actual = loaded.smartQueryIndices(pattern);
+        Collections.sort(expected);
+        Collections.sort(actual);
+        assertEquals(expected, actual);
+      }
+      file.delete();
+    }
+  }
+  
+  @Test(expected = IOException.class)
+  public void testLoadRejectsOtherFiles() throws IOException {
+    File file = File.createTempFile("suffixtree", ".snapshot");
+    file.deleteOnExit();
+    FileOutputStream out = new FileOutputStream(file);
+    out.write("NOT A SUFFIX TREE".getBytes("UTF-8"));
+    out.close();
+    SuffixTreeWithCPD.load(file);
+  }
+  
+  @Test
+  public void testLeafRangesMatchLeaves() {
+    Random rand = new Random(31);
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 120; i++) {
+      sb.append("ACG".charAt(rand.nextInt(3)));
+    }
+    Text t = new Text(sb.toString(), true);
+    SuffixTreeWithCPD st = new SuffixTreeWithCPD.Builder(t, 2).build();
+    
+    // Every node, in the tree and in its wildcard subtrees, reports the
+    // same leaves from its range as from a walk.
+    int[] offsets = st.getLeafOffsets();
+    List<Node> stack = new ArrayList<Node>();
+    stack.add(st.getRoot());
+    int nodes = 0;
+    while (!stack.isEmpty()) {
+      Node node = stack.remove(stack.size() - 1);
+      List<Integer> range = new ArrayList<Integer>();
+      st.addLeafOffsets(node, range);
+      assertEquals(node.getOffsetIndicesOfLeaves(), range);
+      assertEquals(range.size(), st.countLeaves(node));
+      for (Edge edge : node.getOutgoingEdges()) {
+        stack.add(edge.getToNode());
+      }
+      nodes++;
+    }
+    assertTrue(offsets.length > t.getLength());
+    assertTrue(nodes > offsets.length);
+    
+    for (int trial = 0; trial < 50; trial++) {
+      int start = rand.nextInt(110);
+      char[] p = sb.substring(start, start + 6).toCharArray();
+      p[rand.nextInt(6)] = '*';
+      p[rand.nextInt(6)] = '*';
+      Text pattern = new Text(new String(p), false);
+      List<Integer> smart = st.smartQueryIndices(pattern);
+      List<Integer> naive = st.naiveWildcardQueryIndices(pattern);
+      assertEquals(smart.size(), st.smartQueryCount(pattern));
+      assertEquals(naive.size(), st.naiveWildcardQueryCount(pattern));
+      Collections.sort(smart);
+      Collections.sort(naive);
+      assertEquals(naive, smart);
+      assertEquals(naive, st.smartQueryMatches(pattern).toList());
+      assertEquals(naive, st.naiveWildcardQueryMatches(pattern).toList());
+    }
+  }
+  
 }
@@ -0,0 +1,37 @@
+package stringmatch.ds.text;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class AlphabetTest {
+
+  @Test
+  public void testReservedSymbols() {
+    assertSame(AlphabetCharacter.END_CHAR, Alphabet.forCode(Alphabet.END_CODE));
+    assertSame(AlphabetCharacter.WILDCARD, Alphabet.forCode(Alphabet.WILDCARD_CODE));
+    assertEquals(Alphabet.END_ORDINAL, AlphabetCharacter.END_CHAR.getOrdinal());
+    assertEquals(Alphabet.WILDCARD_ORDINAL, AlphabetCharacter.WILDCARD.getOrdinal());
+    assertSame(AlphabetCharacter.END_CHAR, Alphabet.forOrdinal(Alphabet.END_ORDINAL));
+  }
+  
+  @Test
+  public void testInterning() {
+    Text t = new Text("BANANA", false);
+    assertSame(t.getCharAtIndex(1), t.getCharAtIndex(3));
+    assertSame(Alphabet.forCode('N'), t.getCharAtIndex(2));
+    
+    AlphabetCharacter a = new AlphabetCharacter(new Character('A'));
+    assertEquals(Alphabet.forCode('A'), a);
+    assertEquals(Alphabet.forCode('A').getOrdinal(), a.getOrdinal());
+    assertSame(Alphabet.forCode('A'), Alphabet.forOrdinal(a.getOrdinal()));
+  }
+  
+  @Test
+  public void testOrderFollowsCharacters() {
+    assertTrue(AlphabetCharacter.END_CHAR.compareTo(Alphabet.forCode('A')) < 0);
+    assertTrue(Alphabet.forCode('Z').compareTo(Alphabet.forCode('A')) > 0);
+    assertEquals(0, Alphabet.forCode('Q').compareTo(new AlphabetCharacter('Q')));
+  }
+  
+}
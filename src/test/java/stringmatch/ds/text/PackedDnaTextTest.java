@@ -0,0 +1,78 @@
+package stringmatch.ds.text;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PackedDnaTextTest {
+
+  private static String randomDna(Random r, int n) {
+    String bases = "ACGT";
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < n; i++) {
+      if (r.nextInt(50) == 0) {
+        // Throw in a run of Ns.
+        int runLength = 1 + r.nextInt(40);
+        for (int j = 0; j < runLength; j++)
+          sb.append('N');
+        i += runLength - 1;
+      } else {
+        sb.append(bases.charAt(r.nextInt(4)));
+      }
+    }
+    return sb.toString();
+  }
+  
+  @Test
+  public void testRoundTrip() {
+    String s = randomDna(new Random(1L), 5000);
+    Text packed = new Text(s, true, Text.Encoding.PACKED_DNA);
+    Text plain = new Text(s, true);
+    assertEquals(Text.Encoding.PACKED_DNA, packed.getEncoding());
+    assertEquals(plain.getLength(), packed.getLength());
+    for (int i = 0; i < plain.getLength(); i++) {
+      assertEquals(plain.codeAt(i), packed.codeAt(i));
+    }
+    assertEquals(plain, packed);
+    assertEquals(plain.hashCode(), packed.hashCode());
+    assertEquals(s + "$", packed.toString());
+  }
+  
+  @Test
+  public void testCommonPrefixLengthMatchesNaive() {
+    Random r = new Random(2L);
+    // Lots of repeats so that long common prefixes come up.
+    String unit = randomDna(r, 300);
+    String s = unit + unit.substring(0, 250) + randomDna(r, 200) + unit;
+    Text packed = new Text(s, true, Text.Encoding.PACKED_DNA);
+    Text plain = new Text(s, true);
+    for (int t = 0; t < 2000; t++) {
+      int i = r.nextInt(plain.getLength());
+      int j = r.nextInt(plain.getLength());
+      int max = Math.min(plain.getLength() - i, plain.getLength() - j);
+      int expected = plain.commonPrefixLength(i, plain, j, max);
+      assertEquals(expected, packed.commonPrefixLength(i, packed, j, max));
+      assertEquals(expected, packed.commonPrefixLength(i, plain, j, max));
+    }
+    assertEquals(300, packed.commonPrefixLength(0, packed, 550 + 200, 300));
+  }
+  
+  @Test
+  public void testBuilderExtractAndCut() {
+    String s = randomDna(new Random(3L), 1000);
+    Text.Builder tb = new Text.Builder(Text.Encoding.PACKED_DNA);
+    tb.addString(s.substring(0, 500));
+    tb.addString(s.substring(500));
+    tb.cutToSize(700);
+    tb.addAlphabetCharacter(AlphabetCharacter.END_CHAR);
+    Text packed = tb.build();
+    assertEquals(new Text(s.substring(0, 700), true), packed);
+    
+    Text sub = packed.extractSubstring(123, 456).addEndCharIfNeeded();
+    assertEquals(Text.Encoding.PACKED_DNA, sub.getEncoding());
+    assertEquals(new Text(s.substring(123, 456), true), sub);
+  }
+  
+}
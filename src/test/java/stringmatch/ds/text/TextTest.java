@@ -0,0 +1,177 @@
+package stringmatch.ds.text;
+
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TextTest {
+
+  @Test
+  public void testCodesMatchCharacters() {
+    Text t = new Text("BANANA", true);
+    assertEquals(7, t.getLength());
+    for (int i = 0; i < t.getLength(); i++) {
+      assertEquals(t.getCharAtIndex(i).getCode(), t.codeAt(i));
+    }
+    assertEquals(AlphabetCharacter.END_CHAR, t.getCharAtIndex(6));
+    assertEquals("BANANA$", t.toString());
+  }
+  
+  @Test
+  public void testBuilderMatchesStringConstructor() {
+    Text.Builder tb = new Text.Builder();
+    tb.addString("BAN");
+    tb.addAlphabetCharacter(new AlphabetCharacter(new Character('A')));
+    tb.addString("NA");
+    tb.addAlphabetCharacter(AlphabetCharacter.END_CHAR);
+    assertEquals(new Text("BANANA", true), tb.build());
+  }
+  
+  @Test
+  public void testExtractSubstringAndAddEndChar() {
+    Text t = new Text("BANANA", true);
+    Text sub = t.extractSubstring(1, 4);
+    assertEquals("ANA", sub.toString());
+    sub.addEndCharIfNeeded();
+    assertEquals(new Text("ANA", true), sub);
+    sub.addEndCharIfNeeded();
+    assertEquals(4, sub.getLength());
+  }
+  
+  @Test
+  public void testTextSubstringView() {
+    Text t = new Text("BANANA", true);
+    TextSubstring ts = new TextSubstring(t, 1, 4);
+    assertEquals("ANAN", ts.toString());
+    assertEquals('N', ts.codeAt(1));
+    assertEquals('N', ts.codeAt(3));
+    assertEquals("NA", ts.substring(1, 3).toString());
+    assertEquals(4, ts.asList().size());
+    assertEquals(AlphabetCharacter.END_CHAR, new TextSubstring(t, 6, 1).asList().get(0));
+    
+    Text pattern = new Text("XANAB", false);
+    assertTrue(ts.regionMatches(pattern, 1, 3));
+    assertFalse(ts.regionMatches(pattern, 1, 4));
+    assertEquals(-1, ts.mismatchIndex(pattern, 1, 3));
+    assertEquals(3, ts.mismatchIndex(pattern, 1, 4));
+    assertEquals(0, ts.mismatchIndex(pattern, 0, 4));
+  }
+  
+  @Test
+  public void testCompareToAndWildcards() {
+    assertTrue(new Text("ANA", false).compareTo(new Text("ANAN", false)) < 0);
+    assertTrue(new Text("B", false).compareTo(new Text("ANAN", false)) > 0);
+    assertTrue(new Text("A*A", false).equalsIgnoreWildcards(new Text("ANA", false)));
+    assertFalse(new Text("A*B", false).equalsIgnoreWildcards(new Text("ANA", false)));
+  }
+  
+  // Matching a symbol at a time, as checkMatch used to.
+  private static int naiveMatchLength(Text t, int start, Text p, int pStart,
+      int maxLength) {
+    for (int i = 0; i < maxLength; i++) {
+      int c = t.codeAt(start + i);
+      int pc = p.codeAt(pStart + i);
+      if (c != pc && !(pc == Alphabet.WILDCARD_CODE && !Alphabet.isTerminator(c)))
+        return i;
+    }
+    return maxLength;
+  }
+  
+  @Test
+  public void testMatchLengthAgainstNaive() {
+    Random rand = new Random(11);
+    String symbols = "ACGTACGTACGTN$" + (char) Alphabet.SEPARATOR_CODE;
+    for (Text.Encoding encoding : Text.Encoding.values()) {
+      for (int trial = 0; trial < 200; trial++) {
+        StringBuilder sb = new StringBuilder();
+        int n = 1 + rand.nextInt(150);
+        for (int i = 0; i < n; i++) {
+          sb.append(rand.nextInt(8) == 0
+              ? symbols.charAt(rand.nextInt(symbols.length()))
+              : "ACGT".charAt(rand.nextInt(4)));
+        }
+        Text t = new Text(sb.toString(), false, encoding);
+        int start = rand.nextInt(n);
+        int length = rand.nextInt(n - start + 1);
+        
+        // The pattern is a copy of a window of t, with some symbols changed
+        // and some replaced by wildcards.
+        StringBuilder pb = new StringBuilder(sb.substring(start, start + length));
+        for (int i = 0; i < pb.length(); i++) {
+          int r = rand.nextInt(40);
+          if (r == 0)
+            pb.setCharAt(i, "ACGT".charAt(rand.nextInt(4)));
+          else if (r < 6)
+            pb.setCharAt(i, '*');
+        }
+        Text p = new Text(pb.toString(), false, encoding);
+        assertEquals(naiveMatchLength(t, start, p, 0, length),
+            t.matchLength(start, p, 0, length));
+        assertEquals(naiveMatchLength(t, start, new Text(pb.toString(), false), 0, length),
+            t.matchLength(start, new Text(pb.toString(), false), 0, length));
+      }
+    }
+  }
+  
+  @Test
+  public void testFingerprintMultiply() {
+    Random rand = new Random(3);
+    BigInteger modulus = BigInteger.valueOf(Fingerprints.MODULUS);
+    for (int i = 0; i < 1000; i++) {
+      long a = (rand.nextLong() >>> 3) % Fingerprints.MODULUS;
+      long b = i == 0 ? Fingerprints.MODULUS - 1 : (rand.nextLong() >>> 3) % Fingerprints.MODULUS;
+      long expected = BigInteger.valueOf(a).multiply(BigInteger.valueOf(b))
+          .mod(modulus).longValue();
+      assertEquals(expected, Fingerprints.multiply(a, b));
+    }
+  }
+  
+  @Test
+  public void testFingerprints() {
+    String s = "ACGTTGCAACGTTGCAACGTTGCAGGGGACGTTGCAACGTTGCAACGTTGCA";
+    Text t = new Text(s, true, Text.Encoding.PACKED_DNA).computeFingerprints();
+    Text p = new Text(s.substring(28, 52), false).computeFingerprints();
+    assertEquals(t.fingerprint(0, 24), p.fingerprint(0, 24));
+    assertEquals(t.fingerprint(4, 16), p.fingerprint(4, 16));
+    assertFalse(t.fingerprint(0, 24) == t.fingerprint(1, 24));
+    assertTrue(t.regionEquals(0, p, 0, 24));
+    assertFalse(t.regionEquals(8, p, 0, 24));
+    assertFalse(t.regionEquals(20, p, 0, 24));
+    
+    // Fingerprints stay in sync when '$' is appended.
+    Text u = new Text(s, false).computeFingerprints().addEndCharIfNeeded();
+    assertEquals(t.fingerprint(30, s.length() - 29), u.fingerprint(30, s.length() - 29));
+  }
+  
+  @Test
+  public void testAppend() {
+    String s = "ACGTTGCAACGTTGCAACGTTGCAGGGGACGTTGCAACGTTGCAACGTTGCA";
+    Text whole = new Text(s, false, Text.Encoding.PACKED_DNA).computeFingerprints();
+    Text t = new Text(s.substring(0, 5), false, Text.Encoding.PACKED_DNA)
+        .computeFingerprints();
+    t.append(new Text(s.substring(5, 40), false)).append(new Text(s.substring(40), false));
+    assertEquals(whole, t);
+    assertEquals(whole.fingerprint(3, 45), t.fingerprint(3, 45));
+  }
+  
+  
+  @Test
+  public void testRing() {
+    Text t = Text.ring(5);
+    assertEquals(8, t.getRingCapacity());
+    for (int i = 0; i < 20; i++) {
+      t.append('A' + i);
+    }
+    assertEquals(20, t.getLength());
+    assertEquals('A' + 12, t.codeAt(12));
+    assertEquals('A' + 19, t.codeAt(19));
+    t.rebase(8);
+    assertEquals(12, t.getLength());
+    assertEquals('A' + 19, t.codeAt(11));
+    assertEquals("PQRST", t.extractSubstring(7, 12).toString());
+  }
+  
+}
@@ -0,0 +1,48 @@
+package stringmatch.ds.text;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class VocabularyTest {
+
+  @Test
+  public void testTokenize() {
+    Vocabulary v = new Vocabulary();
+    Text t = v.tokenize("THE CAT SAT ON THE MAT", true);
+    assertEquals(Text.Encoding.INTS, t.getEncoding());
+    assertEquals(7, t.getLength());
+    assertEquals(5, v.size());
+    assertEquals(t.codeAt(0), t.codeAt(4));
+    assertEquals(Alphabet.TOKEN_BASE, t.codeAt(0));
+    assertEquals(Alphabet.END_CODE, t.codeAt(6));
+    assertEquals("THE CAT SAT ON THE MAT $", v.toWords(t));
+    assertEquals(-1, v.lookup("DOG"));
+    
+    Text p = v.tokenize("THE * SAT", false);
+    assertEquals(Alphabet.WILDCARD_CODE, p.codeAt(1));
+    assertEquals(5, v.size());
+    assertEquals(3, t.matchLength(0, p, 0, 3));
+  }
+  
+  @Test
+  public void testLargeCodes() {
+    int code = Alphabet.TOKEN_BASE + 1000000;
+    AlphabetCharacter ac = Alphabet.forCode(code);
+    assertSame(ac, Alphabet.forCode(code));
+    assertEquals(code, ac.getCode());
+    assertSame(ac, Alphabet.forOrdinal(ac.getOrdinal()));
+    assertEquals("<1000000>", ac.toString());
+    assertTrue(AlphabetCharacter.END_CHAR.compareTo(ac) < 0);
+    
+    Text t = new Text(ac);
+    assertEquals(Text.Encoding.INTS, t.getEncoding());
+    assertEquals(ac, t.getCharAtIndex(0));
+  }
+  
+  @Test(expected = IllegalArgumentException.class)
+  public void testTokenDoesNotFitInChars() {
+    new Text.Builder().addCode(Alphabet.TOKEN_BASE);
+  }
+  
+}
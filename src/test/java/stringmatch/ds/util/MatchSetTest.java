@@ -0,0 +1,165 @@
+package stringmatch.ds.util;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import stringmatch.ds.util.MatchSet.Representation;
+
+public class MatchSetTest {
+
+  // A random set of offsets in [0, span), each there with the given
+  // probability, or in runs if runLength > 1.
+  private static TreeSet<Integer> randomOffsets(Random rand, int span,
+      double density, int runLength) {
+    TreeSet<Integer> offsets = new TreeSet<Integer>();
+    for (int i = 0; i < span; i += runLength) {
+      if (rand.nextDouble() < density) {
+        for (int j = i; j < Math.min(span, i + runLength); j++) {
+          offsets.add(j);
+        }
+      }
+    }
+    return offsets;
+  }
+
+  private static MatchSet build(TreeSet<Integer> offsets, Random rand) {
+    // In any order, with repeats.
+    List<Integer> shuffled = new ArrayList<Integer>(offsets);
+    shuffled.addAll(offsets);
+    Collections.shuffle(shuffled, rand);
+    MatchSet.Builder builder = new MatchSet.Builder();
+    for (int offset : shuffled) {
+      builder.add(offset);
+    }
+    return builder.build();
+  }
+
+  private static void check(TreeSet<Integer> expected, MatchSet actual) {
+    assertEquals(expected.size(), actual.size());
+    assertEquals(new ArrayList<Integer>(expected), actual.toList());
+    int[] array = actual.toArray();
+    assertEquals(expected.size(), array.length);
+    for (int i = 0; i < 3000; i += 7) {
+      assertEquals(expected.contains(i), actual.contains(i));
+    }
+  }
+
+  @Test
+  public void testRepresentations() {
+    Random rand = new Random(37);
+    MatchSet sparse = build(randomOffsets(rand, 3000, 0.01, 1), rand);
+    assertEquals(Representation.ARRAY, sparse.getRepresentation());
+    MatchSet runs = build(randomOffsets(rand, 3000, 0.1, 40), rand);
+    assertEquals(Representation.RUNS, runs.getRepresentation());
+    MatchSet dense = build(randomOffsets(rand, 3000, 0.5, 1), rand);
+    assertEquals(Representation.BITMAP, dense.getRepresentation());
+    assertEquals(Representation.RUNS, MatchSet.range(5, 500).getRepresentation());
+    assertTrue(MatchSet.empty().isEmpty());
+    assertEquals("[1, 4, 9]", MatchSet.of(9, 1, 4, 1).toString());
+  }
+
+  @Test
+  public void testAgainstTreeSet() {
+    Random rand = new Random(41);
+    double[] densities = { 0, 0.005, 0.1, 0.5, 0.95 };
+    int[] runLengths = { 1, 1, 20, 1, 3 };
+    List<TreeSet<Integer>> expected = new ArrayList<TreeSet<Integer>>();
+    List<MatchSet> actual = new ArrayList<MatchSet>();
+    for (int i = 0; i < densities.length; i++) {
+      for (int offset : new int[] { 0, 1000 }) {
+        TreeSet<Integer> offsets = new TreeSet<Integer>();
+        for (int o : randomOffsets(rand, 2000, densities[i], runLengths[i])) {
+          offsets.add(o + offset);
+        }
+        MatchSet set = build(offsets, rand);
+        check(offsets, set);
+        expected.add(offsets);
+        actual.add(set);
+      }
+    }
+    
+    for (int i = 0; i < expected.size(); i++) {
+      for (int j = 0; j < expected.size(); j++) {
+        TreeSet<Integer> union = new TreeSet<Integer>(expected.get(i));
+        union.addAll(expected.get(j));
+        check(union, actual.get(i).union(actual.get(j)));
+        TreeSet<Integer> intersection = new TreeSet<Integer>(expected.get(i));
+        intersection.retainAll(expected.get(j));
+        check(intersection, actual.get(i).intersect(actual.get(j)));
+        assertEquals(expected.get(i).equals(expected.get(j)),
+            actual.get(i).equals(actual.get(j)));
+      }
+    }
+  }
+
+  @Test
+  public void testSetsNearMaxValue() {
+    Random rand = new Random(43);
+    TreeSet<Integer> low = new TreeSet<Integer>();
+    TreeSet<Integer> high = new TreeSet<Integer>();
+    TreeSet<Integer> start = new TreeSet<Integer>();
+    for (int i = 0; i < 1000; i += 2) {
+      low.add(Integer.MAX_VALUE - 2000 + i);
+      high.add(Integer.MAX_VALUE - 1000 + i);
+      start.add(640 + i);
+    }
+    MatchSet lo = build(low, rand);
+    MatchSet hi = build(high, rand);
+    MatchSet first = build(start, rand);
+    assertEquals(Representation.BITMAP, hi.getRepresentation());
+
+    TreeSet<Integer> union = new TreeSet<Integer>(low);
+    union.addAll(high);
+    assertEquals(new ArrayList<Integer>(union), lo.union(hi).toList());
+    assertEquals(new ArrayList<Integer>(high), hi.intersect(hi).toList());
+    assertTrue(lo.intersect(hi).isEmpty());
+    assertTrue(hi.contains(Integer.MAX_VALUE - 2));
+    assertFalse(hi.contains(Integer.MAX_VALUE - 1));
+
+    // Far apart, so merged rather than or-ed over the whole gap.
+    union = new TreeSet<Integer>(start);
+    union.addAll(high);
+    MatchSet both = first.union(hi);
+    assertEquals(new ArrayList<Integer>(union), both.toList());
+    assertFalse(both.getRepresentation() == Representation.BITMAP);
+
+    // Runs that end at MAX_VALUE.
+    int max = Integer.MAX_VALUE;
+    MatchSet tail = MatchSet.of(max - 3, max - 2, max - 1, max);
+    assertEquals(Representation.RUNS, tail.getRepresentation());
+    assertEquals(4, tail.size());
+    assertTrue(tail.contains(max));
+    assertFalse(tail.contains(max - 4));
+    assertEquals(Arrays.asList(max - 3, max - 2, max - 1, max), tail.toList());
+    TreeSet<Integer> runs = new TreeSet<Integer>();
+    for (int i = 0; i < 30; i++) {
+      runs.add(max - 200 + i);
+      runs.add(max - 30 + i);
+    }
+    runs.add(max);
+    MatchSet runSet = build(runs, rand);
+    assertEquals(Representation.RUNS, runSet.getRepresentation());
+    check(runs, runSet);
+    TreeSet<Integer> common = new TreeSet<Integer>(runs);
+    common.retainAll(tail.toList());
+    assertEquals(new ArrayList<Integer>(common), runSet.intersect(tail).toList());
+    assertEquals(new ArrayList<Integer>(common), tail.intersect(runSet).toList());
+    union = new TreeSet<Integer>(runs);
+    union.addAll(high);
+    assertEquals(new ArrayList<Integer>(union), runSet.union(hi).toList());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeOffset() {
+    new MatchSet.Builder().add(-1);
+  }
+
+}
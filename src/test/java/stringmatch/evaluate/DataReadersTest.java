@@ -0,0 +1,178 @@
+package stringmatch.evaluate;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.util.Random;
+
+import org.junit.Test;
+
+import stringmatch.ds.suffixtree.GeneralizedSuffixTree;
+import stringmatch.ds.suffixtree.SuffixTreeWithCPD;
+import stringmatch.ds.text.Text;
+import stringmatch.ds.util.Pair;
+
+public class DataReadersTest {
+
+  private static File writeTempFile(String contents) throws IOException {
+    File f = File.createTempFile("datareaders", ".txt");
+    f.deleteOnExit();
+    FileWriter fw = new FileWriter(f);
+    fw.write(contents);
+    fw.close();
+    return f;
+  }
+  
+  @Test
+  public void testMapFileNormalizes() throws IOException {
+    File f = writeTempFile(">chr1 header line\nThe quick, brown\nfox -- 42 jumps!\n");
+    File cache = new File(f.getPath() + ".symbols");
+    cache.deleteOnExit();
+    
+    Text t = DataReaders.mapFile(f.getPath());
+    assertEquals(Text.Encoding.BYTES, t.getEncoding());
+    assertEquals(new Text("THEQUICKBROWNFOXJUMPS", true), t);
+    assertTrue(cache.exists());
+    
+    // The second time around the cache is mapped directly.
+    long cacheModified = cache.lastModified();
+    assertEquals(t, DataReaders.mapFile(f.getPath()));
+    assertEquals(cacheModified, cache.lastModified());
+  }
+  
+  @Test
+  public void testReadersSkipTheSameLine() throws IOException {
+    File f = writeTempFile(">chr1 header\nacgt\nNNac\n\nGG\n");
+    new File(f.getPath() + ".symbols").deleteOnExit();
+    Text read = DataReaders.readFile(f.getPath(), 100);
+    assertEquals(new Text("ACGTNNACGG", true), read);
+    assertEquals(read, DataReaders.mapFile(f.getPath()));
+    assertEquals(read, DataReaders.readFile(f.getPath(), Normalizer.LETTERS));
+  }
+  
+  @Test
+  public void testTruncatedCacheIsRebuilt() throws IOException {
+    File f = writeTempFile("header\nbanana\nbandana\n");
+    File cache = new File(f.getPath() + ".symbols");
+    cache.deleteOnExit();
+    // What a run killed halfway through the old writer would leave behind.
+    FileWriter fw = new FileWriter(cache);
+    fw.write("BANAN");
+    fw.close();
+    cache.setLastModified(f.lastModified() + 1000);
+    
+    assertEquals(new Text("BANANABANDANA", true), DataReaders.mapFile(f.getPath()));
+    for (String name : cache.getAbsoluteFile().getParentFile().list()) {
+      assertFalse(name.startsWith(cache.getName()) && name.endsWith(".partial"));
+    }
+  }
+  
+  @Test
+  public void testMappedTextCanBeIndexed() throws IOException {
+    File f = writeTempFile("header\nbanana\nbandana\n");
+    new File(f.getPath() + ".symbols").deleteOnExit();
+    Text t = DataReaders.mapFile(f.getPath());
+    SuffixTreeWithCPD st = new SuffixTreeWithCPD.Builder(t, 1).build();
+    assertEquals(4, st.smartQueryIndices(new Text("AN*", false, t.getEncoding())).size());
+    
+    Text portion = t.extractSubstring(0, 6).addEndCharIfNeeded();
+    assertEquals(new Text("BANANA", true), portion);
+  }
+  
+  @Test
+  public void testReadFasta() throws IOException {
+    SequenceRecordReader reader = new SequenceRecordReader(new StringReader(
+        ">chr1 first\nacgt\nNNac\n\n>chr2\nGG\n"));
+    assertEquals(SequenceRecordReader.Format.FASTA, reader.getFormat());
+    SequenceRecordReader.Record record = reader.next();
+    assertEquals("chr1", record.getName());
+    assertEquals("ACGTNNAC", record.getSequence());
+    record = reader.next();
+    assertEquals("chr2", record.getName());
+    assertEquals("GG", record.getSequence());
+    assertNull(reader.next());
+  }
+  
+  @Test
+  public void testReadFastq() throws IOException {
+    // The second quality line starts with '@', like a header would.
+    SequenceRecordReader reader = new SequenceRecordReader(new StringReader(
+        "@read1\nACGT\n+\nII\n@I\n@read2 x\nTT\n+read2\n##\n"));
+    assertEquals(SequenceRecordReader.Format.FASTQ, reader.getFormat());
+    assertEquals("ACGT", reader.next().getSequence());
+    SequenceRecordReader.Record record = reader.next();
+    assertEquals("read2", record.getName());
+    assertEquals("TT", record.getSequence());
+    assertNull(reader.next());
+  }
+  
+  @Test
+  public void testIndexRecords() throws IOException {
+    File f = writeTempFile(">a\nBANA\nNA\n>b\nNAB\n");
+    GeneralizedSuffixTree gst = DataReaders.indexRecords(f.getPath(),
+        Text.Encoding.CHARACTERS);
+    assertEquals(2, gst.getNumRecords());
+    assertEquals(1, gst.queryLocations(new Text("NAN", false)).size());
+    // "A*NAB" would only match with the wildcard on the record boundary.
+    assertTrue(gst.queryLocations(new Text("A*NAB", false)).isEmpty());
+    assertTrue(gst.queryLocations(new Text("ANAB", false)).isEmpty());
+    assertEquals(new Pair<Integer, Integer>(1, 1),
+        gst.queryLocations(new Text("AB", false)).get(0));
+  }
+  
+  @Test
+  public void testNormalizer() {
+    Normalizer n = new Normalizer.Builder().foldCase().allow("ACGTN")
+        .collapseRuns("N").separateAt("\n").build();
+    assertEquals("ACNGT\u001eNAC", n.normalize("\n\nacNNnnGxT\n\nNNac"));
+    assertEquals("THEQUICKBROWNFOX", DataReaders.cleanString("The quick, brown fox!"));
+  }
+  
+  @Test
+  public void testParallelNormalizeFile() throws IOException {
+    // Big enough to be split into several chunks, with runs that straddle
+    // chunk boundaries.
+    Random rand = new Random(13);
+    StringBuilder sb = new StringBuilder(">header line\n");
+    while (sb.length() < 600000) {
+      int r = rand.nextInt(20);
+      if (r == 0) {
+        for (int i = rand.nextInt(40000); i > 0; i--) sb.append('n');
+      } else if (r == 1) {
+        sb.append("\n\n");
+      } else {
+        sb.append("ACGTacgt- ".charAt(rand.nextInt(10)));
+      }
+    }
+    File f = writeTempFile(sb.toString());
+    
+    Normalizer n = new Normalizer.Builder().foldCase().allow("ACGTN")
+        .collapseRuns("N").separateAt("\n").skipFirstLine().threads(4).build();
+    Text t = DataReaders.readFile(f.getPath(), n);
+    String expected = n.normalize(sb.substring(sb.indexOf("\n") + 1));
+    if (expected.endsWith("\u001e"))
+      expected = expected.substring(0, expected.length() - 1);
+    assertEquals(new Text(expected, true), t);
+    
+    // The same symbols written to a file instead.
+    File out = File.createTempFile("datareaders", ".symbols");
+    out.deleteOnExit();
+    RandomAccessFile raf = new RandomAccessFile(out, "rw");
+    try {
+      assertEquals(expected.length() + 1, n.normalizeFile(f.getPath(), raf.getChannel()));
+    } finally {
+      raf.close();
+    }
+    assertEquals(expected.length() + 1, out.length());
+    assertEquals(t, DataReaders.mapFile(f.getPath(), out.getPath()));
+    
+    Text letters = DataReaders.readFile(f.getPath(), Normalizer.LETTERS);
+    assertEquals(new Text(DataReaders.cleanString(sb.substring(sb.indexOf("\n") + 1)), true),
+        letters);
+  }
+  
+}